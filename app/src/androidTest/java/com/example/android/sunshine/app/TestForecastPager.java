@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Loads 10,000 days of forecast through ForecastPager, checks the pages against one query for
+    all of them, scrolls through the list to check that pages are evicted, and logs memory use
+    and the time to the first frame against loading the whole list as a cursor or a snapshot.
+    Filter logcat on TestForecastPager to read the numbers.
+ */
+public class TestForecastPager extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastPager.class.getSimpleName();
+
+    private static final String LOCATION = "99799";
+    private static final int NUM_DAYS = 10000;
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private long mLocationId;
+    private long mStartDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestRows();
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Long History");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        mStartDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, mStartDate + i * DAY_IN_MILLIS);
+            values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i % 10);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10 + i % 7);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i % 5);
+            days[i] = values;
+        }
+        assertEquals(NUM_DAYS,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestRows();
+        super.tearDown();
+    }
+
+    private void deleteTestRows() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{LOCATION}, null);
+        try {
+            while (cursor.moveToNext()) {
+                String locationId = Long.toString(cursor.getLong(0));
+                mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{locationId});
+                mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                        LocationEntry._ID + " = ?", new String[]{locationId});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The pager is only used on the UI thread; this runs a bind there and waits for it.
+    private void runOnMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    /*
+        Binds a position the way the adapter does and, if its page isn't there yet, waits for it.
+        Returns the page.
+     */
+    private ForecastSnapshot bind(final ForecastPager pager, final int position)
+            throws InterruptedException {
+        final ForecastSnapshot[] page = new ForecastSnapshot[1];
+        final CountDownLatch loaded = new CountDownLatch(1);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                pager.setListener(new ForecastPager.Listener() {
+                    @Override
+                    public void onRowsLoaded(int firstPosition, int count) {
+                        if (pager.getPage(position) != null) {
+                            loaded.countDown();
+                        }
+                    }
+                });
+                pager.onBind(position);
+                page[0] = pager.getPage(position);
+                if (page[0] != null) {
+                    loaded.countDown();
+                }
+            }
+        });
+        assertTrue("Error: position " + position + " never loaded",
+                loaded.await(10, TimeUnit.SECONDS));
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                page[0] = pager.getPage(position);
+            }
+        });
+        return page[0];
+    }
+
+    private ForecastPager loadPager() {
+        return ForecastPager.load(mContext, LOCATION, mStartDate,
+                ForecastFragment.FORECAST_COLUMNS);
+    }
+
+    public void testPagesMatchTheWholeList() throws InterruptedException {
+        ForecastPager pager = loadPager();
+        assertEquals(NUM_DAYS, pager.getCount());
+        Cursor all = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, mStartDate),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WEATHER_ID},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(NUM_DAYS, all.getCount());
+            // the first page, two reached by date from the one before, two by offset after a jump
+            int[] positions = {0, ForecastPager.PAGE_SIZE, ForecastPager.PAGE_SIZE * 2 + 7,
+                    NUM_DAYS / 2, NUM_DAYS - 1};
+            for (int position : positions) {
+                ForecastSnapshot page = bind(pager, position);
+                int first = position - position % ForecastPager.PAGE_SIZE;
+                for (int i = 0; i < page.getCount(); i++) {
+                    all.moveToPosition(first + i);
+                    assertEquals("Error: row " + (first + i) + " is in the wrong place",
+                            all.getLong(0), page.getDate(i));
+                    assertEquals(all.getInt(1), page.getWeatherId(i));
+                }
+            }
+        } finally {
+            pager.close();
+            all.close();
+        }
+    }
+
+    public void testScrollingKeepsAWindowOfPages() throws InterruptedException {
+        ForecastPager pager = loadPager();
+        int windowRows = (ForecastPager.KEEP_PAGES * 2 + 2) * ForecastPager.PAGE_SIZE;
+        int maxLoadedRows = 0;
+        try {
+            for (int position = 0; position < NUM_DAYS; position++) {
+                ForecastSnapshot page = bind(pager, position);
+                assertEquals(mStartDate + position * DAY_IN_MILLIS,
+                        page.getDate(position % ForecastPager.PAGE_SIZE));
+                maxLoadedRows = Math.max(maxLoadedRows, pager.getLoadedRowCount());
+            }
+            assertTrue("Error: " + maxLoadedRows + " rows were held at once",
+                    maxLoadedRows <= windowRows);
+            pager.logStats();
+        } finally {
+            pager.close();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public void testFirstFrameAndMemoryBenchmark() {
+        // what the CursorLoader delivers: the whole list, filled into a cursor window
+        long heap = usedHeap();
+        long nativeHeap = Debug.getNativeHeapAllocatedSize();
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, mStartDate),
+                ForecastFragment.FORECAST_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(NUM_DAYS, cursor.getCount());
+        long cursorNanos = System.nanoTime() - start;
+        long cursorBytes = Debug.getNativeHeapAllocatedSize() - nativeHeap + usedHeap() - heap;
+
+        // what the snapshot loader delivers: the whole list, read out and formatted
+        heap = usedHeap();
+        start = System.nanoTime();
+        ForecastSnapshot snapshot = ForecastSnapshot.fromCursor(mContext, cursor);
+        long snapshotNanos = cursorNanos + System.nanoTime() - start;
+        long snapshotBytes = usedHeap() - heap;
+        cursor.close();
+        assertEquals(NUM_DAYS, snapshot.getCount());
+
+        // the count and the first page
+        heap = usedHeap();
+        start = System.nanoTime();
+        ForecastPager pager = loadPager();
+        long pagerNanos = System.nanoTime() - start;
+        long pagerBytes = usedHeap() - heap;
+        pager.close();
+
+        Log.d(LOG_TAG, "First frame of " + NUM_DAYS + " days: cursor " + cursorNanos / 1000000 +
+                " ms and ~" + cursorBytes / 1024 + " KB, snapshot " + snapshotNanos / 1000000 +
+                " ms and ~" + snapshotBytes / 1024 + " KB, pager " + pagerNanos / 1000000 +
+                " ms and ~" + pagerBytes / 1024 + " KB holding at most " +
+                (ForecastPager.KEEP_PAGES * 2 + 1) * ForecastPager.PAGE_SIZE + " rows");
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastDisplayStrings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the updates ForecastSnapshot.diff works out turn the old list into the new one,
+    and logs how many rows the usual syncs rebind compared with the notifyDataSetChanged the
+    list used to do.  Filter logcat on TestForecastSnapshot to read the numbers.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+    private static final long FIRST_DATE = 1419033600000L;
+    private static final int NUM_DAYS = 14;
+    private static final int TODAY = 2457000;
+
+    private static ForecastSnapshot createSnapshot(int firstDay, int numDays, int changedDay,
+                                                   int today, boolean metric) {
+        long[] dates = new long[numDays];
+        int[] weatherIds = new int[numDays];
+        double[] maxTemps = new double[numDays];
+        double[] minTemps = new double[numDays];
+        for (int i = 0; i < numDays; i++) {
+            int day = firstDay + i;
+            dates[i] = FIRST_DATE + day * DAY_IN_MILLIS;
+            weatherIds[i] = 800 + day % 5;
+            maxTemps[i] = 21.5 + day;
+            minTemps[i] = day == changedDay ? 0 : 9.25 + day;
+        }
+        return new ForecastSnapshot("94043", 37.39, -122.08, dates, weatherIds, maxTemps,
+                minTemps, new ForecastDisplayStrings.Row[numDays], today, metric, "sunshine");
+    }
+
+    private static ForecastSnapshot createSnapshot(int firstDay, int numDays) {
+        return createSnapshot(firstDay, numDays, -1, TODAY, true);
+    }
+
+    /*
+        Replays the diff on the old list of dates, checks it comes out as the new list, and
+        returns how many rows the RecyclerView would have to bind for it.
+     */
+    private int applyDiff(ForecastSnapshot from, final ForecastSnapshot to) {
+        final List<Long> dates = new ArrayList<>();
+        for (int i = 0; i < from.getCount(); i++) {
+            dates.add(from.getDate(i));
+        }
+        final int[] bound = new int[1];
+        ForecastSnapshot.Diff diff = ForecastSnapshot.diff(from, to);
+        diff.dispatchUpdatesTo(new ForecastSnapshot.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    // the new rows come from the new snapshot, in order
+                    dates.add(position + i, -1L);
+                }
+                bound[0] += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    dates.remove(position);
+                }
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                assertTrue("Error: changed a row past the end of the list",
+                        position + count <= dates.size());
+                bound[0] += count;
+            }
+        });
+        assertEquals(to.getCount(), dates.size());
+        for (int i = 0; i < dates.size(); i++) {
+            if (dates.get(i) != -1L) {
+                assertEquals("Error: row " + i + " holds the wrong day",
+                        to.getDate(i), (long) dates.get(i));
+            }
+        }
+        assertEquals(bound[0], diff.getInsertedCount() + diff.getChangedCount());
+        return bound[0];
+    }
+
+    public void testUnchangedSnapshotNeedsNoUpdates() {
+        assertEquals(0, applyDiff(createSnapshot(0, NUM_DAYS), createSnapshot(0, NUM_DAYS)));
+    }
+
+    public void testNewDayIsInsertedAndOldDayRemoved() {
+        ForecastSnapshot from = createSnapshot(0, NUM_DAYS);
+        ForecastSnapshot to = createSnapshot(1, NUM_DAYS);
+        ForecastSnapshot.Diff diff = ForecastSnapshot.diff(from, to);
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(1, diff.getInsertedCount());
+        assertEquals(0, diff.getChangedCount());
+        assertEquals(1, applyDiff(from, to));
+    }
+
+    public void testChangedDayIsRebound() {
+        ForecastSnapshot from = createSnapshot(0, NUM_DAYS);
+        ForecastSnapshot to = createSnapshot(0, NUM_DAYS, 5, TODAY, true);
+        ForecastSnapshot.Diff diff = ForecastSnapshot.diff(from, to);
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(1, diff.getChangedCount());
+    }
+
+    public void testGapsAndEmptyLists() {
+        applyDiff(ForecastSnapshot.EMPTY, createSnapshot(0, NUM_DAYS));
+        applyDiff(createSnapshot(0, NUM_DAYS), ForecastSnapshot.EMPTY);
+        applyDiff(createSnapshot(0, 3), createSnapshot(10, NUM_DAYS));
+        applyDiff(createSnapshot(5, NUM_DAYS), createSnapshot(0, 7));
+        applyDiff(createSnapshot(0, 16), createSnapshot(2, 10));
+    }
+
+    public void testEveryRowIsReboundWhenItWouldLookDifferent() {
+        ForecastSnapshot from = createSnapshot(0, NUM_DAYS);
+        // the units changed, the values in the database didn't
+        assertEquals(NUM_DAYS,
+                applyDiff(from, createSnapshot(0, NUM_DAYS, -1, TODAY, false)));
+        // midnight went by, so "Today" and "Tomorrow" are different days
+        assertEquals(NUM_DAYS,
+                applyDiff(from, createSnapshot(0, NUM_DAYS, -1, TODAY + 1, true)));
+    }
+
+    public void testFromCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int i = 0; i < NUM_DAYS; i++) {
+            // no display strings, as if the day hadn't been rendered yet
+            Object[] row = new Object[ForecastFragment.FORECAST_COLUMNS.length];
+            System.arraycopy(new Object[]{i + 1, FIRST_DATE + i * DAY_IN_MILLIS, "Clear",
+                    21.5 + i, 9.25 + i, "94043", 800 + i, 37.39, -122.08}, 0, row, 0, 9);
+            cursor.addRow(row);
+        }
+        ForecastSnapshot snapshot = ForecastSnapshot.fromCursor(mContext, cursor);
+        cursor.close();
+
+        assertEquals(NUM_DAYS, snapshot.getCount());
+        assertEquals("94043", snapshot.locationSetting);
+        assertEquals(37.39, snapshot.coordLat);
+        assertEquals(-122.08, snapshot.coordLong);
+        for (int i = 0; i < NUM_DAYS; i++) {
+            assertEquals(FIRST_DATE + i * DAY_IN_MILLIS, snapshot.getDate(i));
+            assertEquals(800 + i, snapshot.getWeatherId(i));
+            assertEquals(21.5 + i, snapshot.getMaxTemp(i));
+            assertEquals(9.25 + i, snapshot.getMinTemp(i));
+            assertEquals(i, snapshot.getPositionForDate(snapshot.getDate(i)));
+            assertEquals(Utility.formatTemperature(mContext, 21.5 + i),
+                    snapshot.getDisplayRow(i).high);
+        }
+        assertEquals(RecyclerView.NO_POSITION, snapshot.getPositionForDate(FIRST_DATE - 1));
+        assertEquals(0, ForecastSnapshot.fromCursor(mContext, null).getCount());
+    }
+
+    public void testRowsBoundPerSync() {
+        ForecastSnapshot current = createSnapshot(0, NUM_DAYS);
+        int unchanged = applyDiff(current, createSnapshot(0, NUM_DAYS));
+        int oneDayChanged = applyDiff(current, createSnapshot(0, NUM_DAYS, 3, TODAY, true));
+        int nextDay = applyDiff(current, createSnapshot(1, NUM_DAYS));
+        Log.d(LOG_TAG, "Rows bound per sync of " + NUM_DAYS + " days, against " + NUM_DAYS +
+                " for notifyDataSetChanged: nothing new " + unchanged + ", one day changed " +
+                oneDayChanged + ", a day later " + nextDay);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Checks that the compact layout reads back through the weather view exactly like the plain
+    table, and logs the database file size and the cold query latency of both layouts at 10,000
+    and 1,000,000 rows.  Filter logcat on TestCompactWeatherLayout to read the numbers.
+ */
+public class TestCompactWeatherLayout extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCompactWeatherLayout.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "weather_compact_test.db";
+    private static final String BENCHMARK_DATABASE = "weather_layout_benchmark.db";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int[] BENCHMARK_ROW_COUNTS = {10000, 1000000};
+    private static final int BENCHMARK_DAYS_PER_LOCATION = 1000;
+
+    // a realistic spread of conditions, as the parser stores them
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 600, 741, 211};
+    private static final String[] SHORT_DESCS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Snow", "Fog", "Thunderstorm"};
+
+    // the forecast list's projection
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final List<WeatherDbHelper> mHelpers = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeProviders();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    private WeatherProvider openProvider(String name, boolean compact) {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, name, compact);
+        mHelpers.add(helper);
+        WeatherProvider provider = new WeatherProvider(helper);
+        provider.attachInfo(mContext, null);
+        return provider;
+    }
+
+    private void closeProviders() {
+        for (WeatherDbHelper helper : mHelpers) {
+            helper.close();
+        }
+        mHelpers.clear();
+    }
+
+    private static long insertLocation(WeatherProvider provider, String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(provider.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private static ForecastBatch createBatch(long locationId, int numDays, Random random) {
+        ForecastBatch batch = new ForecastBatch(numDays);
+        batch.setLocationId(locationId);
+        for (int i = 0; i < numDays; i++) {
+            int condition = random.nextInt(WEATHER_IDS.length);
+            double min = -20 + random.nextInt(3000) / 100.0;
+            batch.add(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, WEATHER_IDS[condition],
+                    SHORT_DESCS[condition], min, min + random.nextInt(1500) / 100.0,
+                    random.nextInt(100), 980 + random.nextInt(5000) / 100.0,
+                    random.nextInt(2000) / 100.0, random.nextInt(360));
+        }
+        return batch;
+    }
+
+    public void testProjectionsReadThroughView() {
+        WeatherProvider provider = openProvider(TEST_DATABASE, true);
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationId = ContentUris.parseId(
+                provider.insert(LocationEntry.CONTENT_URI, locationValues));
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+        provider.insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        TestUtilities.validateCursor("Error validating the weather view",
+                provider.query(WeatherEntry.CONTENT_URI, null, null, null, null), weatherValues);
+
+        weatherValues.putAll(locationValues);
+        TestUtilities.validateCursor("Error validating joined weather and location data",
+                provider.query(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                        null, null, null, null), weatherValues);
+        TestUtilities.validateCursor("Error validating joined data with a start date",
+                provider.query(WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        null, null, null, null), weatherValues);
+        TestUtilities.validateCursor("Error validating joined data for a date",
+                provider.query(WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        null, null, null, null), weatherValues);
+
+        SQLiteDatabase db = mHelpers.get(0).getReadableDatabase();
+        assertTrue(CompactWeatherLayout.isInstalled(db));
+        assertEquals("integer", DatabaseUtils.stringForQuery(db, "SELECT typeof(" +
+                WeatherEntry.COLUMN_DEGREES + ") FROM " + CompactWeatherLayout.DATA_TABLE_NAME,
+                null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db,
+                CompactWeatherLayout.CONDITION_TABLE_NAME));
+    }
+
+    public void testUpdateAndDelete() {
+        WeatherProvider provider = openProvider(TEST_DATABASE, true);
+        long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+        long weatherId = ContentUris.parseId(
+                provider.insert(WeatherEntry.CONTENT_URI, weatherValues));
+
+        ContentValues changes = new ContentValues();
+        changes.put(WeatherEntry.COLUMN_MIN_TEMP, -3.25);
+        changes.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        changes.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        assertEquals(1, provider.update(WeatherEntry.CONTENT_URI, changes,
+                WeatherEntry._ID + " = ?", new String[]{Long.toString(weatherId)}));
+        weatherValues.putAll(changes);
+        TestUtilities.validateCursor("Error validating the updated row",
+                provider.query(WeatherEntry.CONTENT_URI, null, null, null, null), weatherValues);
+
+        assertEquals(1, provider.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(
+                        TestUtilities.TEST_DATE))}));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mHelpers.get(0).getReadableDatabase(),
+                CompactWeatherLayout.DATA_TABLE_NAME));
+    }
+
+    public void testBatchUpsertRoundsToStoredPrecision() {
+        WeatherProvider provider = openProvider(TEST_DATABASE, true);
+        long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+
+        ForecastBatch first = createFinerBatch(locationId);
+        assertEquals(14, provider.upsert(first).inserted);
+        assertEquals("Error: the upsert should leave the caller's batch as it was", 12.3456,
+                first.minTemps[3]);
+
+        WeatherProvider.UpsertResult result = provider.upsert(createFinerBatch(locationId));
+        assertEquals("Error: the same forecast again should change nothing, " + result,
+                14, result.unchanged);
+
+        ForecastBatch changed = createFinerBatch(locationId);
+        changed.maxTemps[5] += 0.01;
+        result = provider.upsert(changed);
+        assertEquals(1, result.updated);
+        assertEquals(13, result.unchanged);
+    }
+
+    // with a value finer than hundredths, so what is stored differs from what was sent
+    private static ForecastBatch createFinerBatch(long locationId) {
+        ForecastBatch batch = createBatch(locationId, 14, new Random(14));
+        batch.minTemps[3] = 12.3456;
+        return batch;
+    }
+
+    public void testConvertBetweenLayouts() {
+        WeatherProvider plain = openProvider(TEST_DATABASE, false);
+        long locationId = insertLocation(plain, TestUtilities.TEST_LOCATION);
+        plain.bulkInsert(createBatch(locationId, 14, new Random(7)));
+        List<ContentValues> rows = readWeather(plain);
+        closeProviders();
+
+        WeatherProvider compact = openProvider(TEST_DATABASE, true);
+        assertRowsEqual(rows, readWeather(compact));
+        assertTrue(CompactWeatherLayout.isInstalled(mHelpers.get(0).getReadableDatabase()));
+        closeProviders();
+
+        plain = openProvider(TEST_DATABASE, false);
+        assertRowsEqual(rows, readWeather(plain));
+        SQLiteDatabase db = mHelpers.get(0).getReadableDatabase();
+        assertFalse(CompactWeatherLayout.isInstalled(db));
+        assertEquals("Error: the plain table should get its index back", 1,
+                DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master" +
+                        " WHERE type = 'index' AND name = ? AND tbl_name = ?",
+                        new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE,
+                                WeatherEntry.TABLE_NAME}));
+    }
+
+    private static List<ContentValues> readWeather(WeatherProvider provider) {
+        Cursor cursor = provider.query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry._ID + " ASC");
+        List<ContentValues> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues row = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, row);
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static void assertRowsEqual(List<ContentValues> expected, List<ContentValues> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Error: row " + i + " changed in the conversion",
+                    expected.get(i), actual.get(i));
+        }
+    }
+
+    public void testStorageBenchmark() {
+        for (int rowCount : BENCHMARK_ROW_COUNTS) {
+            String plain = runBenchmark(rowCount, false);
+            String compact = runBenchmark(rowCount, true);
+            Log.d(LOG_TAG, rowCount + " rows: plain table " + plain + "; compact layout " +
+                    compact);
+        }
+    }
+
+    /**
+     * Fills a fresh database with {@code rowCount} days, then reopens it and times the forecast
+     * list's query for one location.
+     *
+     * @return the numbers, ready for the log.
+     */
+    private String runBenchmark(int rowCount, boolean compact) {
+        closeProviders();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+
+        WeatherProvider provider = openProvider(BENCHMARK_DATABASE, compact);
+        Random random = new Random(rowCount);
+        int locationCount = Math.max(1, rowCount / BENCHMARK_DAYS_PER_LOCATION);
+        int daysPerLocation = rowCount / locationCount;
+        for (int i = 0; i < locationCount; i++) {
+            long locationId = insertLocation(provider, "site-" + i);
+            provider.bulkInsert(createBatch(locationId, daysPerLocation, random));
+        }
+        closeProviders();
+        long fileBytes = mContext.getDatabasePath(BENCHMARK_DATABASE).length();
+
+        // a new connection starts with an empty page cache
+        provider = openProvider(BENCHMARK_DATABASE, compact);
+        long start = System.nanoTime();
+        int coldRows = readForecast(provider, "site-" + locationCount / 2);
+        long coldMicros = (System.nanoTime() - start) / 1000;
+        start = System.nanoTime();
+        readForecast(provider, "site-" + locationCount / 2);
+        long warmMicros = (System.nanoTime() - start) / 1000;
+        closeProviders();
+
+        assertEquals(daysPerLocation, coldRows);
+        return String.format(Locale.US,
+                "%.1f MB (%d bytes a row), forecast query %d us cold, %d us warm",
+                fileBytes / (1024.0 * 1024.0), fileBytes / rowCount, coldMicros, warmMicros);
+    }
+
+    private static int readForecast(WeatherProvider provider, String locationSetting) {
+        Cursor cursor = provider.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        TestUtilities.TEST_DATE),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(1);
+                cursor.getString(2);
+                cursor.getDouble(3);
+                cursor.getDouble(4);
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
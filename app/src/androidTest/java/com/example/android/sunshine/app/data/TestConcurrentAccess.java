@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Runs a few threads reading the forecast list through the provider while another one writes
+    syncs, with and without write-ahead logging, checks that every read sees whole forecasts
+    and times the reads made while the syncs were under way.  Filter logcat on
+    TestConcurrentAccess to read the numbers.
+ */
+public class TestConcurrentAccess extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentAccess.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "weather_concurrency_test.db";
+
+    private static final int READER_THREADS = 4;
+    private static final int LOCATION_COUNT = 10;
+    private static final int DAYS = 14;
+    private static final int SYNCS = 20;
+    private static final long DAY_IN_MILLIS = 86400000L;
+    // noon UTC, December 20th, 2014
+    private static final long FIRST_DAY = 1419076800000L;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private WeatherDbHelper mHelper;
+    private WeatherProvider mProvider;
+    private final long[] mLocationIds = new long[LOCATION_COUNT];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeProvider();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    private void openProvider(boolean writeAheadLogging) {
+        closeProvider();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mHelper = new WeatherDbHelper(mContext, TEST_DATABASE,
+                BuildConfig.COMPACT_WEATHER_STORAGE, writeAheadLogging);
+        mProvider = new WeatherProvider(mHelper);
+        mProvider.attachInfo(mContext, null);
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            mLocationIds[i] = ContentUris.parseId(
+                    mProvider.insert(LocationEntry.CONTENT_URI, location));
+        }
+    }
+
+    private void closeProvider() {
+        if (mHelper != null) {
+            mHelper.close();
+            mHelper = null;
+        }
+    }
+
+    private static String locationSetting(int i) {
+        return "9970" + i;
+    }
+
+    /*
+        One sync as the sync engine writes it: a diff-aware upsert of every location's days,
+        with values that change from one sync to the next, then the history roll up.
+     */
+    private void sync(int round) {
+        ForecastBatch[] batches = new ForecastBatch[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ForecastBatch batch = new ForecastBatch(DAYS);
+            batch.setLocationId(mLocationIds[i]);
+            for (int day = 0; day < DAYS; day++) {
+                batch.add(FIRST_DAY + day * DAY_IN_MILLIS, 800 + (round + day) % 5, "Clear",
+                        10 + (round + day) % 7, 20 + (round + i) % 9, 65, 1013 - round % 4,
+                        3.5 + round % 3, (round * 37) % 360);
+            }
+            batches[i] = batch;
+        }
+        mProvider.upsert(batches);
+        mProvider.rollUp(FIRST_DAY);
+    }
+
+    private int queryForecastList(int location) {
+        Cursor cursor = mProvider.query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting(location),
+                        FIRST_DAY),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryJournalMode() {
+        return DatabaseUtils.stringForQuery(mHelper.getReadableDatabase(),
+                "PRAGMA journal_mode", null);
+    }
+
+    /*
+        Writes SYNCS syncs on this thread while READER_THREADS threads read the forecast list
+        of every location in turn, and returns the microseconds each read took that started
+        while the syncs were under way, sorted.
+     */
+    private long[] readDuringSyncs() throws Throwable {
+        // fill the table first, so every read should return every day
+        sync(0);
+
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(READER_THREADS);
+        final List<Long> micros = new ArrayList<>();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] readers = new Thread[READER_THREADS];
+        for (int t = 0; t < READER_THREADS; t++) {
+            final int firstLocation = t;
+            readers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<Long> threadMicros = new ArrayList<>();
+                    started.countDown();
+                    try {
+                        for (int i = firstLocation; syncing.get(); i++) {
+                            long start = System.nanoTime();
+                            int rows = queryForecastList(i % LOCATION_COUNT);
+                            long elapsed = (System.nanoTime() - start) / 1000;
+                            if (rows != DAYS) {
+                                throw new AssertionError("Read " + rows + " days of " + DAYS +
+                                        " during a sync");
+                            }
+                            if (syncing.get()) {
+                                threadMicros.add(elapsed);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                    synchronized (micros) {
+                        micros.addAll(threadMicros);
+                    }
+                }
+            }, LOG_TAG + "-reader-" + t);
+            readers[t].start();
+        }
+
+        started.await();
+        try {
+            for (int round = 1; round <= SYNCS; round++) {
+                sync(round);
+            }
+        } finally {
+            syncing.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        long[] sorted = new long[micros.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = micros.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String describe(long[] micros) {
+        if (micros.length == 0) {
+            return "no reads";
+        }
+        return micros.length + " reads, p50 " + micros[micros.length / 2] + " us, p99 " +
+                micros[micros.length * 99 / 100] + " us";
+    }
+
+    public void testDatabaseUsesWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        openProvider(true);
+        assertEquals("Error: the database should be in write-ahead logging mode", "wal",
+                queryJournalMode().toLowerCase());
+    }
+
+    public void testWritesFromManyThreadsAreAllKept() throws Throwable {
+        openProvider(true);
+        final int writers = READER_THREADS;
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final int location = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ContentValues[] days = new ContentValues[DAYS];
+                        for (int day = 0; day < DAYS; day++) {
+                            days[day] = TestUtilities.createWeatherValues(mLocationIds[location]);
+                            days[day].put(WeatherEntry.COLUMN_DATE,
+                                    FIRST_DAY + day * DAY_IN_MILLIS);
+                        }
+                        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, days);
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        for (int location = 0; location < writers; location++) {
+            assertEquals(DAYS, queryForecastList(location));
+        }
+    }
+
+    public void testReadsDuringSyncBenchmark() throws Throwable {
+        openProvider(false);
+        long[] rollback = readDuringSyncs();
+        openProvider(true);
+        long[] writeAhead = readDuringSyncs();
+
+        assertTrue("Error: no reads completed while the syncs were writing",
+                writeAhead.length > 0);
+        Log.d(LOG_TAG, READER_THREADS + " readers, " + SYNCS + " syncs of " + LOCATION_COUNT +
+                " locations: rollback journal " + describe(rollback) +
+                ", write-ahead log " + describe(writeAhead));
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Upgrades databases written by older versions of the app and checks that the cached rows
+    survive and that the result has the same schema as a freshly created database.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    // The schema exactly as version 2 of the app created it.  Never edit these: they stand in
+    // for the databases already out on devices.
+    private static final String V2_CREATE_LOCATION_TABLE = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL  );";
+    private static final String V2_CREATE_WEATHER_TABLE = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL,  " +
+            "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final int LOCATION_COUNT = 20;
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Writes a version 2 database with a few weeks of forecasts for a handful of locations,
+     * as the sync adapter would have left it.
+     */
+    private void createPopulatedV2Database() {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            db.execSQL(V2_CREATE_LOCATION_TABLE);
+            db.execSQL(V2_CREATE_WEATHER_TABLE);
+            db.beginTransaction();
+            try {
+                for (int location = 0; location < LOCATION_COUNT; location++) {
+                    db.execSQL("INSERT INTO location VALUES (?, ?, ?, ?, ?)", new Object[]{
+                            location + 1, "9970" + location, "North Pole", 64.7488, -147.353});
+                    for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                        db.execSQL("INSERT INTO weather (location_id, date, short_desc, " +
+                                "weather_id, min, max, humidity, pressure, wind, degrees) " +
+                                "VALUES (?, ?, 'Asteroids', 321, 65, 75, 1.2, 1.3, 5.5, 1.1)",
+                                new Object[]{location + 1,
+                                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS});
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(2);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return the tables and indexes of the database, each with its columns in order.
+     */
+    private static Map<String, String> describeSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new HashMap<String, String>();
+        Cursor objects = db.rawQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE type IN ('table', 'index') AND name NOT LIKE 'sqlite_%' " +
+                "AND name != 'android_metadata'", null);
+        try {
+            while (objects.moveToNext()) {
+                String pragma = "table".equals(objects.getString(0)) ? "table_info" : "index_info";
+                Cursor columns = db.rawQuery(
+                        "PRAGMA " + pragma + "(" + objects.getString(1) + ")", null);
+                StringBuilder description = new StringBuilder(objects.getString(0));
+                try {
+                    int nameIndex = columns.getColumnIndex("name");
+                    int typeIndex = columns.getColumnIndex("type");
+                    while (columns.moveToNext()) {
+                        description.append(' ').append(columns.getString(nameIndex));
+                        if (typeIndex != -1) {
+                            description.append(':').append(columns.getString(typeIndex));
+                        }
+                    }
+                } finally {
+                    columns.close();
+                }
+                schema.put(objects.getString(1), description.toString());
+            }
+        } finally {
+            objects.close();
+        }
+        return schema;
+    }
+
+    public void testMigrationsAreInVersionOrder() {
+        assertTrue(WeatherDbHelper.MIGRATIONS.length > 0);
+        for (int i = 0; i < WeatherDbHelper.MIGRATIONS.length; i++) {
+            assertEquals("Error: migrations must go one version at a time",
+                    WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i + 1,
+                    WeatherDbHelper.MIGRATIONS[i].toVersion);
+        }
+        assertEquals("Error: the last migration should reach the current version",
+                WeatherDbHelper.DATABASE_VERSION,
+                WeatherDbHelper.MIGRATIONS[WeatherDbHelper.MIGRATIONS.length - 1].toVersion);
+    }
+
+    public void testMigrateTo3AddsLocationDateIndex() {
+        createPopulatedV2Database();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            WeatherDbHelper.MIGRATIONS[0].migrate(db);
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                    new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE}));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testMigrateTo4AddsDisplayTable() {
+        createPopulatedV2Database();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            WeatherDbHelper.MIGRATIONS[0].migrate(db);
+            WeatherDbHelper.MIGRATIONS[1].migrate(db);
+            assertEquals("Error: the display strings should start out empty", 0,
+                    DatabaseUtils.queryNumEntries(db, WeatherContract.DisplayEntry.TABLE_NAME));
+            // the forecast queries join it in
+            Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                    ForecastDisplayStrings.COLUMNS, WeatherProvider.sLocationSettingSelection,
+                    new String[]{"99700"}, null, null, null);
+            try {
+                assertEquals(DAYS_PER_LOCATION, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testMigrateTo5AddsHourlyTable() {
+        createPopulatedV2Database();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            for (int i = 0; i < 3; i++) {
+                WeatherDbHelper.MIGRATIONS[i].migrate(db);
+            }
+            assertEquals("Error: the hourly forecast should start out empty", 0,
+                    DatabaseUtils.queryNumEntries(db, WeatherContract.HourlyEntry.TABLE_NAME));
+            // the hourly queries join it to the locations that were already there
+            db.execSQL("INSERT INTO hourly (location_id, hour, short_desc, weather_id, temp, " +
+                    "humidity, pressure, wind, degrees) " +
+                    "VALUES (1, 394176, 'Asteroids', 321, 70, 1.2, 1.3, 5.5, 1.1)");
+            Cursor cursor = WeatherProvider.sHourlyByLocationSettingQueryBuilder.query(db,
+                    null, WeatherProvider.sHourlyLocationSettingWithRangeSelection,
+                    new String[]{"99700", "394176", "394177"}, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testMigrateTo6AddsHistoryTable() {
+        createPopulatedV2Database();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            for (int i = 0; i < 4; i++) {
+                WeatherDbHelper.MIGRATIONS[i].migrate(db);
+            }
+            assertEquals("Error: the history should start out empty", 0,
+                    DatabaseUtils.queryNumEntries(db, WeatherContract.HistoryEntry.TABLE_NAME));
+            // the first roll up after the upgrade picks up the days already stored
+            long now = TestUtilities.TEST_DATE +
+                    (DAYS_PER_LOCATION + ForecastHistory.FULL_RESOLUTION_DAYS) * DAY_IN_MILLIS;
+            ForecastHistory.rollUp(db, WeatherContract.WeatherEntry.TABLE_NAME, now);
+            assertEquals(0, DatabaseUtils.queryNumEntries(db,
+                    WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals("Error: every stored day should have a history row",
+                    LOCATION_COUNT * DAYS_PER_LOCATION,
+                    DatabaseUtils.queryNumEntries(db, WeatherContract.HistoryEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testUpgradeFromV2KeepsRows() {
+        createPopulatedV2Database();
+
+        long start = SystemClock.elapsedRealtime();
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long upgradeMillis = SystemClock.elapsedRealtime() - start;
+        Log.d(LOG_TAG, "Upgraded " + LOCATION_COUNT * DAYS_PER_LOCATION +
+                " forecasts from version 2 to " + WeatherDbHelper.DATABASE_VERSION + " in " +
+                upgradeMillis + " ms");
+
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: locations were lost during the upgrade", LOCATION_COUNT,
+                    DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: forecasts were lost during the upgrade",
+                    LOCATION_COUNT * DAYS_PER_LOCATION,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+            SQLiteDatabase fresh = SQLiteDatabase.create(null);
+            try {
+                helper.onCreate(fresh);
+                assertEquals("Error: the upgraded schema differs from a new database",
+                        describeSchema(fresh), describeSchema(db));
+            } finally {
+                fresh.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Checks that the compiled statement ingest path stores the same rows as bulkInsert with
+    ContentValues, and logs how many rows per second each path writes for 14, 1,000 and 100,000
+    rows.  Filter logcat on TestForecastBatchIngest to read the numbers.
+ */
+public class TestForecastBatchIngest extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBatchIngest.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+        deleteAllWeather();
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllWeather();
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mClient.release();
+        super.tearDown();
+    }
+
+    private void deleteAllWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private ForecastBatch createBatch(int numRows) {
+        ForecastBatch batch = new ForecastBatch(numRows);
+        batch.setLocationId(mLocationRowId);
+        for (int i = 0; i < numRows; i++) {
+            batch.add(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS, 321, "Asteroids",
+                    65 - i % 40, 75 + i % 40, 1.2 + 0.01 * (i % 50), 1.3 - 0.01 * (i % 50),
+                    5.5 + 0.2 * (i % 50), 1.1);
+        }
+        return batch;
+    }
+
+    public void testBatchInsertMatchesContentValues() {
+        ForecastBatch batch = createBatch(14);
+        assertEquals(batch.size(), mProvider.bulkInsert(batch));
+
+        ContentValues[] expected = batch.toContentValues();
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(expected.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            expected[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(expected[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+            TestUtilities.validateCurrentRecord("testBatchInsertMatchesContentValues. " +
+                    "Error validating WeatherEntry " + i, cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    public void testBatchUpsertOnlyWritesChangedDays() {
+        WeatherProvider.UpsertResult result = mProvider.upsert(createBatch(10));
+        assertEquals(10, result.inserted);
+
+        result = mProvider.upsert(createBatch(10));
+        assertEquals("Error: identical days should not be written", 0, result.getChangedCount());
+        assertEquals(10, result.unchanged);
+
+        ForecastBatch changed = createBatch(12);
+        changed.maxTemps[3] = 99;
+        result = mProvider.upsert(changed);
+        assertEquals(2, result.inserted);
+        assertEquals(1, result.updated);
+        assertEquals(9, result.unchanged);
+
+        // the ContentValues path must agree that nothing changed now
+        result = mProvider.upsert(WeatherEntry.buildWeatherUpsertUri(), changed.toContentValues());
+        assertEquals(0, result.getChangedCount());
+    }
+
+    public void testIngestBenchmark() {
+        for (int numRows : new int[]{14, 1000, 100000}) {
+            ForecastBatch batch = createBatch(numRows);
+            ContentValues[] rows = batch.toContentValues();
+
+            deleteAllWeather();
+            long start = System.nanoTime();
+            mProvider.bulkInsert(WeatherEntry.CONTENT_URI, rows);
+            long contentValuesNanos = System.nanoTime() - start;
+
+            deleteAllWeather();
+            start = System.nanoTime();
+            mProvider.bulkInsert(batch);
+            long batchNanos = System.nanoTime() - start;
+
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "%d rows: ContentValues %.0f rows/s, compiled statement %.0f rows/s",
+                    numRows, numRows * 1e9 / contentValuesNanos, numRows * 1e9 / batchNanos));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the display strings rendered at write time read back as the text the forecast
+    list would have formatted, that they are ignored once the locale, units or day change, that
+    a write only renders the days it wrote from today on, and logs how long the text of a row takes to format against reading it back precomputed.
+    Filter logcat on TestForecastDisplayStrings to read the numbers.
+ */
+public class TestForecastDisplayStrings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastDisplayStrings.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "weather_display_test.db";
+    private static final int BENCHMARK_ITERATIONS = 200;
+    private static final int DAYS = TestProvider.createBulkInsertWeatherValues(0).length;
+    private static final long DAY_IN_MILLIS = 86400000L;
+    private static final long TODAY = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+    // the weather columns, then the display strings
+    private static final String[] PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.DisplayEntry.COLUMN_LOCALE,
+            WeatherContract.DisplayEntry.COLUMN_METRIC,
+            WeatherContract.DisplayEntry.COLUMN_JULIAN_DAY,
+            WeatherContract.DisplayEntry.COLUMN_DAY,
+            WeatherContract.DisplayEntry.COLUMN_DAY_LONG,
+            WeatherContract.DisplayEntry.COLUMN_DESCRIPTION,
+            WeatherContract.DisplayEntry.COLUMN_DESCRIPTION_A11Y,
+            WeatherContract.DisplayEntry.COLUMN_HIGH,
+            WeatherContract.DisplayEntry.COLUMN_HIGH_A11Y,
+            WeatherContract.DisplayEntry.COLUMN_LOW,
+            WeatherContract.DisplayEntry.COLUMN_LOW_A11Y
+    };
+    private static final int COL_DISPLAY_STRINGS = 4;
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mHelper = new WeatherDbHelper(mContext, TEST_DATABASE, false);
+        mDb = mHelper.getWritableDatabase();
+        insertLocationWithWeather(TestUtilities.TEST_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    /*
+        Inserts DAYS days from today on, and yesterday, which is never rendered.
+     */
+    private void insertLocationWithWeather(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, location);
+        assertTrue(locationId != -1);
+        long date = TODAY;
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(locationId)) {
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+            date += DAY_IN_MILLIS;
+        }
+        ContentValues yesterday = TestUtilities.createWeatherValues(locationId);
+        yesterday.put(WeatherEntry.COLUMN_DATE, TODAY - DAY_IN_MILLIS);
+        assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, yesterday) != -1);
+    }
+
+    private int countDisplayRows() {
+        return (int) DatabaseUtils.queryNumEntries(mDb,
+                WeatherContract.DisplayEntry.TABLE_NAME);
+    }
+
+    private Cursor queryForecast(String locationSetting) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(mDb, PROJECTION,
+                WeatherProvider.sLocationSettingSelection, new String[]{locationSetting},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private ForecastDisplayStrings.Row format(Cursor cursor) {
+        return ForecastDisplayStrings.Row.format(mContext, cursor.getLong(0), cursor.getInt(1),
+                cursor.getDouble(2), cursor.getDouble(3));
+    }
+
+    public void testRenderedTextMatchesFormatting() {
+        assertEquals(DAYS,
+                ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION));
+
+        ForecastDisplayStrings.RenderKey key = ForecastDisplayStrings.RenderKey.current(mContext);
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        try {
+            assertEquals(DAYS + 1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertNull("Error: yesterday shouldn't be rendered",
+                    ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, key));
+            while (cursor.moveToNext()) {
+                ForecastDisplayStrings.Row expected = format(cursor);
+                ForecastDisplayStrings.Row actual =
+                        ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, key);
+                assertNotNull("Error: row " + cursor.getPosition() + " wasn't rendered", actual);
+                assertEquals(expected.day, actual.day);
+                assertEquals(expected.dayLong, actual.dayLong);
+                assertEquals(expected.description, actual.description);
+                assertEquals(expected.descriptionA11y, actual.descriptionA11y);
+                assertEquals(expected.high, actual.high);
+                assertEquals(expected.highA11y, actual.highA11y);
+                assertEquals(expected.low, actual.low);
+                assertEquals(expected.lowA11y, actual.lowA11y);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testStaleTextIsIgnored() {
+        ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION);
+        ForecastDisplayStrings.RenderKey key = ForecastDisplayStrings.RenderKey.current(mContext);
+        ForecastDisplayStrings.RenderKey[] staleKeys = {
+                new ForecastDisplayStrings.RenderKey(key.locale, !key.metric, key.julianDay),
+                new ForecastDisplayStrings.RenderKey(key.locale, key.metric, key.julianDay + 1),
+                new ForecastDisplayStrings.RenderKey("xx_XX", key.metric, key.julianDay)
+        };
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        try {
+            // today, after yesterday
+            assertTrue(cursor.moveToPosition(1));
+            for (ForecastDisplayStrings.RenderKey staleKey : staleKeys) {
+                assertNull("Error: text rendered for other settings was used",
+                        ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, staleKey));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // only the location on screen is kept
+        insertLocationWithWeather("99706");
+        ForecastDisplayStrings.render(mContext, mDb, "99706");
+        cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        try {
+            assertTrue(cursor.moveToPosition(1));
+            assertNull(ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, key));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testOnlyWrittenDaysAreRendered() {
+        ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION);
+        long third = TODAY + 2 * DAY_IN_MILLIS;
+
+        assertEquals("Error: a write that touched no weather row rendered rows", 0,
+                ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION,
+                        Long.MAX_VALUE, Long.MIN_VALUE));
+        assertEquals("Error: only the day written should be rendered again", 1,
+                ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION,
+                        third, third));
+        assertEquals("Error: past days should never be rendered", 0,
+                ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION,
+                        TODAY - DAY_IN_MILLIS, TODAY - DAY_IN_MILLIS));
+        assertEquals(DAYS, countDisplayRows());
+
+        // a day with no text yet is rendered whatever was written
+        mDb.delete(WeatherContract.DisplayEntry.TABLE_NAME,
+                WeatherContract.DisplayEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(third)});
+        assertEquals(1, ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION,
+                Long.MAX_VALUE, Long.MIN_VALUE));
+
+        // another location's text is dropped by date and location, not the whole table
+        insertLocationWithWeather("99706");
+        assertEquals(DAYS, ForecastDisplayStrings.render(mContext, mDb, "99706",
+                Long.MAX_VALUE, Long.MIN_VALUE));
+        assertEquals(DAYS, countDisplayRows());
+    }
+
+    public void testBindTextBenchmark() {
+        ForecastDisplayStrings.render(mContext, mDb, TestUtilities.TEST_LOCATION);
+        ForecastDisplayStrings.RenderKey key = ForecastDisplayStrings.RenderKey.current(mContext);
+        Cursor cursor = queryForecast(TestUtilities.TEST_LOCATION);
+        try {
+            int rows = cursor.getCount();
+            // warm up both paths
+            for (int i = 0; i < 10; i++) {
+                cursor.moveToPosition(i % rows);
+                format(cursor);
+                ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, key);
+            }
+
+            // what every bind used to do
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                for (int row = 0; row < rows; row++) {
+                    cursor.moveToPosition(row);
+                    format(cursor);
+                }
+            }
+            long formatNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                for (int row = 0; row < rows; row++) {
+                    cursor.moveToPosition(row);
+                    ForecastDisplayStrings.Row.read(cursor, COL_DISPLAY_STRINGS, key);
+                }
+            }
+            long readNanos = System.nanoTime() - start;
+
+            int boundRows = rows * BENCHMARK_ITERATIONS;
+            Log.d(LOG_TAG, String.format(java.util.Locale.US,
+                    "Text for a bound row: formatted %.1f us, precomputed %.1f us; " +
+                            "rendering %d rows took %d us",
+                    formatNanos / 1000.0 / boundRows, readNanos / 1000.0 / boundRows,
+                    ForecastDisplayStrings.getRenderedRowCount(),
+                    ForecastDisplayStrings.getRenderNanos() / 1000));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the history roll up aggregates a day's forecasts and a week's days correctly in
+    both weather layouts, and runs a year of daily syncs through the provider to check that the
+    rows kept per location, and the database file, stop growing.  Filter logcat on
+    TestForecastHistory to read the sizes.
+ */
+public class TestForecastHistory extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastHistory.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "weather_history_test.db";
+
+    private static final int TODAY = 2457012;  // December 20th, 2014
+    private static final int FORECAST_DAYS = 14;
+    private static final int FORECAST_PERIODS = 40;
+    private static final int HOURS_PER_PERIOD = 3;
+    private static final int SIMULATED_DAYS = 365;
+    private static final int SIMULATED_LOCATIONS = 3;
+    private static final double EPSILON = 1e-9;
+
+    private final List<WeatherDbHelper> mHelpers = new ArrayList<>();
+    private final Time mTime = new Time();
+
+    static ContentValues createHistoryValues(long locationRowId, int days, int startDay) {
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HistoryEntry.COLUMN_DAYS, days);
+        values.put(HistoryEntry.COLUMN_START_DAY, startDay);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, 10.0);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, 20.0);
+        values.put(HistoryEntry.COLUMN_AVG_TEMP, 15.0);
+        values.put(HistoryEntry.COLUMN_MAX_WIND, 5.5);
+        values.put(HistoryEntry.COLUMN_MEAN_PRESSURE, 1013.0);
+        values.put(HistoryEntry.COLUMN_SAMPLES, days * 9);
+        return values;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeProviders();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    private WeatherProvider openProvider(boolean compact) {
+        closeProviders();
+        mContext.deleteDatabase(TEST_DATABASE);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, TEST_DATABASE, compact);
+        mHelpers.add(helper);
+        WeatherProvider provider = new WeatherProvider(helper);
+        provider.attachInfo(mContext, null);
+        return provider;
+    }
+
+    private void closeProviders() {
+        for (WeatherDbHelper helper : mHelpers) {
+            helper.close();
+        }
+        mHelpers.clear();
+    }
+
+    private SQLiteDatabase getDatabase() {
+        return mHelpers.get(0).getWritableDatabase();
+    }
+
+    private static long insertLocation(WeatherProvider provider, String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(provider.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private ContentValues createDay(long locationId, int day, double min, double max,
+                                    double wind, double pressure) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, mTime.setJulianDay(day));
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, wind);
+        values.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        return values;
+    }
+
+    private long noonOf(int day) {
+        return mTime.setJulianDay(day) + 12 * HourlyEntry.HOUR_IN_MILLIS;
+    }
+
+    private int rollUp(WeatherProvider provider, int today) {
+        return provider.rollUp(noonOf(today));
+    }
+
+    private int countRows(String table, String selection) {
+        return (int) DatabaseUtils.queryNumEntries(getDatabase(), table, selection);
+    }
+
+    private ContentValues queryHistory(WeatherProvider provider, int days, int startDay) {
+        Cursor cursor = provider.query(HistoryEntry.CONTENT_URI, null,
+                HistoryEntry.COLUMN_DAYS + " = ? AND " + HistoryEntry.COLUMN_START_DAY + " = ?",
+                new String[]{Integer.toString(days), Integer.toString(startDay)}, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            ContentValues values = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, values);
+            assertFalse("Error: more than one row for a period", cursor.moveToNext());
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertHistory(ContentValues row, double min, double max, double avg,
+                                      double maxWind, double meanPressure, int samples) {
+        assertNotNull("Error: no history row", row);
+        assertEquals(min, row.getAsDouble(HistoryEntry.COLUMN_MIN_TEMP), EPSILON);
+        assertEquals(max, row.getAsDouble(HistoryEntry.COLUMN_MAX_TEMP), EPSILON);
+        assertEquals(avg, row.getAsDouble(HistoryEntry.COLUMN_AVG_TEMP), EPSILON);
+        assertEquals(maxWind, row.getAsDouble(HistoryEntry.COLUMN_MAX_WIND), EPSILON);
+        assertEquals(meanPressure, row.getAsDouble(HistoryEntry.COLUMN_MEAN_PRESSURE), EPSILON);
+        assertEquals(samples, (int) row.getAsInteger(HistoryEntry.COLUMN_SAMPLES));
+    }
+
+    public void testDayIsRolledUp() {
+        for (boolean compact : new boolean[]{false, true}) {
+            WeatherProvider provider = openProvider(compact);
+            long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+            int oldDay = TODAY - ForecastHistory.FULL_RESOLUTION_DAYS - 3;
+            int recentDay = TODAY - 2;
+            provider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                    createDay(locationId, oldDay, 10, 20, 5, 1000),
+                    createDay(locationId, recentDay, 10, 20, 5, 1000)});
+            // temperatures 12 to 19, wind 3 to 10 and pressure 1010 to 1017
+            ContentValues[] hours = new ContentValues[TestHourlyForecast.PERIODS_PER_DAY];
+            long firstHour = ForecastHistory.firstHourOf(mTime, oldDay);
+            for (int i = 0; i < hours.length; i++) {
+                hours[i] = TestHourlyForecast.createHourValues(locationId,
+                        firstHour + i * HOURS_PER_PERIOD);
+                hours[i].put(HourlyEntry.COLUMN_TEMP, 12 + i);
+                hours[i].put(HourlyEntry.COLUMN_WIND_SPEED, 3 + i);
+                hours[i].put(HourlyEntry.COLUMN_PRESSURE, 1010 + i);
+            }
+            provider.bulkInsert(HourlyEntry.CONTENT_URI, hours);
+
+            assertEquals("Error: the day's forecast and hours should be rolled up",
+                    1 + hours.length, rollUp(provider, TODAY));
+
+            // the daily forecast is one sample with a mean of 15, the hours eight with 15.5
+            assertHistory(queryHistory(provider, 1, oldDay), 10, 20, (15 + 15.5 * 8) / 9, 10,
+                    (1000 + 1013.5 * 8) / 9, 9);
+            assertEquals("Error: the recent day should be kept as it is", 1,
+                    countRows(WeatherEntry.TABLE_NAME, null));
+            assertEquals(0, countRows(HourlyEntry.TABLE_NAME, null));
+            assertNull(queryHistory(provider, 1, recentDay));
+
+            assertEquals("Error: a second roll up should find nothing to do", 0,
+                    rollUp(provider, TODAY));
+        }
+    }
+
+    public void testDaysAreMergedIntoWeeks() {
+        for (boolean compact : new boolean[]{false, true}) {
+            WeatherProvider provider = openProvider(compact);
+            long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+            // two whole weeks, ending well before the daily history
+            int firstDay = TODAY - ForecastHistory.DAILY_HISTORY_DAYS - 21;
+            firstDay -= firstDay % ForecastHistory.DAYS_PER_WEEK;
+            ContentValues[] days = new ContentValues[2 * ForecastHistory.DAYS_PER_WEEK];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = createDay(locationId, firstDay + i, i, 10 + i, i, 1000 + i);
+            }
+            provider.bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+            rollUp(provider, TODAY);
+
+            // each day's mean is 5 + i, halfway between its low and high
+            assertHistory(queryHistory(provider, 7, firstDay), 0, 16, 8, 6, 1003, 7);
+            assertHistory(queryHistory(provider, 7, firstDay + 7), 7, 23, 15, 13, 1010, 7);
+            assertEquals("Error: the days should have been merged away", 0,
+                    countRows(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DAYS + " = 1"));
+            assertEquals(0, countRows(WeatherEntry.TABLE_NAME, null));
+        }
+    }
+
+    public void testOldWeeksExpire() {
+        WeatherProvider provider = openProvider(false);
+        long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+        int week = ForecastHistory.DAYS_PER_WEEK;
+        int oldestKept = TODAY - ForecastHistory.WEEKLY_HISTORY_WEEKS * week;
+        getDatabase().insert(HistoryEntry.TABLE_NAME, null,
+                createHistoryValues(locationId, week, oldestKept - week));
+        getDatabase().insert(HistoryEntry.TABLE_NAME, null,
+                createHistoryValues(locationId, week, oldestKept));
+
+        assertEquals(1, rollUp(provider, TODAY));
+        assertNull(queryHistory(provider, week, oldestKept - week));
+        assertNotNull(queryHistory(provider, week, oldestKept));
+    }
+
+    public void testLongBacklogIsRolledUpInSmallTransactions() {
+        WeatherProvider provider = openProvider(false);
+        long locationId = insertLocation(provider, TestUtilities.TEST_LOCATION);
+        int backlog = 60;
+        ContentValues[] days = new ContentValues[backlog];
+        for (int i = 0; i < backlog; i++) {
+            days[i] = createDay(locationId, TODAY - ForecastHistory.FULL_RESOLUTION_DAYS - 1 - i,
+                    10, 20, 5, 1000);
+        }
+        provider.bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        ForecastHistory.Result result = ForecastHistory.rollUp(getDatabase(),
+                WeatherEntry.TABLE_NAME, noonOf(TODAY));
+        assertEquals(backlog, result.rolledUpRows);
+        assertTrue("Error: " + backlog + " days were rolled up in " + result.transactions +
+                        " transactions",
+                result.transactions > backlog / ForecastHistory.DAYS_PER_TRANSACTION);
+    }
+
+    private long databaseBytes() {
+        return DatabaseUtils.longForQuery(getDatabase(), "PRAGMA page_count", null) *
+                DatabaseUtils.longForQuery(getDatabase(), "PRAGMA page_size", null);
+    }
+
+    /*
+        Syncs once a day for a year: each sync writes the next 14 days and 40 periods of every
+        location, then rolls up, as ForecastSyncEngine does.
+     */
+    private void simulateYear(boolean compact) {
+        WeatherProvider provider = openProvider(compact);
+        long[] locationIds = new long[SIMULATED_LOCATIONS];
+        for (int i = 0; i < SIMULATED_LOCATIONS; i++) {
+            locationIds[i] = insertLocation(provider, "9970" + i);
+        }
+        int firstDay = TODAY - SIMULATED_DAYS;
+        int filledDay = firstDay + ForecastHistory.DAILY_HISTORY_DAYS +
+                ForecastHistory.DAYS_PER_WEEK;
+        long filledBytes = 0;
+        for (int today = firstDay; today < TODAY; today++) {
+            for (long locationId : locationIds) {
+                ContentValues[] days = new ContentValues[FORECAST_DAYS];
+                for (int i = 0; i < FORECAST_DAYS; i++) {
+                    days[i] = createDay(locationId, today + i, -5 + (today + i) % 20,
+                            5 + (today + i) % 25, (today + i) % 13, 990 + (today + i) % 40);
+                }
+                provider.bulkInsert(WeatherEntry.CONTENT_URI, days);
+                ContentValues[] hours = new ContentValues[FORECAST_PERIODS];
+                long firstHour = ForecastHistory.firstHourOf(mTime, today);
+                for (int i = 0; i < FORECAST_PERIODS; i++) {
+                    hours[i] = TestHourlyForecast.createHourValues(locationId,
+                            firstHour + i * HOURS_PER_PERIOD);
+                }
+                provider.bulkInsert(HourlyEntry.CONTENT_URI, hours);
+            }
+            rollUp(provider, today);
+            if (today == filledDay) {
+                filledBytes = databaseBytes();
+            }
+        }
+
+        int weatherRows = countRows(WeatherEntry.TABLE_NAME, null);
+        int hourlyRows = countRows(HourlyEntry.TABLE_NAME, null);
+        int dailyRows = countRows(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DAYS + " = 1");
+        int weeklyRows = countRows(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_DAYS + " = 7");
+        long bytes = databaseBytes();
+
+        assertEquals(SIMULATED_LOCATIONS * (ForecastHistory.FULL_RESOLUTION_DAYS + FORECAST_DAYS),
+                weatherRows);
+        assertTrue("Error: " + hourlyRows + " hours kept", hourlyRows <= SIMULATED_LOCATIONS *
+                (ForecastHistory.FULL_RESOLUTION_DAYS * TestHourlyForecast.PERIODS_PER_DAY +
+                        FORECAST_PERIODS));
+        assertEquals(SIMULATED_LOCATIONS *
+                        (ForecastHistory.DAILY_HISTORY_DAYS - ForecastHistory.FULL_RESOLUTION_DAYS),
+                dailyRows);
+        assertTrue("Error: " + weeklyRows + " weeks kept",
+                weeklyRows <= SIMULATED_LOCATIONS * (SIMULATED_DAYS / 7 + 1));
+        // past the first weeks only weekly rows are added, a few pages' worth over the year
+        assertTrue("Error: the database grew from " + filledBytes + " to " + bytes + " bytes",
+                bytes <= 2 * filledBytes);
+
+        Log.d(LOG_TAG, (compact ? "Compact" : "Plain") + " layout after " + SIMULATED_DAYS +
+                " daily syncs of " + SIMULATED_LOCATIONS + " locations: " + weatherRows +
+                " weather, " + hourlyRows + " hourly, " + dailyRows + " daily and " + weeklyRows +
+                " weekly history rows in " + bytes / 1024 + " KB (" + filledBytes / 1024 +
+                " KB after " + (filledDay - firstDay) + " days), against " +
+                SIMULATED_LOCATIONS * (SIMULATED_DAYS + FORECAST_DAYS) + " weather and " +
+                SIMULATED_LOCATIONS * SIMULATED_DAYS * TestHourlyForecast.PERIODS_PER_DAY +
+                " hourly rows kept in full");
+    }
+
+    public void testSimulatedYearStaysBounded() {
+        simulateYear(false);
+        simulateYear(true);
+    }
+}
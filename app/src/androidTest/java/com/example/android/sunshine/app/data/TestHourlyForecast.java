@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    Writes 3-hour forecasts through the provider and reads back ranges of a location's hours,
+    then times a day's range, and a day of the daily forecast, as the hourly table grows from
+    the size of the daily one to 8 and 64 times that.  Filter logcat on TestHourlyForecast to
+    read the numbers.
+ */
+public class TestHourlyForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourlyForecast.class.getSimpleName();
+
+    static final int PERIODS_PER_DAY = 8;
+    private static final int HOURS_PER_PERIOD = 3;
+    private static final int LOCATION_COUNT = 10;
+    private static final int DAYS = 16;
+    private static final int QUERY_ITERATIONS = 200;
+    private static final long DAY_IN_MILLIS = 86400000L;
+    // midnight UTC, December 20th, 2014
+    private static final long FIRST_HOUR = HourlyEntry.toEpochHour(1419033600000L);
+
+    private final long[] mLocationIds = new long[LOCATION_COUNT];
+
+    static ContentValues createHourValues(long locationRowId, long hour) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HourlyEntry.COLUMN_HOUR, hour);
+        values.put(HourlyEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+        values.put(HourlyEntry.COLUMN_TEMP, 70 + hour % 10);
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(HourlyEntry.COLUMN_PRESSURE, 1.3);
+        values.put(HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(HourlyEntry.COLUMN_DEGREES, 1.1);
+        return values;
+    }
+
+    private static String locationSetting(int i) {
+        return "9980" + i;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestRows();
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues location = new ContentValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            location.put(LocationEntry.COLUMN_CITY_NAME, "Site " + i);
+            location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+            location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+            mLocationIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestRows();
+        super.tearDown();
+    }
+
+    private void deleteTestRows() {
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            mContext.getContentResolver().delete(
+                    HourlyEntry.buildHourlyLocation(locationSetting(i)), null, null);
+            Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                    new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting(i)}, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String locationId = Long.toString(cursor.getLong(0));
+                    mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                            WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{locationId});
+                    mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                            LocationEntry._ID + " = ?", new String[]{locationId});
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /*
+        Returns the periods of days [firstDay, firstDay + dayCount) of a location, with the
+        values of createHourValues.
+     */
+    private static HourlyBatch createHourlyBatch(long locationId, int firstDay, int dayCount) {
+        int periods = dayCount * PERIODS_PER_DAY;
+        HourlyBatch batch = new HourlyBatch(periods);
+        batch.setLocationId(locationId);
+        for (int i = 0; i < periods; i++) {
+            long hour = FIRST_HOUR + (firstDay * PERIODS_PER_DAY + i) * HOURS_PER_PERIOD;
+            batch.add(hour, 321, "Asteroids", 70 + hour % 10, 1.2, 1.3, 5.5, 1.1);
+        }
+        return batch;
+    }
+
+    /*
+        Writes the periods of days [firstDay, firstDay + dayCount) for every location, in one
+        batch per location through a single provider call, as the sync does.
+     */
+    private void insertHours(int firstDay, int dayCount) {
+        HourlyBatch[] batches = new HourlyBatch[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            batches[i] = createHourlyBatch(mLocationIds[i], firstDay, dayCount);
+        }
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            assertEquals(LOCATION_COUNT * dayCount * PERIODS_PER_DAY, provider.bulkInsert(batches));
+        } finally {
+            client.release();
+        }
+    }
+
+    private Cursor queryDay(int location, int day) {
+        long start = (FIRST_HOUR + day * 24) * HourlyEntry.HOUR_IN_MILLIS;
+        return mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(locationSetting(location), start,
+                        start + DAY_IN_MILLIS),
+                new String[]{HourlyEntry.COLUMN_HOUR, HourlyEntry.COLUMN_TEMP}, null, null,
+                HourlyEntry.COLUMN_HOUR + " ASC");
+    }
+
+    private int countHours(int location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(locationSetting(location)), null, null, null,
+                null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRangeQueryReturnsTheDaysHours() {
+        insertHours(0, 3);
+        Cursor cursor = queryDay(2, 1);
+        try {
+            assertEquals(PERIODS_PER_DAY, cursor.getCount());
+            long expectedHour = FIRST_HOUR + 24;
+            while (cursor.moveToNext()) {
+                assertEquals("Error: hours out of range or order", expectedHour,
+                        cursor.getLong(0));
+                expectedHour += HOURS_PER_PERIOD;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBatchMatchesContentValues() {
+        insertHours(0, 1);
+        // the same day for the second location, through the resolver
+        mContext.getContentResolver().delete(
+                HourlyEntry.buildHourlyLocation(locationSetting(1)), null, null);
+        assertEquals(PERIODS_PER_DAY, mContext.getContentResolver().bulkInsert(
+                HourlyEntry.CONTENT_URI,
+                createHourlyBatch(mLocationIds[1], 0, 1).toContentValues()));
+
+        Cursor batched = queryDay(0, 0);
+        Cursor boxed = queryDay(1, 0);
+        try {
+            assertEquals(PERIODS_PER_DAY, batched.getCount());
+            assertEquals(batched.getCount(), boxed.getCount());
+            while (batched.moveToNext() && boxed.moveToNext()) {
+                assertEquals(boxed.getLong(0), batched.getLong(0));
+                assertEquals(boxed.getDouble(1), batched.getDouble(1));
+            }
+        } finally {
+            batched.close();
+            boxed.close();
+        }
+    }
+
+    public void testSameHourIsReplaced() {
+        insertHours(0, 1);
+        ContentValues changed = createHourValues(mLocationIds[0], FIRST_HOUR);
+        changed.put(HourlyEntry.COLUMN_TEMP, -40.0);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                new ContentValues[]{changed});
+
+        assertEquals("Error: an hour should be stored once per location", PERIODS_PER_DAY,
+                countHours(0));
+        Cursor cursor = queryDay(0, 0);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(-40.0, cursor.getDouble(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDeleteOnlyTouchesTheLocation() {
+        insertHours(0, 2);
+        int deleted = mContext.getContentResolver().delete(
+                HourlyEntry.buildHourlyLocation(locationSetting(0)),
+                HourlyEntry.COLUMN_HOUR + " < ?", new String[]{Long.toString(FIRST_HOUR + 24)});
+
+        assertEquals(PERIODS_PER_DAY, deleted);
+        assertEquals(PERIODS_PER_DAY, countHours(0));
+        assertEquals(2 * PERIODS_PER_DAY, countHours(1));
+    }
+
+    /*
+        Returns the median time, in microseconds, of reading a day of hours for a location.
+     */
+    private long timeDayQuery(int days) {
+        long[] micros = new long[QUERY_ITERATIONS];
+        for (int i = 0; i < QUERY_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = queryDay(i % LOCATION_COUNT, i % days);
+            try {
+                assertEquals(PERIODS_PER_DAY, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return micros[QUERY_ITERATIONS / 2];
+    }
+
+    private long timeDailyQuery() {
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int location = 0; location < LOCATION_COUNT; location++) {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(mLocationIds[location]);
+                values.put(WeatherEntry.COLUMN_DATE, 1419033600000L + day * DAY_IN_MILLIS);
+                days[day] = values;
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        }
+        long[] micros = new long[QUERY_ITERATIONS];
+        for (int i = 0; i < QUERY_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithDate(locationSetting(i % LOCATION_COUNT),
+                            1419033600000L + (i % DAYS) * DAY_IN_MILLIS),
+                    null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return micros[QUERY_ITERATIONS / 2];
+    }
+
+    public void testRangeQueryBenchmark() {
+        long dailyMicros = timeDailyQuery();
+        StringBuilder report = new StringBuilder();
+        report.append("Median query for a day, ").append(LOCATION_COUNT)
+                .append(" locations: daily table (").append(LOCATION_COUNT * DAYS)
+                .append(" rows) ").append(dailyMicros).append(" us");
+
+        // grow the hourly table to 1, 8 and 64 times the rows of the daily one
+        int storedDays = 0;
+        for (int days : new int[]{DAYS / PERIODS_PER_DAY, DAYS, DAYS * PERIODS_PER_DAY}) {
+            insertHours(storedDays, days - storedDays);
+            storedDays = days;
+            long micros = timeDayQuery(days);
+            report.append(", hourly table (").append(LOCATION_COUNT * days * PERIODS_PER_DAY)
+                    .append(" rows) ").append(micros).append(" us");
+        }
+        Log.d(LOG_TAG, report.toString());
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Counts the change notifications the provider sends for a batch of operations and for the
+    writes of a sync, made one at a time and inside a batch, and how many of them would reload
+    a CursorLoader showing a location's forecast list.  Filter logcat on TestNotificationBatch
+    to read the numbers.
+ */
+public class TestNotificationBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestNotificationBatch.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "weather_notification_test.db";
+
+    private static final int TODAY = 2457012;  // December 20th, 2014
+    private static final int LOCATION_COUNT = 3;
+    private static final int FORECAST_DAYS = 14;
+    // rolled up by the sync
+    private static final int PAST_DAYS = ForecastHistory.FULL_RESOLUTION_DAYS + 3;
+    private static final int PERIODS_PER_DAY = TestHourlyForecast.PERIODS_PER_DAY;
+    private static final int HOURS_PER_PERIOD = 3;
+
+    // never written by the provider, notified last so we know every notification before it
+    // has been delivered
+    private static final Uri SENTINEL_URI =
+            WeatherContract.BASE_CONTENT_URI.buildUpon().appendPath("sentinel").build();
+
+    private WeatherDbHelper mHelper;
+    private WeatherProvider mProvider;
+    private final Time mTime = new Time();
+
+    /*
+        Records every notification under the provider's authority, the way the CursorLoaders
+        and the forecast loaders watch their URIs.
+     */
+    private static class RecordingObserver extends ContentObserver {
+        final HandlerThread mThread;
+        final List<Uri> mUris = new ArrayList<>();
+        boolean mSentinelSeen;
+
+        static RecordingObserver start() {
+            HandlerThread thread = new HandlerThread(LOG_TAG);
+            thread.start();
+            return new RecordingObserver(thread);
+        }
+
+        private RecordingObserver(HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mThread = thread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public synchronized void onChange(boolean selfChange, Uri uri) {
+            if (SENTINEL_URI.equals(uri)) {
+                mSentinelSeen = true;
+            } else {
+                mUris.add(uri);
+            }
+        }
+
+        synchronized boolean isSentinelSeen() {
+            return mSentinelSeen;
+        }
+
+        synchronized List<Uri> getUris() {
+            return new ArrayList<>(mUris);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeProvider();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    private void openProvider() {
+        closeProvider();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mHelper = new WeatherDbHelper(mContext, TEST_DATABASE, false);
+        mProvider = new WeatherProvider(mHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    private void closeProvider() {
+        if (mHelper != null) {
+            mHelper.close();
+            mHelper = null;
+        }
+    }
+
+    private static String locationSetting(int i) {
+        return "9960" + i;
+    }
+
+    private static ContentValues createLocation(int i) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+        return values;
+    }
+
+    private RecordingObserver startRecording() {
+        RecordingObserver observer = RecordingObserver.start();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+        return observer;
+    }
+
+    /*
+        Returns every notification the observer got, once the ones already sent have arrived.
+     */
+    private List<Uri> stopRecording(final RecordingObserver observer) {
+        mContext.getContentResolver().notifyChange(SENTINEL_URI, null);
+        try {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return observer.isSentinelSeen();
+                }
+            }.run();
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mThread.quit();
+        }
+        return observer.getUris();
+    }
+
+    /*
+        How many of the notifications reach an observer of the location's forecast list, which
+        hears about its own URI, its descendants and its ancestors.
+     */
+    private static int countReloads(List<Uri> uris, int location) {
+        String listUri = WeatherEntry.buildWeatherLocation(locationSetting(location)).toString();
+        int reloads = 0;
+        for (Uri uri : uris) {
+            String notified = uri.toString();
+            if (listUri.startsWith(notified) || notified.startsWith(listUri)) {
+                reloads++;
+            }
+        }
+        return reloads;
+    }
+
+    private static void assertEachUriOnce(List<Uri> uris) {
+        Set<Uri> distinct = new HashSet<>(uris);
+        assertEquals("Error: a URI was notified more than once in " + uris, distinct.size(),
+                uris.size());
+    }
+
+    /*
+        Writes what a sync writes, in the same order: the new locations, every location's hours
+        and days, and the history roll up, which has days from before the last week to
+        collect.
+     */
+    private void writeSync() {
+        long[] locationIds = new long[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            locationIds[i] = ContentUris.parseId(
+                    mProvider.insert(LocationEntry.CONTENT_URI, createLocation(i)));
+        }
+
+        int firstDay = TODAY - PAST_DAYS;
+        int periods = (PAST_DAYS + FORECAST_DAYS) * PERIODS_PER_DAY;
+        long firstHour = ForecastHistory.firstHourOf(mTime, firstDay);
+        ContentValues[] hours = new ContentValues[LOCATION_COUNT * periods];
+        ForecastBatch[] batches = new ForecastBatch[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            for (int period = 0; period < periods; period++) {
+                hours[i * periods + period] = TestHourlyForecast.createHourValues(locationIds[i],
+                        firstHour + period * HOURS_PER_PERIOD);
+            }
+            batches[i] = new ForecastBatch(PAST_DAYS + FORECAST_DAYS);
+            batches[i].setLocationId(locationIds[i]);
+            for (int day = firstDay; day < TODAY + FORECAST_DAYS; day++) {
+                batches[i].add(mTime.setJulianDay(day), 800, "Clear", 10, 20, 65, 1013, 3.5, 90);
+            }
+        }
+        mProvider.bulkInsert(HourlyEntry.CONTENT_URI, hours);
+        mProvider.upsert(batches);
+        long noon = mTime.setJulianDay(TODAY) + 12 * HourlyEntry.HOUR_IN_MILLIS;
+        assertTrue("Error: the sync should have rolled up the past days",
+                mProvider.rollUp(noon) > 0);
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mProvider.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testApplyBatchNotifiesEachUriOnce() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        openProvider();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(createLocation(0))
+                .build());
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            ContentValues values = TestUtilities.createWeatherValues(0);
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            values.put(WeatherEntry.COLUMN_DATE, mTime.setJulianDay(TODAY + day));
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        RecordingObserver observer = startRecording();
+        assertEquals(1 + FORECAST_DAYS, mProvider.applyBatch(operations).length);
+        List<Uri> uris = stopRecording(observer);
+
+        assertEquals(FORECAST_DAYS, countWeatherRows());
+        assertEachUriOnce(uris);
+        assertEquals("Error: the forecast list should reload once for the batch", 1,
+                countReloads(uris, 0));
+    }
+
+    public void testRolledBackBatchDoesNotNotify() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        openProvider();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(createLocation(0))
+                .build());
+        // the provider can't insert history rows, so the whole batch fails
+        operations.add(ContentProviderOperation.newInsert(WeatherContract.HistoryEntry.CONTENT_URI)
+                .withValues(new ContentValues())
+                .build());
+
+        RecordingObserver observer = startRecording();
+        try {
+            mProvider.applyBatch(operations);
+            fail("Error: the batch should have failed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        List<Uri> uris = stopRecording(observer);
+
+        assertEquals("Error: a rolled back batch changed nothing to notify", 0, uris.size());
+        Cursor cursor = mProvider.query(LocationEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals("Error: the location insert should have been rolled back", 0,
+                    cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testFailedTransactionKeepsNothing() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        openProvider();
+        RecordingObserver observer = startRecording();
+        try {
+            mProvider.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    mProvider.insert(LocationEntry.CONTENT_URI, createLocation(0));
+                    throw new IllegalStateException("sync failed");
+                }
+            });
+            fail("Error: the failure should have been rethrown");
+        } catch (IllegalStateException expected) {
+        }
+        List<Uri> uris = stopRecording(observer);
+
+        assertEquals("Error: a rolled back transaction changed nothing to notify", 0,
+                uris.size());
+        Cursor cursor = mProvider.query(LocationEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals("Error: the location insert should have been rolled back", 0,
+                    cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRollUpNotifiesWeather() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        openProvider();
+        long locationId = ContentUris.parseId(
+                mProvider.insert(LocationEntry.CONTENT_URI, createLocation(0)));
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, mTime.setJulianDay(TODAY - PAST_DAYS));
+        mProvider.insert(WeatherEntry.CONTENT_URI, values);
+
+        RecordingObserver observer = startRecording();
+        long noon = mTime.setJulianDay(TODAY) + 12 * HourlyEntry.HOUR_IN_MILLIS;
+        assertTrue(mProvider.rollUp(noon) > 0);
+        List<Uri> uris = stopRecording(observer);
+
+        assertEquals(0, countWeatherRows());
+        assertTrue("Error: removing weather rows should notify the weather URI, got " + uris,
+                uris.contains(WeatherEntry.CONTENT_URI));
+        assertTrue(uris.contains(WeatherContract.HistoryEntry.CONTENT_URI));
+    }
+
+    public void testSyncNotificationsBenchmark() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        openProvider();
+        RecordingObserver observer = startRecording();
+        writeSync();
+        List<Uri> unbatched = stopRecording(observer);
+
+        openProvider();
+        observer = startRecording();
+        mProvider.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                writeSync();
+            }
+        });
+        List<Uri> batched = stopRecording(observer);
+
+        assertEachUriOnce(batched);
+        assertTrue("Error: the batch sent " + batched.size() + " notifications, one at a time " +
+                unbatched.size(), batched.size() < unbatched.size());
+        assertTrue(countReloads(batched, 0) <= countReloads(unbatched, 0));
+        Log.d(LOG_TAG, "Sync of " + LOCATION_COUNT + " new locations: one write at a time " +
+                unbatched.size() + " notifications, " + countReloads(unbatched, 0) +
+                " forecast list reloads; in a batch " + batched.size() + " notifications, " +
+                countReloads(batched, 0) + " forecast list reloads");
+    }
+}
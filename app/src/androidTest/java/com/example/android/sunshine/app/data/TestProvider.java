@@ -16,6 +16,7 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -160,6 +161,20 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/hourly/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HourlyEntry.buildHourlyLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/hourly
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                WeatherContract.HourlyEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/history/94074
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HistoryEntry.buildHistoryLocation(testLocation));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/history
+        assertEquals("Error: the HistoryEntry CONTENT_URI with location should return HistoryEntry.CONTENT_TYPE",
+                WeatherContract.HistoryEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +527,56 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Runs the same forecast through the diff-aware upsert twice, then with one day changed,
+        and checks that only the changed day is written and that it keeps its _ID.
+     */
+    public void testDiffUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        try {
+            WeatherProvider.UpsertResult result = provider.upsert(upsertUri,
+                    createBulkInsertWeatherValues(locationRowId));
+            assertEquals("Error: every row should be new", BULK_INSERT_RECORDS_TO_INSERT,
+                    result.inserted);
+            assertEquals(0, result.updated);
+            assertEquals(0, result.unchanged);
+
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(cursor.moveToFirst());
+            long firstId = cursor.getLong(0);
+            cursor.close();
+
+            result = provider.upsert(upsertUri, createBulkInsertWeatherValues(locationRowId));
+            assertEquals("Error: identical rows should not be written", 0,
+                    result.getChangedCount());
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.unchanged);
+
+            ContentValues[] changed = createBulkInsertWeatherValues(locationRowId);
+            changed[0].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+            assertEquals("Error: only the changed day should be written", 1,
+                    mContext.getContentResolver().bulkInsert(upsertUri, changed));
+
+            cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherEntry._ID, WeatherEntry.COLUMN_MAX_TEMP},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: an updated row should keep its _ID", firstId, cursor.getLong(0));
+            assertEquals(99.0, cursor.getDouble(1));
+            cursor.close();
+        } finally {
+            client.release();
+        }
+    }
 }
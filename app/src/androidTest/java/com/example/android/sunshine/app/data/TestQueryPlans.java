@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries behind every WeatherProvider route, with the
+    selections the app actually sends, and fails if SQLite would read a whole table to answer
+    any of them.  If you add a route or a query, add it here too.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+    private static final long TEST_HOUR = HourlyEntry.toEpochHour(TestUtilities.TEST_DATE);
+    private static final int TEST_DAY = 2457012;  // December 20th, 2014
+
+    private SQLiteDatabase mDb;
+    private final Set<Integer> mExplainedRoutes = new HashSet<Integer>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        // give the planner some statistics, as a device that has synced a few times would have
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        for (ContentValues values : TestProvider.createBulkInsertWeatherValues(locationRowId)) {
+            mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+        for (int i = 0; i < TestHourlyForecast.PERIODS_PER_DAY * 5; i++) {
+            mDb.insert(HourlyEntry.TABLE_NAME, null,
+                    TestHourlyForecast.createHourValues(locationRowId, TEST_HOUR + i * 3));
+        }
+        for (int i = 0; i < ForecastHistory.DAILY_HISTORY_DAYS; i++) {
+            mDb.insert(HistoryEntry.TABLE_NAME, null,
+                    TestForecastHistory.createHistoryValues(locationRowId, 1, TEST_DAY - i));
+        }
+        mDb.execSQL("ANALYZE");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Explains {@code sql} for the route {@code uri} matches, and fails if any step of the
+     * plan is a full scan of a table or index.
+     */
+    private void assertNoFullScan(Uri uri, String sql, String... args) {
+        int route = WeatherProvider.buildUriMatcher().match(uri);
+        assertTrue("Error: " + uri + " does not match a route", route != UriMatcher.NO_MATCH);
+        mExplainedRoutes.add(route);
+
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            assertTrue("Error: no plan for " + sql, plan.moveToFirst());
+            int detailIndex = plan.getColumnIndex("detail");
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.d(LOG_TAG, route + ": " + detail);
+                assertFalse("Error: route " + route + " scans a table for " + sql + "\n" + detail,
+                        detail.startsWith("SCAN"));
+            } while (plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+    }
+
+    private String buildJoinQuery(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, SORT_BY_DATE, null);
+    }
+
+    public void testRoutesUseIndexes() {
+        String date = Long.toString(TestUtilities.TEST_DATE);
+
+        // ForecastFragment, the widgets and Muzei
+        assertNoFullScan(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                buildJoinQuery(WeatherProvider.sLocationSettingSelection),
+                TestUtilities.TEST_LOCATION);
+        assertNoFullScan(WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection),
+                TestUtilities.TEST_LOCATION, date);
+
+        // DetailFragment, notifications and the sync adapter's freshness check
+        assertNoFullScan(WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection),
+                TestUtilities.TEST_LOCATION, date);
+
+        // the upsert lookups
+        assertNoFullScan(WeatherEntry.CONTENT_URI,
+                "SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sDateAndLocationIdSelection,
+                date, "1");
+        String[] probeArgs = {"Clear", "800", "1", "2", "3", "4", "5", "6", date, "1"};
+        assertNoFullScan(WeatherEntry.CONTENT_URI, WeatherProvider.sBatchProbeSql, probeArgs);
+
+        // the sync engine's addLocation
+        assertNoFullScan(LocationEntry.CONTENT_URI,
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                TestUtilities.TEST_LOCATION);
+
+        // the rows the provider renders display strings for after a write.  Dropping the stale
+        // text scans the display table, which only holds the days on screen.
+        assertNoFullScan(WeatherEntry.CONTENT_URI,
+                buildJoinQuery(ForecastDisplayStrings.sRenderSelection),
+                TestUtilities.TEST_LOCATION, date, date, date);
+
+        // the detail screen's and the watch face's hours, and deletes of a location's hours
+        String hour = Long.toString(TEST_HOUR);
+        assertNoFullScan(HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, TestUtilities.TEST_DATE + 86400000L),
+                WeatherProvider.sHourlyByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sHourlyLocationSettingWithRangeSelection, null, null,
+                        HourlyEntry.COLUMN_HOUR + " ASC", null),
+                TestUtilities.TEST_LOCATION, hour, Long.toString(TEST_HOUR + 24));
+        assertNoFullScan(HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                "DELETE FROM " + HourlyEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sHourlyLocationSettingSelection +
+                        "AND (" + HourlyEntry.COLUMN_HOUR + " < ?)",
+                TestUtilities.TEST_LOCATION, hour);
+        // the bulkInsert's REPLACE of an hour already stored
+        assertNoFullScan(HourlyEntry.CONTENT_URI,
+                "SELECT " + HourlyEntry._ID + " FROM " + HourlyEntry.TABLE_NAME +
+                        " WHERE " + HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        HourlyEntry.COLUMN_HOUR + " = ?",
+                "1", hour);
+
+        // a location's history
+        assertNoFullScan(HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION),
+                WeatherProvider.sHistoryByLocationSettingQueryBuilder.buildQuery(null,
+                        WeatherProvider.sLocationSettingSelection, null, null,
+                        HistoryEntry.COLUMN_START_DAY + " ASC", null),
+                TestUtilities.TEST_LOCATION);
+
+        // the sync engine's roll up of past days, one location at a time.  It also lists the
+        // locations, which reads the whole (small) location table by design.
+        Uri rollUp = HistoryEntry.CONTENT_URI;
+        String nextDate = Long.toString(TestUtilities.TEST_DATE + 86400000L);
+        String nextHour = Long.toString(TEST_HOUR + 24);
+        assertNoFullScan(rollUp, ForecastHistory.selectOldestDate(WeatherEntry.TABLE_NAME),
+                "1", date);
+        assertNoFullScan(rollUp, ForecastHistory.SQL_OLDEST_HOUR, "1", hour);
+        assertNoFullScan(rollUp, ForecastHistory.SQL_WEATHER_OF_DAY, "1", date, nextDate);
+        assertNoFullScan(rollUp, ForecastHistory.SQL_HOURS_OF_DAY, "1", hour, nextHour);
+        assertNoFullScan(rollUp, "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                ForecastHistory.sWeatherDaySelection, "1", date, nextDate);
+        assertNoFullScan(rollUp, "DELETE FROM " + HourlyEntry.TABLE_NAME + " WHERE " +
+                ForecastHistory.sHourlyRangeSelection, "1", hour, nextHour);
+        String[] historyArgs = {"1", "1", "0", Integer.toString(TEST_DAY)};
+        assertNoFullScan(rollUp, ForecastHistory.SQL_HISTORY_RANGE, historyArgs);
+        assertNoFullScan(rollUp, "DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+                ForecastHistory.sHistoryRangeSelection, historyArgs);
+        // the merge's REPLACE of a day or week already stored
+        assertNoFullScan(HistoryEntry.CONTENT_URI,
+                "SELECT * FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+                        HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_DAYS +
+                        " = ? AND " + HistoryEntry.COLUMN_START_DAY + " = ?",
+                "1", "7", Integer.toString(TEST_DAY));
+
+        int[] routes = {WeatherProvider.WEATHER, WeatherProvider.WEATHER_WITH_LOCATION,
+                WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, WeatherProvider.LOCATION,
+                WeatherProvider.HOURLY,
+                WeatherProvider.HOURLY_WITH_LOCATION, WeatherProvider.HISTORY,
+                WeatherProvider.HISTORY_WITH_LOCATION};
+        for (int route : routes) {
+            assertTrue("Error: route " + route + " has no query plan check",
+                    mExplainedRoutes.contains(route));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestTodayForecastCache extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mPrefs.edit().putString(mLocationKey, TestUtilities.TEST_LOCATION).commit();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mSavedLocation);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createTodayValues(long locationRowId) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        return values;
+    }
+
+    public void testWritesRefreshSnapshot() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues todayValues = createTodayValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, todayValues);
+
+        // the insert has already put today's forecast in memory
+        int queries = TodayForecastCache.getQueryCount();
+        int hits = TodayForecastCache.getHitCount();
+        TodayForecast today = TodayForecastCache.get(mContext);
+        assertNotNull("Error: today's forecast not found", today);
+        assertSame("Error: every reader should get the same snapshot",
+                today, TodayForecastCache.get(mContext));
+        assertEquals(TestUtilities.TEST_LOCATION, today.locationSetting);
+        assertEquals(todayValues.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                today.weatherId);
+        assertEquals(todayValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), today.maxTemp);
+        assertEquals("Error: reads after a write should not query the provider",
+                queries, TodayForecastCache.getQueryCount());
+        assertEquals(hits + 2, TodayForecastCache.getHitCount());
+
+        // an update replaces the snapshot
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update, null, null);
+        assertEquals(99.5, TodayForecastCache.get(mContext).maxTemp);
+        assertEquals(queries, TodayForecastCache.getQueryCount());
+
+        // and a delete clears it
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertNull(TodayForecastCache.get(mContext));
+        assertEquals(queries + 1, TodayForecastCache.getQueryCount());
+    }
+
+    public void testTomorrowIsNotToday() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues tomorrowValues = TestUtilities.createWeatherValues(
+                ContentUris.parseId(locationUri));
+        tomorrowValues.put(WeatherEntry.COLUMN_DATE,
+                System.currentTimeMillis() + 24 * 60 * 60 * 1000L);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, tomorrowValues);
+
+        assertNull("Error: tomorrow's forecast was taken for today's",
+                TodayForecastCache.get(mContext));
+
+        // and once today's row is there, it is cached
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createTodayValues(ContentUris.parseId(locationUri)));
+        int queries = TodayForecastCache.getQueryCount();
+        TodayForecast today = TodayForecastCache.get(mContext);
+        assertNotNull(today);
+        assertEquals(WeatherContract.normalizeDate(System.currentTimeMillis()), today.date);
+        assertEquals(queries, TodayForecastCache.getQueryCount());
+    }
+
+    public void testStaleReadIsNotPublished() {
+        int generation = TodayForecastCache.invalidate();
+        TodayForecastCache.invalidate();
+        TodayForecastCache.publish(new TodayForecast(TestUtilities.TEST_LOCATION,
+                WeatherContract.normalizeDate(System.currentTimeMillis()), 800, "Clear", 20, 10),
+                generation);
+
+        int queries = TodayForecastCache.getQueryCount();
+        assertNull(TodayForecastCache.get(mContext));
+        assertEquals("Error: a read that raced a write should not be cached",
+                queries + 1, TodayForecastCache.getQueryCount());
+    }
+}
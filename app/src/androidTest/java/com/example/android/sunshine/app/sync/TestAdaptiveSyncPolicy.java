@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the adaptive sync policy, and replays a simulated week of upstream changes, an
+    outage and bursts of manual requests against it and against the fixed 3 hour schedule we
+    used to have.  Filter logcat on TestAdaptiveSyncPolicy to read the comparison.
+ */
+public class TestAdaptiveSyncPolicy extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestAdaptiveSyncPolicy.class.getSimpleName();
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long WEEK = 7 * DAY;
+    private static final long FIXED_INTERVAL =
+            TimeUnit.SECONDS.toMillis(SunshineSyncAdapter.SYNC_INTERVAL);
+
+    private static final long[] UPSTREAM_CADENCES = {3 * HOUR, 8 * HOUR, DAY};
+
+    public void testBackoff() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        long[] expected = {15 * MINUTE, 30 * MINUTE, HOUR, 2 * HOUR, 4 * HOUR, 8 * HOUR,
+                AdaptiveSyncPolicy.MAX_INTERVAL_MILLIS, AdaptiveSyncPolicy.MAX_INTERVAL_MILLIS};
+        long now = 0;
+        for (long interval : expected) {
+            assertEquals(interval, policy.onSyncFinished(now,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, false));
+            now += interval;
+        }
+        assertTrue("Error: a successful sync should end the backoff",
+                policy.onSyncFinished(now, SunshineSyncAdapter.LOCATION_STATUS_OK, true) <=
+                        AdaptiveSyncPolicy.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public void testIntervalFollowsChangeRate() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        for (long now = 0; now < 10 * DAY; now += DAY) {
+            policy.onSyncFinished(now, SunshineSyncAdapter.LOCATION_STATUS_OK, true);
+        }
+        assertTrue("Error: a forecast that changes daily should not be polled every " +
+                        policy.getIntervalMillis() / MINUTE + " minutes",
+                policy.getIntervalMillis() > FIXED_INTERVAL);
+
+        // unchanged syncs stretch the interval, but not past the expected change
+        long interval = policy.getIntervalMillis();
+        long next = policy.onSyncFinished(10 * DAY + HOUR,
+                SunshineSyncAdapter.LOCATION_STATUS_OK, false);
+        assertTrue(next > interval);
+        assertTrue(next <= policy.getChangeEstimateMillis());
+
+        // an unknown location leaves the schedule alone
+        assertEquals(next, policy.onSyncFinished(11 * DAY,
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, false));
+    }
+
+    public void testManualRequestsAreCoalesced() {
+        AdaptiveSyncPolicy.ManualSyncDebouncer debouncer =
+                new AdaptiveSyncPolicy.ManualSyncDebouncer();
+        long runAt = debouncer.onSyncRequested(1000);
+        assertEquals(1000 + AdaptiveSyncPolicy.DEBOUNCE_WINDOW_MILLIS, runAt);
+        assertEquals(-1, debouncer.onSyncRequested(1200));
+        assertEquals(-1, debouncer.onSyncRequested(runAt));
+        assertEquals(runAt + 1 + AdaptiveSyncPolicy.DEBOUNCE_WINDOW_MILLIS,
+                debouncer.onSyncRequested(runAt + 1));
+    }
+
+    public void testWeekReplay() {
+        for (long cadence : UPSTREAM_CADENCES) {
+            Week week = new Week(cadence, new Random(cadence));
+            Outcome fixed = replayFixed(week);
+            Outcome adaptive = replayAdaptive(week);
+            Log.d(LOG_TAG, "Upstream changing every " + cadence / HOUR + " h, " +
+                    week.manualRequests.size() + " manual requests: fixed " + fixed.describe(week) +
+                    "; adaptive " + adaptive.describe(week));
+
+            assertTrue("Error: bursts of manual requests should be coalesced",
+                    adaptive.manualCalls < week.manualRequests.size());
+            if (cadence > FIXED_INTERVAL) {
+                assertTrue("Error: " + adaptive.calls + " calls, the fixed schedule made " +
+                        fixed.calls, adaptive.calls < fixed.calls);
+            }
+        }
+    }
+
+    /**
+     * A week of events: when the forecast changes upstream, when the server is down and when
+     * the user or the watch asks for a sync.
+     */
+    private static class Week {
+        final List<Long> changes = new ArrayList<>();
+        final List<Long> manualRequests = new ArrayList<>();
+        // a six hour outage on the third day
+        final long outageStart = 2 * DAY + 8 * HOUR;
+        final long outageEnd = outageStart + 6 * HOUR;
+
+        Week(long cadence, Random random) {
+            for (long t = 0; t < WEEK;
+                 t += cadence - cadence / 8 + random.nextInt((int) (cadence / 4))) {
+                changes.add(t);
+            }
+            for (long day = 0; day < WEEK; day += DAY) {
+                // the watch face asks from three nodes at once, a few times a day
+                for (int burst = 0; burst < 3; burst++) {
+                    long t = day + 7 * HOUR + burst * 5 * HOUR + random.nextInt((int) HOUR);
+                    for (int node = 0; node < 3; node++) {
+                        manualRequests.add(t + random.nextInt(500));
+                    }
+                }
+            }
+            // a Place Picker result changes the location and its coordinates in a row
+            long picked = DAY + 18 * HOUR;
+            manualRequests.add(picked);
+            manualRequests.add(picked + 150);
+            Collections.sort(manualRequests);
+        }
+
+        boolean isDown(long t) {
+            return t >= outageStart && t < outageEnd;
+        }
+
+        /**
+         * @return the number of upstream changes up to {@code t}.
+         */
+        int versionAt(long t) {
+            int version = 0;
+            while (version < changes.size() && changes.get(version) <= t) {
+                version++;
+            }
+            return version;
+        }
+    }
+
+    private static class Outcome {
+        int calls;
+        int manualCalls;
+        int failedCalls;
+        final List<Long> successes = new ArrayList<>();
+
+        /**
+         * Records a sync at {@code t}.
+         *
+         * @return whether it reached the server.
+         */
+        boolean sync(Week week, long t, boolean manual) {
+            calls++;
+            if (manual) {
+                manualCalls++;
+            }
+            if (week.isDown(t)) {
+                failedCalls++;
+                return false;
+            }
+            successes.add(t);
+            return true;
+        }
+
+        /**
+         * @return how long, on average, an upstream change took to reach the database.
+         */
+        long averageLag(Week week) {
+            long total = 0;
+            int counted = 0;
+            for (long change : week.changes) {
+                for (long success : successes) {
+                    if (success >= change) {
+                        total += success - change;
+                        counted++;
+                        break;
+                    }
+                }
+            }
+            return counted == 0 ? 0 : total / counted;
+        }
+
+        String describe(Week week) {
+            return calls + " calls (" + manualCalls + " manual, " + failedCalls +
+                    " failed), changes picked up " + averageLag(week) / MINUTE +
+                    " min late on average";
+        }
+    }
+
+    private static Outcome replayFixed(Week week) {
+        Outcome outcome = new Outcome();
+        List<long[]> syncs = new ArrayList<>();
+        for (long t = 0; t < WEEK; t += FIXED_INTERVAL) {
+            syncs.add(new long[]{t, 0});
+        }
+        // every request used to be a sync of its own
+        for (long t : week.manualRequests) {
+            syncs.add(new long[]{t, 1});
+        }
+        Collections.sort(syncs, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+        for (long[] sync : syncs) {
+            outcome.sync(week, sync[0], sync[1] == 1);
+        }
+        return outcome;
+    }
+
+    private static Outcome replayAdaptive(Week week) {
+        Outcome outcome = new Outcome();
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        AdaptiveSyncPolicy.ManualSyncDebouncer debouncer =
+                new AdaptiveSyncPolicy.ManualSyncDebouncer();
+
+        long nextPeriodic = 0;
+        long pendingManual = Long.MAX_VALUE;
+        int request = 0;
+        int lastVersion = -1;
+        while (true) {
+            long nextRequest = request < week.manualRequests.size()
+                    ? week.manualRequests.get(request) : Long.MAX_VALUE;
+            long nextSync = Math.min(nextPeriodic, pendingManual);
+            if (nextRequest <= nextSync) {
+                long runAt = debouncer.onSyncRequested(nextRequest);
+                if (runAt != -1) {
+                    pendingManual = runAt;
+                }
+                request++;
+                continue;
+            }
+            if (nextSync >= WEEK) {
+                break;
+            }
+
+            boolean manual = nextSync == pendingManual;
+            if (manual) {
+                pendingManual = Long.MAX_VALUE;
+            }
+            int status;
+            boolean changed = false;
+            if (outcome.sync(week, nextSync, manual)) {
+                status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                int version = week.versionAt(nextSync);
+                changed = version != lastVersion;
+                lastVersion = version;
+            } else {
+                status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            }
+            // the adapter reschedules the periodic sync after every sync
+            nextPeriodic = nextSync + policy.onSyncFinished(nextSync, status, changed);
+        }
+        return outcome;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.MockWeatherServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/*
+    Checks the forecast HTTP client against a local server standing in for OpenWeatherMap, and
+    logs how long a run of requests takes over one kept-alive connection and over a new
+    connection each.  Filter logcat on TestForecastHttpClient to read the numbers.
+ */
+public class TestForecastHttpClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastHttpClient.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final int REQUEST_COUNT = 20;
+
+    private String mJson;
+    private MockWeatherServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJson = TestForecastJsonParser.buildDailyForecastJson(NUM_DAYS);
+        mServer = new MockWeatherServer(mJson.getBytes("UTF-8"), 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    public void testGzippedBodyIsDecoded() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient(1000, 5000, 1, 0);
+        ForecastHttpClient.Response response = client.get(mServer.getBaseUrl(), null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.code);
+            assertEquals(mJson, readFully(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals("Error: the client should ask for gzip", 1, mServer.getGzippedCount());
+        assertEquals(mServer.getGzippedBodyLength(), response.getWireBytes());
+        assertEquals(mServer.getBodyLength(), response.getDecodedBytes());
+        Log.d(LOG_TAG, "A " + NUM_DAYS + " day forecast: " + response.getDecodedBytes() +
+                " bytes, " + response.getWireBytes() + " gzipped");
+    }
+
+    public void testConnectionIsReused() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient(1000, 5000, 1, 0);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            ForecastHttpClient.Response response = client.get(mServer.getBaseUrl(), null);
+            // leave some of the bodies unread, close() has to drain them
+            if (i % 2 == 0) {
+                readFully(response.getBody());
+            }
+            response.close();
+        }
+        assertEquals(REQUEST_COUNT, mServer.getRequestCount());
+        assertEquals("Error: sequential requests should share one connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testServerErrorsAreRetried() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient(1000, 5000, 3, 10);
+        int retries = ForecastHttpClient.getRetryCount();
+        mServer.failNextRequests(2);
+
+        ForecastHttpClient.Response response = client.get(mServer.getBaseUrl(), null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.code);
+            assertEquals(mJson, readFully(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, ForecastHttpClient.getRetryCount() - retries);
+    }
+
+    public void testRetriesAreBounded() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient(1000, 5000, 3, 10);
+        mServer.failNextRequests(10);
+
+        ForecastHttpClient.Response response = client.get(mServer.getBaseUrl(), null);
+        response.close();
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.code);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testReadTimeout() throws IOException {
+        MockWeatherServer slowServer = new MockWeatherServer(mJson.getBytes("UTF-8"), 1000);
+        try {
+            ForecastHttpClient client = new ForecastHttpClient(1000, 100, 1, 0);
+            long start = System.nanoTime();
+            try {
+                client.get(slowServer.getBaseUrl(), null).close();
+                fail("Error: a server slower than the read timeout should time out");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            assertTrue("Error: gave up after " + elapsedMillis + " ms", elapsedMillis < 1000);
+        } finally {
+            slowServer.shutdown();
+        }
+    }
+
+    public void testKeepAliveBenchmark() throws IOException {
+        ForecastHttpClient client = new ForecastHttpClient(1000, 5000, 1, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            ForecastHttpClient.Response response = client.get(mServer.getBaseUrl(), null);
+            readFully(response.getBody());
+            response.close();
+        }
+        long pooledMicros = (System.nanoTime() - start) / 1000;
+        int pooledConnections = mServer.getConnectionCount();
+
+        // the way the sync used to fetch: no gzip, and disconnect() after every request
+        mServer.reset();
+        start = System.nanoTime();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            HttpURLConnection urlConnection =
+                    (HttpURLConnection) new URL(mServer.getBaseUrl()).openConnection();
+            try {
+                readFully(urlConnection.getInputStream());
+            } finally {
+                urlConnection.disconnect();
+            }
+        }
+        long freshMicros = (System.nanoTime() - start) / 1000;
+
+        Log.d(LOG_TAG, REQUEST_COUNT + " requests: " + pooledMicros + " us over " +
+                pooledConnections + " kept-alive connections, " + freshMicros + " us over " +
+                mServer.getConnectionCount() + " fresh ones; average latency " +
+                ForecastHttpClient.getAverageLatencyMillis() + " ms, " +
+                ForecastHttpClient.getWireBytes() + " bytes on the wire for " +
+                ForecastHttpClient.getDecodedBytes() + " decoded");
+        assertTrue(pooledConnections < mServer.getConnectionCount());
+    }
+}
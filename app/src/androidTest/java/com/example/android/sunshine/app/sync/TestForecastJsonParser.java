@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.Vector;
+
+/*
+    Checks that the streaming parser produces exactly the rows of the JSONObject based parser,
+    and logs how the two compare in parse time and bytes allocated for a 14 and a 16 day
+    payload, and how many bytes each parsed day costs in a ForecastBatch against the
+    Vector<ContentValues> the sync used to build.  Filter logcat on TestForecastJsonParser to
+    read the numbers.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int JULIAN_START_DAY = 2457000;
+    private static final int BENCHMARK_ITERATIONS = 200;
+    private static final int WARM_UP_ITERATIONS = 10;
+    private static final int MEASURED_ROUNDS = 5;
+
+    /*
+        Builds a response shaped like the /data/2.5/forecast/daily endpoint, including the
+        fields Sunshine doesn't store, so both parsers have to skip over them.
+     */
+    static String buildDailyForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":10.5," +
+                            "\"eve\":15.1,\"morn\":9.2},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Clear\"," +
+                            "\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+                            "\"speed\":%.2f,\"deg\":%d,\"clouds\":0}",
+                    1419033600L + i * 86400L, 18.5 + i, 9.25 + i, 21.75 + i,
+                    1012.5 - i, 60 + i, 800 + (i % 5), 1.5 + i * 0.1, (i * 37) % 360));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /*
+        Mirrors what onPerformSync used to do: buffer the whole body into a String, line by line,
+        then hand it to the JSONObject based parser.
+     */
+    private static ForecastJsonParser.ForecastResponse parseBuffered(InputStream in)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        return ForecastJsonParser.parse(buffer.toString(), JULIAN_START_DAY);
+    }
+
+    /*
+        Mirrors how getWeatherDataFromJson used to collect the days: one ContentValues per day,
+        boxing every value, gathered in a Vector and copied into an array for bulkInsert.
+     */
+    private static ContentValues[] parseIntoContentValues(String json) throws JSONException {
+        JSONObject forecastJson = new JSONObject(json);
+        JSONArray weatherArray = forecastJson.getJSONArray(ForecastJsonParser.OWM_LIST);
+        Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        Time dayTime = new Time();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray(ForecastJsonParser.OWM_WEATHER)
+                    .getJSONObject(0);
+            JSONObject temperatureObject =
+                    dayForecast.getJSONObject(ForecastJsonParser.OWM_TEMPERATURE);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, 1L);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(JULIAN_START_DAY + i));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY,
+                    dayForecast.getInt(ForecastJsonParser.OWM_HUMIDITY));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE,
+                    dayForecast.getDouble(ForecastJsonParser.OWM_PRESSURE));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED,
+                    dayForecast.getDouble(ForecastJsonParser.OWM_WINDSPEED));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES,
+                    dayForecast.getDouble(ForecastJsonParser.OWM_WIND_DIRECTION));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP,
+                    temperatureObject.getDouble(ForecastJsonParser.OWM_MAX));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP,
+                    temperatureObject.getDouble(ForecastJsonParser.OWM_MIN));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC,
+                    weatherObject.getString(ForecastJsonParser.OWM_DESCRIPTION));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(ForecastJsonParser.OWM_WEATHER_ID));
+            cVVector.add(weatherValues);
+        }
+        ContentValues[] cvArray = new ContentValues[cVVector.size()];
+        cVVector.toArray(cvArray);
+        return cvArray;
+    }
+
+    public void testStreamingMatchesJsonObject() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        byte[] payload = buildDailyForecastJson(16).getBytes("UTF-8");
+        ForecastJsonParser.ForecastResponse expected =
+                parseBuffered(new ByteArrayInputStream(payload));
+        ForecastJsonParser.ForecastResponse actual =
+                ForecastJsonParser.parse(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+
+        assertEquals(expected.messageCode, actual.messageCode);
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.cityLatitude, actual.cityLatitude);
+        assertEquals(expected.cityLongitude, actual.cityLongitude);
+        assertEquals("Error: streaming parser returned a different number of days",
+                expected.days.size(), actual.days.size());
+        ContentValues[] expectedDays = expected.days.toContentValues();
+        ContentValues[] actualDays = actual.days.toContentValues();
+        for (int i = 0; i < expectedDays.length; i++) {
+            ContentValues expectedDay = expectedDays[i];
+            ContentValues actualDay = actualDays[i];
+            for (String key : expectedDay.keySet()) {
+                assertEquals("Error: day " + i + " differs in " + key,
+                        expectedDay.getAsString(key), actualDay.getAsString(key));
+            }
+            assertEquals(expectedDay.size(), actualDay.size());
+        }
+    }
+
+    public void testStreamingReportsServerError() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        byte[] payload = "{\"cod\":\"404\",\"message\":\"city not found\"}".getBytes("UTF-8");
+        ForecastJsonParser.ForecastResponse response =
+                ForecastJsonParser.parse(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+        assertEquals(404, response.messageCode);
+        assertEquals(0, response.days.size());
+    }
+
+    public void testStreamingRejectsTruncatedPayload() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String json = buildDailyForecastJson(14);
+        byte[] payload = json.replace("\"speed\"", "\"gust\"").getBytes("UTF-8");
+        try {
+            ForecastJsonParser.parse(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+            fail("Error: a day without wind speed should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testParserBenchmark() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        for (int numDays : new int[]{14, 16}) {
+            byte[] payload = buildDailyForecastJson(numDays).getBytes("UTF-8");
+
+            // warm up both paths so we aren't measuring class loading
+            for (int i = 0; i < 10; i++) {
+                parseBuffered(new ByteArrayInputStream(payload));
+                ForecastJsonParser.parse(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+            }
+
+            Runtime.getRuntime().gc();
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parseBuffered(new ByteArrayInputStream(payload));
+            }
+            long bufferedNanos = System.nanoTime() - start;
+            long bufferedBytes = Debug.getThreadAllocSize();
+
+            Runtime.getRuntime().gc();
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastJsonParser.parse(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+            }
+            long streamingNanos = System.nanoTime() - start;
+            long streamingBytes = Debug.getThreadAllocSize();
+            Debug.stopAllocCounting();
+
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "%d days (%d bytes): JSONObject %.1f us, %d bytes allocated per parse; " +
+                            "streaming %.1f us, %d bytes allocated per parse",
+                    numDays, payload.length,
+                    bufferedNanos / 1000.0 / BENCHMARK_ITERATIONS,
+                    bufferedBytes / BENCHMARK_ITERATIONS,
+                    streamingNanos / 1000.0 / BENCHMARK_ITERATIONS,
+                    streamingBytes / BENCHMARK_ITERATIONS));
+        }
+    }
+
+    public void testDescriptionsAreShared() throws Throwable {
+        String json = buildDailyForecastJson(14);
+        ContentValues[] first =
+                ForecastJsonParser.parse(json, JULIAN_START_DAY).days.toContentValues();
+        ContentValues[] second =
+                ForecastJsonParser.parse(json, JULIAN_START_DAY).days.toContentValues();
+        String description = first[0].getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        for (int i = 0; i < first.length; i++) {
+            assertSame("Error: day " + i + " holds its own copy of the description",
+                    description, first[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+            assertSame("Error: batches should share their descriptions",
+                    description, second[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        }
+        assertEquals(parseIntoContentValues(json).length, first.length);
+    }
+
+    /*
+        Like a JMH run: each model is warmed up, then measured over several rounds of
+        BENCHMARK_ITERATIONS parses, and the best round is kept so a GC or a JIT pass landing in
+        one round doesn't skew the result.  Both sides parse with JSONObject, so the difference
+        is the cost of the model the days are collected into.
+     */
+    @SuppressWarnings("deprecation")
+    public void testForecastModelAllocationBenchmark() throws Throwable {
+        for (int numDays : new int[]{14, 16}) {
+            String json = buildDailyForecastJson(numDays);
+            long contentValuesBytes = Long.MAX_VALUE;
+            long batchBytes = Long.MAX_VALUE;
+
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                parseIntoContentValues(json);
+                ForecastJsonParser.parse(json, JULIAN_START_DAY);
+            }
+
+            Debug.startAllocCounting();
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                Runtime.getRuntime().gc();
+                Debug.resetThreadAllocSize();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    parseIntoContentValues(json);
+                }
+                contentValuesBytes = Math.min(contentValuesBytes, Debug.getThreadAllocSize());
+
+                Runtime.getRuntime().gc();
+                Debug.resetThreadAllocSize();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    ForecastJsonParser.parse(json, JULIAN_START_DAY);
+                }
+                batchBytes = Math.min(batchBytes, Debug.getThreadAllocSize());
+            }
+            Debug.stopAllocCounting();
+
+            int parsedDays = numDays * BENCHMARK_ITERATIONS;
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "%d days: Vector<ContentValues> %d bytes allocated per parsed day, " +
+                            "ForecastBatch %d bytes allocated per parsed day",
+                    numDays, contentValuesBytes / parsedDays, batchBytes / parsedDays));
+        }
+    }
+}
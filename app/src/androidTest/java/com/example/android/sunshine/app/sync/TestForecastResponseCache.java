@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String TEST_URI =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?q=94043&mode=json";
+    private static final String TEST_ETAG = "\"5c1f-52a4\"";
+    private static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+    private static final int TEST_JULIAN_START_DAY = 2457012;
+
+    private File mDirectory;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test-forecast-responses");
+        deleteDirectory();
+        mCache = new ForecastResponseCache(mDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    public void testCommittedResponseIsRevalidated() throws Throwable {
+        byte[] body = TestForecastJsonParser.buildDailyForecastJson(14).getBytes("UTF-8");
+
+        ForecastResponseCache.Editor editor = mCache.edit(TEST_URI, TEST_ETAG,
+                TEST_LAST_MODIFIED, TEST_JULIAN_START_DAY);
+        assertNotNull("Error: a response with validators should be cached", editor);
+
+        // read part of the body, as a parser stopping at the closing brace would
+        InputStream teed = editor.tee(new ByteArrayInputStream(body));
+        teed.read(new byte[100], 0, 100);
+        assertNull("Error: an uncommitted response should not be visible", mCache.get(TEST_URI));
+        editor.commit();
+
+        ForecastResponseCache.Entry entry = mCache.get(TEST_URI);
+        assertNotNull("Error: committed response not found", entry);
+        assertEquals(TEST_ETAG, entry.eTag);
+        assertEquals(TEST_LAST_MODIFIED, entry.lastModified);
+        assertEquals(TEST_JULIAN_START_DAY, entry.julianStartDay);
+        assertTrue("Error: the cached body should be the complete response",
+                Arrays.equals(body, readFully(entry.openBody())));
+        assertTrue("Error: the cached body should be stored compressed",
+                entry.body.length() < body.length);
+    }
+
+    public void testAbortedResponseIsDiscarded() throws Throwable {
+        ForecastResponseCache.Editor editor = mCache.edit(TEST_URI, TEST_ETAG, null,
+                TEST_JULIAN_START_DAY);
+        readFully(editor.tee(new ByteArrayInputStream("{\"cod\":".getBytes("UTF-8"))));
+        editor.abort();
+
+        assertNull("Error: an aborted response should not be cached", mCache.get(TEST_URI));
+        assertEquals("Error: temporary files should be removed", 0, mDirectory.list().length);
+    }
+
+    public void testResponseWithoutValidatorsIsNotCached() {
+        assertNull(mCache.edit(TEST_URI, null, null, TEST_JULIAN_START_DAY));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.MockWeatherServer;
+
+/*
+    Runs the multi-location sync against a local server standing in for OpenWeatherMap, and
+    logs the wall-clock time of a sync of 1, 10 and 100 locations one at a time and in parallel.
+    Filter logcat on TestForecastSyncEngine to read the numbers.
+ */
+public class TestForecastSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSyncEngine.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final long LATENCY_MILLIS = 50;
+    private static final int[] BENCHMARK_LOCATION_COUNTS = {1, 10, 100};
+
+    private MockWeatherServer mServer;
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWeatherServer(
+                TestForecastJsonParser.buildDailyForecastJson(NUM_DAYS).getBytes("UTF-8"),
+                LATENCY_MILLIS);
+
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        // Place Picker coordinates would turn the preferred location into a lat/lon query
+        mPrefs.edit()
+                .putString(mLocationKey, locationSetting(0))
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .commit();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mSavedLocation);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String locationSetting(int i) {
+        return "site-" + i;
+    }
+
+    private void insertLocations(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            values[i].put(LocationEntry.COLUMN_CITY_NAME, "Site " + i);
+            values[i].put(LocationEntry.COLUMN_COORD_LAT, 37.0 + i / 100.0);
+            values[i].put(LocationEntry.COLUMN_COORD_LONG, -122.0 - i / 100.0);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values[i]);
+        }
+    }
+
+    // one attempt, so a dead server fails fast
+    private ForecastSyncEngine newEngine(int poolSize, int perHostLimit) {
+        return new ForecastSyncEngine(mContext, mServer.getBaseUrl(), poolSize, perHostLimit,
+                new ForecastHttpClient(1000, 5000, 1, 0));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testEveryLocationIsSynced() {
+        int locationCount = 10;
+        insertLocations(locationCount);
+
+        ForecastSyncEngine.Result result =
+                newEngine(4, 2).sync();
+
+        assertEquals(locationCount, result.locationCount);
+        assertEquals(0, result.failedCount);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.preferredLocationStatus);
+        assertEquals(locationCount * NUM_DAYS, result.storedDays);
+        assertEquals(locationCount * NUM_DAYS, result.changedDays);
+        assertEquals(locationCount * NUM_DAYS, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals("Error: each location should be requested once",
+                locationCount, mServer.getRequestCount());
+        assertTrue("Error: " + mServer.getMaxInFlight() + " requests to one host at once",
+                mServer.getMaxInFlight() <= 2);
+
+        // the same forecast again leaves every row alone
+        result = newEngine(4, 2).sync();
+        assertEquals(locationCount * NUM_DAYS, result.storedDays);
+        assertEquals(0, result.changedDays);
+    }
+
+    public void testPreferredLocationIsAdded() {
+        ForecastSyncEngine.Result result =
+                newEngine(4, 2).sync();
+
+        assertEquals(1, result.locationCount);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.preferredLocationStatus);
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI));
+        assertEquals(NUM_DAYS, countRows(
+                WeatherEntry.buildWeatherLocation(locationSetting(0))));
+    }
+
+    public void testHourlyForecastIsStored() throws Exception {
+        int locationCount = 3;
+        int numPeriods = 40;
+        insertLocations(locationCount);
+        long firstHour = HourlyEntry.toEpochHour(System.currentTimeMillis());
+        MockWeatherServer hourlyServer = new MockWeatherServer(
+                TestHourlyForecastParser.buildHourlyForecastJson(numPeriods, firstHour * 3600)
+                        .getBytes("UTF-8"), LATENCY_MILLIS);
+        try {
+            ForecastSyncEngine.Result result = new ForecastSyncEngine(mContext,
+                    mServer.getBaseUrl(), hourlyServer.getBaseUrl(), 4, 2,
+                    new ForecastHttpClient(1000, 5000, 1, 0)).sync();
+
+            assertEquals(0, result.failedCount);
+            assertEquals(locationCount * numPeriods, result.storedHours);
+            assertEquals(locationCount, hourlyServer.getRequestCount());
+            for (int i = 0; i < locationCount; i++) {
+                assertEquals(numPeriods,
+                        countRows(HourlyEntry.buildHourlyLocation(locationSetting(i))));
+            }
+            // the first day of hours, a range of the index
+            assertEquals(8, countRows(HourlyEntry.buildHourlyLocationWithRange(
+                    locationSetting(1), firstHour * HourlyEntry.HOUR_IN_MILLIS,
+                    (firstHour + 24) * HourlyEntry.HOUR_IN_MILLIS)));
+        } finally {
+            hourlyServer.shutdown();
+        }
+    }
+
+    public void testUnreachableServer() {
+        insertLocations(3);
+        mServer.shutdown();
+
+        ForecastSyncEngine.Result result =
+                newEngine(4, 2).sync();
+
+        assertEquals(3, result.failedCount);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                result.preferredLocationStatus);
+        assertEquals(0, result.storedDays);
+        assertEquals(0, countRows(WeatherEntry.CONTENT_URI));
+    }
+
+    public void testSyncBenchmark() {
+        for (int locationCount : BENCHMARK_LOCATION_COUNTS) {
+            long sequentialMillis = timeSync(locationCount, 1, 1);
+            long parallelMillis = timeSync(locationCount, ForecastSyncEngine.DEFAULT_POOL_SIZE,
+                    ForecastSyncEngine.DEFAULT_PER_HOST_LIMIT);
+            Log.d(LOG_TAG, locationCount + " locations at " + LATENCY_MILLIS +
+                    " ms a request: " + sequentialMillis + " ms one at a time, " +
+                    parallelMillis + " ms with " + ForecastSyncEngine.DEFAULT_POOL_SIZE +
+                    " workers and " + ForecastSyncEngine.DEFAULT_PER_HOST_LIMIT +
+                    " requests per host");
+        }
+    }
+
+    private long timeSync(int locationCount, int poolSize, int perHostLimit) {
+        deleteAllRecords();
+        insertLocations(locationCount);
+        mServer.reset();
+
+        long start = System.nanoTime();
+        ForecastSyncEngine.Result result =
+                newEngine(poolSize, perHostLimit).sync();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(0, result.failedCount);
+        assertEquals(locationCount * NUM_DAYS, result.storedDays);
+        assertTrue(mServer.getMaxInFlight() <= perHostLimit);
+        return elapsedMillis;
+    }
+}
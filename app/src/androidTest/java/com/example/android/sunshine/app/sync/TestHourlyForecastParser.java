@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.util.Locale;
+
+/*
+    Checks that the streaming 3-hour forecast parser produces exactly the rows of the
+    JSONObject based one, keyed by the hour each period starts.
+ */
+public class TestHourlyForecastParser extends AndroidTestCase {
+
+    private static final long FIRST_PERIOD_SECONDS = 1419033600L;  // December 20th, 2014
+    private static final long PERIOD_SECONDS = 3 * 3600L;
+
+    /*
+        Builds a response shaped like the /data/2.5/forecast endpoint, with the "city" after
+        the "list" as the API sends it, and the fields Sunshine doesn't store.
+     */
+    static String buildHourlyForecastJson(int numPeriods, long firstPeriodSeconds) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"cod\":\"200\",\"message\":0.0045,\"cnt\":").append(numPeriods)
+                .append(",\"list\":[");
+        for (int i = 0; i < numPeriods; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":9.5,\"temp_max\":22.5," +
+                            "\"pressure\":%.2f,\"sea_level\":1030.1,\"grnd_level\":1012.4," +
+                            "\"humidity\":%d,\"temp_kf\":0.3}," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Clouds\"," +
+                            "\"description\":\"few clouds\",\"icon\":\"02d\"}]," +
+                            "\"clouds\":{\"all\":20},\"wind\":{\"speed\":%.2f,\"deg\":%d}," +
+                            "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2014-12-20 00:00:00\"}",
+                    firstPeriodSeconds + i * PERIOD_SECONDS, 12.5 + i % 8, 1012.5 - i % 5,
+                    60 + i % 30, 800 + (i % 5), 1.5 + i * 0.1, (i * 37) % 360));
+        }
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0}}");
+        return json.toString();
+    }
+
+    public void testStreamingMatchesJsonObject() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String json = buildHourlyForecastJson(40, FIRST_PERIOD_SECONDS);
+        HourlyForecastParser.HourlyResponse expected = HourlyForecastParser.parse(json);
+        HourlyForecastParser.HourlyResponse actual = HourlyForecastParser.parse(
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        assertEquals(expected.messageCode, actual.messageCode);
+        assertEquals(40, expected.hours.size());
+        assertEquals("Error: streaming parser returned a different number of hours",
+                expected.hours.size(), actual.hours.size());
+        ContentValues[] expectedHours = expected.hours.toContentValues();
+        ContentValues[] actualHours = actual.hours.toContentValues();
+        for (int i = 0; i < expectedHours.length; i++) {
+            ContentValues expectedHour = expectedHours[i];
+            ContentValues actualHour = actualHours[i];
+            for (String key : expectedHour.keySet()) {
+                assertEquals("Error: hour " + i + " differs in " + key,
+                        expectedHour.getAsString(key), actualHour.getAsString(key));
+            }
+            assertEquals(expectedHour.size(), actualHour.size());
+        }
+    }
+
+    public void testRowsAreKeyedByEpochHour() throws Throwable {
+        HourlyForecastParser.HourlyResponse response =
+                HourlyForecastParser.parse(buildHourlyForecastJson(8, FIRST_PERIOD_SECONDS));
+        ContentValues[] hours = response.hours.toContentValues();
+        for (int i = 0; i < hours.length; i++) {
+            ContentValues hour = hours[i];
+            assertEquals(FIRST_PERIOD_SECONDS / 3600 + i * 3,
+                    (long) hour.getAsLong(HourlyEntry.COLUMN_HOUR));
+            assertEquals(800 + i % 5, (int) hour.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID));
+            assertEquals("Clouds", hour.getAsString(HourlyEntry.COLUMN_SHORT_DESC));
+            assertFalse("Error: the caller sets the location",
+                    hour.containsKey(HourlyEntry.COLUMN_LOC_KEY));
+        }
+    }
+
+    public void testStreamingReportsServerError() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        byte[] payload = "{\"cod\":\"404\",\"message\":\"city not found\"}".getBytes("UTF-8");
+        HourlyForecastParser.HourlyResponse response =
+                HourlyForecastParser.parse(new ByteArrayInputStream(payload));
+        assertEquals(404, response.messageCode);
+        assertEquals(0, response.hours.size());
+    }
+
+    public void testStreamingRejectsIncompletePeriod() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String json = buildHourlyForecastJson(8, FIRST_PERIOD_SECONDS);
+        byte[] payload = json.replace("\"deg\"", "\"gust\"").getBytes("UTF-8");
+        try {
+            HourlyForecastParser.parse(new ByteArrayInputStream(payload));
+            fail("Error: a period without wind direction should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class TestWatchRequestCoalescer extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final int TEST_WEATHER_ID = 321;
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mSavedLocation;
+    private RecordingCoalescer mCoalescer;
+
+    /**
+     * Records syncs and replies instead of reaching the sync manager and the watches.
+     */
+    private static class RecordingCoalescer extends WatchRequestCoalescer {
+        int syncsStarted;
+        final List<List<String>> replies = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+
+        @Override
+        void startSync(Context context) {
+            syncsStarted++;
+        }
+
+        @Override
+        void reply(Context context, Collection<String> nodeIds, byte[] payload) {
+            replies.add(new ArrayList<>(nodeIds));
+            payloads.add(payload);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+        mPrefs.edit()
+                .putString(mLocationKey, TEST_LOCATION)
+                .remove(WatchRequestCoalescer.PREF_LAST_SYNC)
+                .commit();
+        deleteAllRecords();
+        mCoalescer = new RecordingCoalescer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mSavedLocation);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // what a sync would have stored
+    private void insertTodaysWeather() {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weather.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        weather.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weather.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weather.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherEntry.COLUMN_WEATHER_ID, TEST_WEATHER_ID);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+    }
+
+    public void testBurstIsServedBySingleSync() {
+        assertEquals(WatchRequestCoalescer.SYNC_STARTED,
+                mCoalescer.onWeatherRequested(mContext, "watch-a"));
+        assertEquals(WatchRequestCoalescer.JOINED_SYNC,
+                mCoalescer.onWeatherRequested(mContext, "watch-b"));
+        assertEquals(WatchRequestCoalescer.JOINED_SYNC,
+                mCoalescer.onWeatherRequested(mContext, "watch-a"));
+        assertEquals("Error: concurrent requests should share one sync",
+                1, mCoalescer.syncsStarted);
+        assertTrue(mCoalescer.replies.isEmpty());
+
+        insertTodaysWeather();
+        mCoalescer.onSyncFinished(mContext, true);
+        assertEquals("Error: every waiting watch should be answered once",
+                1, mCoalescer.replies.size());
+        assertEquals(Arrays.asList("watch-a", "watch-b"), mCoalescer.replies.get(0));
+        ByteBuffer payload = ByteBuffer.wrap(mCoalescer.payloads.get(0));
+        assertEquals(WearWeatherPayload.VERSION, payload.get());
+        payload.get();
+        assertEquals(TEST_WEATHER_ID, payload.getShort());
+
+        // the forecast is fresh now, so the next watch doesn't wait for a sync
+        assertEquals(WatchRequestCoalescer.SERVED_FROM_CACHE,
+                mCoalescer.onWeatherRequested(mContext, "watch-c"));
+        assertEquals(1, mCoalescer.syncsStarted);
+        assertEquals(Arrays.asList("watch-c"), mCoalescer.replies.get(1));
+    }
+
+    public void testFailedSyncLetsTheNextRequestRetry() {
+        mCoalescer.onWeatherRequested(mContext, "watch-a");
+        mCoalescer.onSyncFinished(mContext, false);
+        assertTrue("Error: there is nothing to answer with", mCoalescer.replies.isEmpty());
+        assertFalse(mCoalescer.isFresh(mContext));
+
+        assertEquals(WatchRequestCoalescer.SYNC_STARTED,
+                mCoalescer.onWeatherRequested(mContext, "watch-a"));
+        assertEquals(2, mCoalescer.syncsStarted);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/*
+    Checks the wearable payload layout and logs what a sync costs in bytes and watch side
+    decode time with the payload, compared to the strings plus PNG asset we used to send.
+    Filter logcat on TestWearWeatherPayload to read the numbers.
+ */
+public class TestWearWeatherPayload extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWearWeatherPayload.class.getSimpleName();
+
+    private static final int WEATHER_ID = 801;
+    private static final double HIGH = 21.75;
+    private static final double LOW = -3.5;
+    private static final int DECODE_ITERATIONS = 100;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearLastSent();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearLastSent();
+        super.tearDown();
+    }
+
+    private void clearLastSent() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(WearWeatherPayload.PREF_LAST_SENT)
+                .commit();
+    }
+
+    public void testLayout() {
+        byte[] payload = WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, true);
+        assertEquals(WearWeatherPayload.SIZE, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        assertEquals(WearWeatherPayload.VERSION, buffer.get());
+        assertEquals(WearWeatherPayload.FLAG_METRIC, buffer.get());
+        assertEquals(WEATHER_ID, buffer.getShort());
+        assertEquals((float) HIGH, buffer.getFloat());
+        assertEquals((float) LOW, buffer.getFloat());
+
+        assertEquals(0, WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, false)[1]);
+    }
+
+    public void testOnlyChangedPayloadsAreSent() {
+        byte[] payload = WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, true);
+        assertTrue(WearWeatherPayload.hasChanged(mContext, payload));
+        WearWeatherPayload.markSent(mContext, payload);
+
+        assertFalse("Error: the same weather should not be sent twice",
+                WearWeatherPayload.hasChanged(mContext,
+                        WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, true)));
+        assertTrue("Error: a change of units should be sent",
+                WearWeatherPayload.hasChanged(mContext,
+                        WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, false)));
+        assertTrue(WearWeatherPayload.hasChanged(mContext,
+                WearWeatherPayload.encode(WEATHER_ID, HIGH + 1, LOW, true)));
+    }
+
+    public void testPayloadBenchmark() {
+        // what sendWeatherToWearable used to put on the data layer
+        PutDataMapRequest putDMR = PutDataMapRequest.create(WearWeatherPayload.PATH);
+        putDMR.getDataMap().putString("max", Utility.formatTemperature(mContext, HIGH));
+        putDMR.getDataMap().putString("min", Utility.formatTemperature(mContext, LOW));
+        Bitmap icon = BitmapFactory.decodeResource(mContext.getResources(),
+                Utility.getIconResourceForWeatherCondition(WEATHER_ID));
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        icon.compress(Bitmap.CompressFormat.PNG, 0, png);
+        byte[] pngBytes = png.toByteArray();
+        putDMR.getDataMap().putAsset("weatherIcon", Asset.createFromBytes(pngBytes));
+        putDMR.getDataMap().putLong("timestamp", System.currentTimeMillis());
+        int oldBytes = putDMR.asPutDataRequest().getData().length + pngBytes.length;
+
+        byte[] payload = WearWeatherPayload.encode(WEATHER_ID, HIGH, LOW, true);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            BitmapFactory.decodeByteArray(pngBytes, 0, pngBytes.length);
+        }
+        long pngNanos = (System.nanoTime() - start) / DECODE_ITERATIONS;
+
+        // mirrors the watch face's WeatherPayload.decode
+        start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.get();
+            buffer.get();
+            buffer.getShort();
+            buffer.getFloat();
+            buffer.getFloat();
+        }
+        long payloadNanos = (System.nanoTime() - start) / DECODE_ITERATIONS;
+
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "Per sync: strings + PNG asset %d bytes, %.1f us to decode the icon; " +
+                        "payload %d bytes, %.1f us to decode",
+                oldBytes, pngNanos / 1000.0, payload.length, payloadNanos / 1000.0));
+        assertTrue(payload.length < oldBytes);
+    }
+}
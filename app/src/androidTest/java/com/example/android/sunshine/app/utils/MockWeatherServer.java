@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tiny HTTP server on the loopback interface that answers every GET with the same body after
+ * a fixed delay, standing in for the weather API in sync tests and benchmarks.  It keeps count
+ * of the requests it served, the connections it accepted and the most requests it had in
+ * flight at once.
+ * <p/>
+ * Connections are kept alive unless the client asks otherwise, the body is gzipped for clients
+ * that accept it, and {@link #failNextRequests(int)} makes it answer 503 for a while.
+ */
+public class MockWeatherServer {
+
+    private final byte[] mBody;
+    private final byte[] mGzippedBody;
+    private final long mLatencyMillis;
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mGzippedCount = new AtomicInteger();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+
+    /**
+     * @param body          the response body, served as JSON
+     * @param latencyMillis how long each request waits before it is answered
+     */
+    public MockWeatherServer(byte[] body, long latencyMillis) throws IOException {
+        mBody = body;
+        mGzippedBody = gzip(body);
+        mLatencyMillis = latencyMillis;
+        mServerSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * @return the URL of the daily forecast endpoint, ready for query parameters.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    /**
+     * Answers the next {@code count} requests with a 503.
+     */
+    public void failNextRequests(int count) {
+        mFailuresLeft.set(count);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getGzippedCount() {
+        return mGzippedCount.get();
+    }
+
+    public int getMaxInFlight() {
+        return mMaxInFlight.get();
+    }
+
+    public int getBodyLength() {
+        return mBody.length;
+    }
+
+    public int getGzippedBodyLength() {
+        return mGzippedBody.length;
+    }
+
+    public void reset() {
+        mRequestCount.set(0);
+        mConnectionCount.set(0);
+        mGzippedCount.set(0);
+        mMaxInFlight.set(0);
+        mFailuresLeft.set(0);
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String requestLine = reader.readLine();
+                if (requestLine == null || requestLine.length() == 0) {
+                    // the client closed an idle connection
+                    return;
+                }
+                boolean acceptsGzip = false;
+                String line;
+                // the headers, up to the blank line
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    String header = line.toLowerCase();
+                    if (header.startsWith("accept-encoding:") && header.contains("gzip")) {
+                        acceptsGzip = true;
+                    } else if (header.startsWith("connection:") && header.contains("close")) {
+                        keepAlive = false;
+                    }
+                }
+                answer(out, acceptsGzip, keepAlive);
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client went away or we are shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    private boolean takeFailure() {
+        int left;
+        while ((left = mFailuresLeft.get()) > 0) {
+            if (mFailuresLeft.compareAndSet(left, left - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void answer(OutputStream out, boolean gzip, boolean keepAlive)
+            throws IOException, InterruptedException {
+        int inFlight = mInFlight.incrementAndGet();
+        try {
+            int max;
+            while (inFlight > (max = mMaxInFlight.get())) {
+                if (mMaxInFlight.compareAndSet(max, inFlight)) {
+                    break;
+                }
+            }
+            mRequestCount.incrementAndGet();
+            Thread.sleep(mLatencyMillis);
+
+            String connection = keepAlive ? "keep-alive" : "close";
+            if (takeFailure()) {
+                byte[] body = "Service Unavailable".getBytes("US-ASCII");
+                out.write(("HTTP/1.1 503 Service Unavailable\r\n" +
+                        "Content-Type: text/plain\r\n" +
+                        "Content-Length: " + body.length + "\r\n" +
+                        "Connection: " + connection + "\r\n\r\n").getBytes("US-ASCII"));
+                out.write(body);
+                out.flush();
+                return;
+            }
+            byte[] body = gzip ? mGzippedBody : mBody;
+            if (gzip) {
+                mGzippedCount.incrementAndGet();
+            }
+            out.write(("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/json; charset=utf-8\r\n" +
+                    (gzip ? "Content-Encoding: gzip\r\n" : "") +
+                    "Content-Length: " + body.length + "\r\n" +
+                    "Connection: " + connection + "\r\n\r\n").getBytes("US-ASCII"));
+            out.write(body);
+            out.flush();
+        } finally {
+            mInFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/*
+    Checks which Today widget updates TodayWidgetUpdateTracker lets through, and logs how many
+    updateAppWidget calls a day of syncs makes against one per widget per sync before.
+    Filter logcat on TestTodayWidgetUpdateTracker to read the numbers.
+ */
+public class TestTodayWidgetUpdateTracker extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTodayWidgetUpdateTracker.class.getSimpleName();
+
+    private static int hashToday(int layoutId, String high) {
+        return TodayWidgetUpdateTracker.hashState(layoutId, R.drawable.art_clear, "Clear",
+                high, "9°");
+    }
+
+    public void testUnchangedStateIsSkipped() {
+        TodayWidgetUpdateTracker tracker = new TodayWidgetUpdateTracker();
+        int state = hashToday(R.layout.widget_today, "21°");
+        assertTrue("Error: a new widget wasn't pushed", tracker.shouldPush(1, state, false));
+        assertFalse(tracker.shouldPush(1, state, false));
+        assertTrue("Error: a second widget wasn't pushed", tracker.shouldPush(2, state, false));
+        assertEquals(2, tracker.getPushedCount());
+        assertEquals(1, tracker.getSkippedCount());
+    }
+
+    public void testChangedStateIsPushed() {
+        TodayWidgetUpdateTracker tracker = new TodayWidgetUpdateTracker();
+        tracker.shouldPush(1, hashToday(R.layout.widget_today, "21°"), false);
+        assertTrue("Error: a new temperature wasn't pushed",
+                tracker.shouldPush(1, hashToday(R.layout.widget_today, "22°"), false));
+        assertTrue("Error: a resize to another layout wasn't pushed",
+                tracker.shouldPush(1, hashToday(R.layout.widget_today_large, "22°"), false));
+    }
+
+    public void testForcedAndForgottenWidgetsArePushed() {
+        TodayWidgetUpdateTracker tracker = new TodayWidgetUpdateTracker();
+        int state = hashToday(R.layout.widget_today_small, "21°");
+        tracker.shouldPush(1, state, false);
+        assertTrue(tracker.shouldPush(1, state, true));
+        tracker.forget(new int[]{1});
+        assertTrue("Error: a deleted widget id kept its state", tracker.shouldPush(1, state, false));
+    }
+
+    public void testUpdatesPerDayOfSyncs() {
+        TodayWidgetUpdateTracker tracker = new TodayWidgetUpdateTracker();
+        int[] layouts = {R.layout.widget_today_small, R.layout.widget_today,
+                R.layout.widget_today_large};
+        int widgets = layouts.length;
+        // a sync every three hours, with today's forecast changing twice
+        int syncs = 8;
+        for (int sync = 0; sync < syncs; sync++) {
+            String high = sync < 3 ? "21°" : sync < 6 ? "22°" : "20°";
+            for (int appWidgetId = 0; appWidgetId < widgets; appWidgetId++) {
+                tracker.shouldPush(appWidgetId, hashToday(layouts[appWidgetId], high), false);
+            }
+        }
+        assertEquals(3 * widgets, tracker.getPushedCount());
+        Log.d(LOG_TAG, "A day of syncs for " + widgets + " widgets: " + tracker.getPushedCount() +
+                " pushed, " + tracker.getSkippedCount() + " skipped, against " + syncs * widgets +
+                " pushed before");
+    }
+}
@@ -30,14 +30,21 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastDisplayStrings;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p/>
+ * With {@link #swapSnapshot(ForecastSnapshot)} it reads the forecasts from a
+ * {@link ForecastSnapshot} instead, and only notifies the rows that changed.  With
+ * {@link #swapPager(ForecastPager)} it reads them a page at a time from a {@link ForecastPager},
+ * binding rows whose page hasn't loaded yet blank until it has.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
+    private static final String LOG_TAG = ForecastAdapter.class.getSimpleName();
+
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
@@ -45,6 +52,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private ForecastSnapshot mSnapshot;
+    private ForecastPager mPager;
+
+    // What the cursor's precomputed text has to have been rendered for to be shown
+    private ForecastDisplayStrings.RenderKey mRenderKey;
+
+    // Rows bound in total, and since the data was last swapped, which is once per sync; how
+    // long they took, and how many had no precomputed text to show.
+    private int mBindCount;
+    private int mBindsSinceSwap;
+    private long mBindNanosSinceSwap;
+    private int mFormattedSinceSwap;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +92,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (mPager != null && mPager.getPage(adapterPosition) == null) {
+                // still blank, its page is loading
+                return;
+            }
+            mClickHandler.onClick(getDate(adapterPosition), this);
             mICM.onClick(this);
         }
     }
@@ -124,8 +145,35 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        long bindStart = System.nanoTime();
+        int weatherId;
+        ForecastDisplayStrings.Row text;
+        if (mPager != null) {
+            mPager.onBind(position);
+            ForecastSnapshot page = mPager.getPage(position);
+            if (page == null) {
+                bindPlaceholder(forecastAdapterViewHolder, position);
+                return;
+            }
+            weatherId = page.getWeatherId(position % ForecastPager.PAGE_SIZE);
+            text = page.getDisplayRow(position % ForecastPager.PAGE_SIZE);
+        } else if (mSnapshot != null) {
+            weatherId = mSnapshot.getWeatherId(position);
+            text = mSnapshot.getDisplayRow(position);
+        } else {
+            mCursor.moveToPosition(position);
+            weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            text = ForecastDisplayStrings.Row.read(
+                    mCursor, ForecastFragment.COL_DISPLAY_STRINGS, mRenderKey);
+            if (text == null) {
+                // not rendered yet, or for other settings: format it the slow way
+                mFormattedSinceSwap++;
+                text = ForecastDisplayStrings.Row.format(mContext,
+                        mCursor.getLong(ForecastFragment.COL_WEATHER_DATE), weatherId,
+                        mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                        mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            }
+        }
         int defaultImage;
         boolean useLongToday;
 
@@ -153,36 +201,42 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
         // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(useLongToday ? text.dayLong : text.day);
 
         // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(text.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(text.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(text.high);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(text.highA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(text.low);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(text.lowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        mBindCount++;
+        mBindsSinceSwap++;
+        mBindNanosSinceSwap += System.nanoTime() - bindStart;
+    }
+
+    // Shown until the row's page loads, and the pager has it rebound.
+    private void bindPlaceholder(ForecastAdapterViewHolder viewHolder, int position) {
+        Glide.clear(viewHolder.mIconView);
+        viewHolder.mIconView.setImageDrawable(null);
+        viewHolder.mDateView.setText(null);
+        viewHolder.mDescriptionView.setText(null);
+        viewHolder.mDescriptionView.setContentDescription(null);
+        viewHolder.mHighTempView.setText(null);
+        viewHolder.mHighTempView.setContentDescription(null);
+        viewHolder.mLowTempView.setText(null);
+        viewHolder.mLowTempView.setContentDescription(null);
+        mICM.onBindViewHolder(viewHolder, position);
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -208,20 +262,152 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
+        if ( null != mPager ) return mPager.getCount();
+        if ( null != mSnapshot ) return mSnapshot.getCount();
         if ( null == mCursor ) return 0;
         return mCursor.getCount();
     }
 
     public void swapCursor(Cursor newCursor) {
+        logBinds("cursor swapped");
+        closePager();
+        mSnapshot = null;
         mCursor = newCursor;
+        mRenderKey = ForecastDisplayStrings.RenderKey.current(mContext);
+        notifyDataSetChanged();
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows {@code newSnapshot}, notifying the RecyclerView of only the rows inserted, removed
+     * or changed since the snapshot shown before it.
+     */
+    void swapSnapshot(ForecastSnapshot newSnapshot) {
+        if (newSnapshot == null) {
+            newSnapshot = ForecastSnapshot.EMPTY;
+        }
+        ForecastSnapshot oldSnapshot = mSnapshot != null ? mSnapshot : ForecastSnapshot.EMPTY;
+        ForecastSnapshot.Diff diff = ForecastSnapshot.diff(oldSnapshot, newSnapshot);
+        logBinds(diff.toString());
+        closePager();
+        mCursor = null;
+        mSnapshot = newSnapshot;
+        diff.dispatchUpdatesTo(new ForecastSnapshot.UpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+        // A day that moves up to the top has to be rebound with the "today" layout.
+        if (mUseTodayLayout && newSnapshot.getCount() > 0 && oldSnapshot.getCount() > 0 &&
+                newSnapshot.getDate(0) != oldSnapshot.getDate(0)) {
+            notifyItemChanged(0);
+        }
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows {@code newPager}, closing the one shown before.  Every row is rebound: a new pager
+     * only comes with new data, and only the rows on screen are bound.
+     */
+    void swapPager(ForecastPager newPager) {
+        logBinds("pager swapped");
+        closePager();
+        mCursor = null;
+        mSnapshot = null;
+        mPager = newPager;
+        if (mPager != null) {
+            mPager.setListener(new ForecastPager.Listener() {
+                @Override
+                public void onRowsLoaded(int position, int count) {
+                    notifyItemRangeChanged(position, count);
+                }
+            });
+        }
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    private void closePager() {
+        if (mPager != null) {
+            mPager.logStats();
+            mPager.close();
+            mPager = null;
+        }
+    }
+
+    private void logBinds(String update) {
+        Log.d(LOG_TAG, "Forecast list update (" + update + "), " + mBindsSinceSwap +
+                " rows bound since the last one at " +
+                (mBindsSinceSwap == 0 ? 0 : mBindNanosSinceSwap / 1000 / mBindsSinceSwap) +
+                " us a row, " + mFormattedSinceSwap + " of them formatted on the spot; " +
+                mBindCount + " rows bound in total");
+        mBindsSinceSwap = 0;
+        mBindNanosSinceSwap = 0;
+        mFormattedSinceSwap = 0;
+    }
+
+    /**
+     * @return how many times a row was bound, for comparing how much work an update costs.
+     */
+    int getBindCount() {
+        return mBindCount;
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
 
+    ForecastSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    ForecastPager getPager() {
+        return mPager;
+    }
+
+    long getDate(int position) {
+        if (mPager != null) {
+            // only asked for rows that have been bound with their data
+            return mPager.getPage(position).getDate(position % ForecastPager.PAGE_SIZE);
+        }
+        if (mSnapshot != null) {
+            return mSnapshot.getDate(position);
+        }
+        mCursor.moveToPosition(position);
+        return mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+    }
+
+    /**
+     * @return the position of the day starting at {@code date}, or
+     * {@link RecyclerView#NO_POSITION} if it isn't in the list.
+     */
+    int getPositionForDate(long date) {
+        if (mPager != null) {
+            return mPager.getPositionForDate(date);
+        }
+        if (mSnapshot != null) {
+            return mSnapshot.getPositionForDate(date);
+        }
+        int count = getItemCount();
+        for (int i = 0; i < count; i++) {
+            if (getDate(i) == date) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
     public void selectView(RecyclerView.ViewHolder viewHolder) {
         if ( viewHolder instanceof ForecastAdapterViewHolder ) {
             ForecastAdapterViewHolder vfh = (ForecastAdapterViewHolder)viewHolder;
@@ -63,9 +63,18 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
+
+    // Whether the list is loaded as a ForecastSnapshot and updated row by row, or bound
+    // straight from the cursor and rebound in full after every sync.
+    private static final boolean USE_SNAPSHOTS = BuildConfig.FORECAST_LIST_SNAPSHOTS;
+
+    // Whether the list is read a page at a time through a ForecastPager, for histories too long
+    // to hold in memory.  Takes precedence over USE_SNAPSHOTS.
+    private static final boolean USE_PAGING = BuildConfig.FORECAST_LIST_PAGING;
+
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -80,7 +89,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            // The text rendered at sync time, in ForecastDisplayStrings.COLUMNS order
+            WeatherContract.DisplayEntry.COLUMN_LOCALE,
+            WeatherContract.DisplayEntry.COLUMN_METRIC,
+            WeatherContract.DisplayEntry.COLUMN_JULIAN_DAY,
+            WeatherContract.DisplayEntry.COLUMN_DAY,
+            WeatherContract.DisplayEntry.COLUMN_DAY_LONG,
+            WeatherContract.DisplayEntry.COLUMN_DESCRIPTION,
+            WeatherContract.DisplayEntry.COLUMN_DESCRIPTION_A11Y,
+            WeatherContract.DisplayEntry.COLUMN_HIGH,
+            WeatherContract.DisplayEntry.COLUMN_HIGH_A11Y,
+            WeatherContract.DisplayEntry.COLUMN_LOW,
+            WeatherContract.DisplayEntry.COLUMN_LOW_A11Y
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +115,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_DISPLAY_STRINGS = 9;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -259,13 +281,25 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
-        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        if (USE_PAGING) {
+            getLoaderManager().initLoader(FORECAST_LOADER, null, mPagerCallbacks);
+        } else if (USE_SNAPSHOTS) {
+            getLoaderManager().initLoader(FORECAST_LOADER, null, mSnapshotCallbacks);
+        } else {
+            getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
-        getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        if (USE_PAGING) {
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, mPagerCallbacks);
+        } else if (USE_SNAPSHOTS) {
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, mSnapshotCallbacks);
+        } else {
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        }
     }
 
     private void openPreferredLocationInMap() {
@@ -273,23 +307,32 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
+            ForecastPager pager = mForecastAdapter.getPager();
+            ForecastSnapshot snapshot = null != pager
+                    ? pager.getFirstPage() : mForecastAdapter.getSnapshot();
+            if (null != snapshot && snapshot.getCount() > 0) {
+                startMapActivity(Uri.parse("geo:" + snapshot.coordLat + "," + snapshot.coordLong));
+                return;
+            }
             Cursor c = mForecastAdapter.getCursor();
             if (null != c) {
                 c.moveToPosition(0);
                 String posLat = c.getString(COL_COORD_LAT);
                 String posLong = c.getString(COL_COORD_LONG);
-                Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
+                startMapActivity(Uri.parse("geo:" + posLat + "," + posLong));
+            }
 
-                Intent intent = new Intent(Intent.ACTION_VIEW);
-                intent.setData(geoLocation);
+        }
+    }
 
-                if (intent.resolveActivity(getActivity().getPackageManager()) != null) {
-                    startActivity(intent);
-                } else {
-                    Log.d(LOG_TAG, "Couldn't call " + geoLocation.toString() + ", no receiving apps installed!");
-                }
-            }
+    private void startMapActivity(Uri geoLocation) {
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setData(geoLocation);
 
+        if (intent.resolveActivity(getActivity().getPackageManager()) != null) {
+            startActivity(intent);
+        } else {
+            Log.d(LOG_TAG, "Couldn't call " + geoLocation.toString() + ", no receiving apps installed!");
         }
     }
 
@@ -301,34 +344,82 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
+    // Sort order:  Ascending, by date.  ForecastSnapshot relies on it.
+    private static final String FORECAST_SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
+    private Uri buildForecastUri() {
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+        return WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
+    }
 
+    @Override
+    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        // This is called when a new Loader needs to be created.  This
+        // fragment only uses one loader, so we don't care about checking the id.
         return new CursorLoader(getActivity(),
-                weatherForLocationUri,
+                buildForecastUri(),
                 FORECAST_COLUMNS,
                 null,
                 null,
-                sortOrder);
+                FORECAST_SORT_ORDER);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         mForecastAdapter.swapCursor(data);
+        onForecastLoaded();
+    }
+
+    // Used instead of the fragment's own Cursor callbacks when USE_SNAPSHOTS is set.
+    private final LoaderManager.LoaderCallbacks<ForecastSnapshot> mSnapshotCallbacks =
+            new LoaderManager.LoaderCallbacks<ForecastSnapshot>() {
+                @Override
+                public Loader<ForecastSnapshot> onCreateLoader(int id, Bundle args) {
+                    return new ForecastSnapshotLoader(getActivity(), buildForecastUri(),
+                            FORECAST_COLUMNS, FORECAST_SORT_ORDER);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<ForecastSnapshot> loader,
+                                           ForecastSnapshot snapshot) {
+                    mForecastAdapter.swapSnapshot(snapshot);
+                    onForecastLoaded();
+                }
+
+                @Override
+                public void onLoaderReset(Loader<ForecastSnapshot> loader) {
+                    mForecastAdapter.swapSnapshot(null);
+                }
+            };
+
+    // Used instead of the fragment's own Cursor callbacks when USE_PAGING is set.
+    private final LoaderManager.LoaderCallbacks<ForecastPager> mPagerCallbacks =
+            new LoaderManager.LoaderCallbacks<ForecastPager>() {
+                @Override
+                public Loader<ForecastPager> onCreateLoader(int id, Bundle args) {
+                    return new ForecastPagerLoader(getActivity(),
+                            Utility.getPreferredLocation(getActivity()),
+                            System.currentTimeMillis(), FORECAST_COLUMNS);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<ForecastPager> loader, ForecastPager pager) {
+                    mForecastAdapter.swapPager(pager);
+                    onForecastLoaded();
+                }
+
+                @Override
+                public void onLoaderReset(Loader<ForecastPager> loader) {
+                    mForecastAdapter.swapPager(null);
+                }
+            };
+
+    private void onForecastLoaded() {
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( mForecastAdapter.getItemCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,16 +432,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
+                            position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
                         }
                         if (position == RecyclerView.NO_POSITION) position = 0;
                         // If we don't need to restart the loader, and there's a desired position to restore
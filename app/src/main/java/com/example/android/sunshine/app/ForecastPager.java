@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A window onto a forecast list too long to hold in memory, read from the weather provider in
+ * pages of {@link #PAGE_SIZE} days as a {@link ForecastSnapshot} each.
+ * <p/>
+ * Pages are keyed by date: once a page is loaded the next one is queried from the day after its
+ * last, which the (location_id, date) index serves without skipping rows.  A page whose first
+ * date isn't known yet, after a jump down the list, is queried by offset instead.  Binding a row
+ * loads its page and the one ahead of it, and pages more than {@link #KEEP_PAGES} away from the
+ * bound row are dropped.
+ * <p/>
+ * Apart from {@link #load}, use it on the UI thread only; pages are queried on a thread of its
+ * own and handed back through the main looper.
+ */
+class ForecastPager {
+    private static final String LOG_TAG = ForecastPager.class.getSimpleName();
+
+    static final int PAGE_SIZE = 50;
+
+    // how close to either end of a page a bound row has to be to load the page beyond it, about
+    // a screenful
+    private static final int PREFETCH_DISTANCE = 15;
+
+    // pages kept either side of the one last bound
+    static final int KEEP_PAGES = 2;
+
+    private static final long UNKNOWN_DATE = -1;
+
+    /**
+     * Told on the UI thread when rows that were bound without their data can be bound again.
+     */
+    interface Listener {
+        void onRowsLoaded(int position, int count);
+    }
+
+    private final Context mContext;
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final String[] mProjection;
+    private final int mCount;
+
+    // kept for the location's coordinates, whatever else is evicted
+    private final ForecastSnapshot mFirstPage;
+    private final ForecastSnapshot[] mPages;
+    private final boolean[] mLoading;
+    // the first date of each page, once the page before it has been loaded
+    private final long[] mPageStartDates;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor;
+    private Listener mListener;
+    private boolean mClosed;
+
+    private int mPagesLoaded;
+    private int mPagesEvicted;
+
+    private ForecastPager(Context context, String locationSetting, long startDate,
+                          String[] projection, int count, ForecastSnapshot firstPage) {
+        mContext = context.getApplicationContext();
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mProjection = projection;
+        mCount = count;
+        mFirstPage = firstPage;
+        int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        mPages = new ForecastSnapshot[pageCount];
+        mLoading = new boolean[pageCount];
+        mPageStartDates = new long[pageCount];
+        Arrays.fill(mPageStartDates, UNKNOWN_DATE);
+        if (pageCount > 0) {
+            mPageStartDates[0] = startDate;
+            onPageLoaded(0, firstPage);
+        }
+    }
+
+    /**
+     * Counts the days from {@code startDate} on and reads the first page.  Call it off the UI
+     * thread; it's all the list needs for its first frame.
+     *
+     * @param startDate any time on the first day to show
+     */
+    static ForecastPager load(Context context, String locationSetting, long startDate,
+                              String[] projection) {
+        startDate = WeatherContract.normalizeDate(startDate);
+        int count = 0;
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, startDate),
+                new String[]{"count(*)"}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    count = cursor.getInt(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        ForecastSnapshot firstPage = count == 0 ? ForecastSnapshot.EMPTY
+                : queryPage(context, locationSetting, startDate, 0, projection);
+        return new ForecastPager(context, locationSetting, startDate, projection, count,
+                firstPage);
+    }
+
+    private static ForecastSnapshot queryPage(Context context, String locationSetting,
+                                              long startDate, int offset, String[] projection) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                locationSetting, startDate, offset, PAGE_SIZE);
+        Cursor cursor = context.getContentResolver().query(uri, projection, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSnapshot.fromCursor(context, cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Stops loading pages; the adapter has moved on to another pager.
+     */
+    void close() {
+        mClosed = true;
+        mListener = null;
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    ForecastSnapshot getFirstPage() {
+        return mFirstPage;
+    }
+
+    /**
+     * @return the page holding {@code position}, or null if it isn't loaded.  The row is at
+     * {@code position % PAGE_SIZE} in it.
+     */
+    ForecastSnapshot getPage(int position) {
+        ForecastSnapshot page = mPages[position / PAGE_SIZE];
+        // the page can come back short if days were deleted since the count
+        return page != null && position % PAGE_SIZE < page.getCount() ? page : null;
+    }
+
+    /**
+     * Notes that {@code position} is being bound: loads its page if needed, prefetches the page
+     * beyond the edge the row is close to, and drops pages far away.
+     */
+    void onBind(int position) {
+        int page = position / PAGE_SIZE;
+        int inPage = position % PAGE_SIZE;
+        requestPage(page);
+        if (inPage >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            requestPage(page + 1);
+        } else if (inPage < PREFETCH_DISTANCE) {
+            requestPage(page - 1);
+        }
+        for (int i = 0; i < mPages.length; i++) {
+            if (mPages[i] != null && Math.abs(i - page) > KEEP_PAGES) {
+                mPages[i] = null;
+                mPagesEvicted++;
+            }
+        }
+    }
+
+    private void requestPage(final int page) {
+        if (page < 0 || page >= mPages.length || mPages[page] != null || mLoading[page] ||
+                mClosed) {
+            return;
+        }
+        mLoading[page] = true;
+        final long startDate = mPageStartDates[page];
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // By date if the page before it told us where this one starts, else by offset
+                final ForecastSnapshot snapshot = startDate != UNKNOWN_DATE
+                        ? queryPage(mContext, mLocationSetting, startDate, 0, mProjection)
+                        : queryPage(mContext, mLocationSetting, mStartDate, page * PAGE_SIZE,
+                        mProjection);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoading[page] = false;
+                        if (!mClosed) {
+                            onPageLoaded(page, snapshot);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int page, ForecastSnapshot snapshot) {
+        mPages[page] = snapshot;
+        mPagesLoaded++;
+        int count = snapshot.getCount();
+        if (count > 0 && page + 1 < mPages.length) {
+            // dates are unique per location, so the next page starts after this one's last day
+            mPageStartDates[page + 1] = snapshot.getDate(count - 1) + 1;
+        }
+        if (mListener != null) {
+            mListener.onRowsLoaded(page * PAGE_SIZE, Math.min(count, mCount - page * PAGE_SIZE));
+        }
+    }
+
+    /**
+     * @return the position of the day starting at {@code date} if its page is loaded, or
+     * {@link RecyclerView#NO_POSITION}.
+     */
+    int getPositionForDate(long date) {
+        for (int page = 0; page < mPages.length; page++) {
+            if (mPages[page] != null) {
+                int position = mPages[page].getPositionForDate(date);
+                if (position != RecyclerView.NO_POSITION) {
+                    return page * PAGE_SIZE + position;
+                }
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * @return how many rows are held in memory.
+     */
+    int getLoadedRowCount() {
+        int rows = 0;
+        for (ForecastSnapshot page : mPages) {
+            if (page != null) {
+                rows += page.getCount();
+            }
+        }
+        return rows;
+    }
+
+    void logStats() {
+        Log.d(LOG_TAG, mCount + " days in " + mPages.length + " pages: " + mPagesLoaded +
+                " loaded, " + mPagesEvicted + " evicted, " + getLoadedRowCount() +
+                " rows held now");
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads the forecast list as a {@link ForecastPager}: the day count and the first page, which is
+ * all the first frame needs.  Like {@link ForecastSnapshotLoader} it reloads when the weather
+ * changes, and the new pager replaces the old one.
+ */
+class ForecastPagerLoader extends AsyncTaskLoader<ForecastPager> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final Uri mUri;
+    private final String[] mProjection;
+
+    private ForecastPager mPager;
+    private boolean mObserving;
+
+    ForecastPagerLoader(Context context, String locationSetting, long startDate,
+                        String[] projection) {
+        super(context);
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mUri = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+        mProjection = projection;
+    }
+
+    @Override
+    public ForecastPager loadInBackground() {
+        return ForecastPager.load(getContext(), mLocationSetting, mStartDate, mProjection);
+    }
+
+    @Override
+    public void deliverResult(ForecastPager pager) {
+        if (isReset()) {
+            return;
+        }
+        mPager = pager;
+        if (isStarted()) {
+            super.deliverResult(pager);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // the provider notifies on the weather content URI, which the pages are under
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mPager != null) {
+            deliverResult(mPager);
+        }
+        if (takeContentChanged() || mPager == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mPager = null;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.sunshine.app.data.ForecastDisplayStrings;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the forecast list, read out of a cursor on a background thread so that
+ * binding a row on the UI thread is an array lookup rather than a cursor seek.  Each row comes
+ * with its text, precomputed at sync time or else formatted here, off the UI thread.
+ * <p/>
+ * Rows are keyed by date, and {@link #diff(ForecastSnapshot, ForecastSnapshot)} works out the
+ * inserts, removes and changes that turn one snapshot into the next, so the list only rebinds
+ * the days a sync actually changed.
+ */
+class ForecastSnapshot {
+
+    static final ForecastSnapshot EMPTY = new ForecastSnapshot(null, 0, 0, new long[0],
+            new int[0], new double[0], new double[0], new ForecastDisplayStrings.Row[0], 0, true,
+            null);
+
+    final String locationSetting;
+    final double coordLat;
+    final double coordLong;
+
+    // How a row looks also depends on these, not only on its columns: "Today" and "Tomorrow"
+    // move at midnight, and the units and art pack are preferences.
+    final int todayJulianDay;
+    final boolean metric;
+    final String artPack;
+
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final ForecastDisplayStrings.Row[] mDisplayRows;
+
+    ForecastSnapshot(String locationSetting, double coordLat, double coordLong, long[] dates,
+                     int[] weatherIds, double[] maxTemps, double[] minTemps,
+                     ForecastDisplayStrings.Row[] displayRows,
+                     int todayJulianDay, boolean metric, String artPack) {
+        this.locationSetting = locationSetting;
+        this.coordLat = coordLat;
+        this.coordLong = coordLong;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+        mDisplayRows = displayRows;
+        this.todayJulianDay = todayJulianDay;
+        this.metric = metric;
+        this.artPack = artPack;
+    }
+
+    /**
+     * Reads every row of a {@link ForecastFragment#FORECAST_COLUMNS} cursor, sorted by date.
+     * Call it off the UI thread; the cursor is left open.
+     */
+    static ForecastSnapshot fromCursor(Context context, Cursor cursor) {
+        int count = cursor == null ? 0 : cursor.getCount();
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        double[] maxTemps = new double[count];
+        double[] minTemps = new double[count];
+        ForecastDisplayStrings.Row[] displayRows = new ForecastDisplayStrings.Row[count];
+        ForecastDisplayStrings.RenderKey key = ForecastDisplayStrings.RenderKey.current(context);
+        String locationSetting = null;
+        double coordLat = 0;
+        double coordLong = 0;
+        for (int i = 0; i < count; i++) {
+            cursor.moveToPosition(i);
+            if (i == 0) {
+                locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+                coordLat = cursor.getDouble(ForecastFragment.COL_COORD_LAT);
+                coordLong = cursor.getDouble(ForecastFragment.COL_COORD_LONG);
+            }
+            dates[i] = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            weatherIds[i] = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            maxTemps[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            minTemps[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            displayRows[i] = ForecastDisplayStrings.Row.read(
+                    cursor, ForecastFragment.COL_DISPLAY_STRINGS, key);
+            if (displayRows[i] == null) {
+                // rendered for other settings, or not yet
+                displayRows[i] = ForecastDisplayStrings.Row.format(context, dates[i],
+                        weatherIds[i], maxTemps[i], minTemps[i]);
+            }
+        }
+
+        return new ForecastSnapshot(locationSetting, coordLat, coordLong, dates, weatherIds,
+                maxTemps, minTemps, displayRows, key.julianDay, key.metric,
+                PreferenceManager.getDefaultSharedPreferences(context).getString(
+                        context.getString(R.string.pref_art_pack_key),
+                        context.getString(R.string.pref_art_pack_sunshine)));
+    }
+
+    int getCount() {
+        return mDates.length;
+    }
+
+    long getDate(int position) {
+        return mDates[position];
+    }
+
+    int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    double getMaxTemp(int position) {
+        return mMaxTemps[position];
+    }
+
+    double getMinTemp(int position) {
+        return mMinTemps[position];
+    }
+
+    ForecastDisplayStrings.Row getDisplayRow(int position) {
+        return mDisplayRows[position];
+    }
+
+    /**
+     * @return the position of the day starting at {@code date}, or
+     * {@link RecyclerView#NO_POSITION} if it isn't in the list.
+     */
+    int getPositionForDate(long date) {
+        int position = Arrays.binarySearch(mDates, date);
+        return position < 0 ? RecyclerView.NO_POSITION : position;
+    }
+
+    private boolean rendersLike(ForecastSnapshot other) {
+        return todayJulianDay == other.todayJulianDay && metric == other.metric &&
+                (artPack == null ? other.artPack == null : artPack.equals(other.artPack));
+    }
+
+    private boolean sameContents(int position, ForecastSnapshot other, int otherPosition) {
+        return mWeatherIds[position] == other.mWeatherIds[otherPosition] &&
+                Double.compare(mMaxTemps[position], other.mMaxTemps[otherPosition]) == 0 &&
+                Double.compare(mMinTemps[position], other.mMinTemps[otherPosition]) == 0;
+    }
+
+    /**
+     * Receives the updates of a {@link Diff}, in an order that can be applied one after the
+     * other to the old list, the way RecyclerView.Adapter's notifyItemRange* calls are.
+     */
+    interface UpdateCallback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * The updates that turn one snapshot into the next, with runs of the same update on
+     * adjacent rows merged into one range.
+     */
+    static final class Diff {
+        private static final int INSERT = 0;
+        private static final int REMOVE = 1;
+        private static final int CHANGE = 2;
+
+        // (type, position, count) triples
+        private int[] mOps = new int[12];
+        private int mOpCount;
+
+        private int mInserted;
+        private int mRemoved;
+        private int mChanged;
+
+        private void add(int type, int position) {
+            if (type == INSERT) {
+                mInserted++;
+            } else if (type == REMOVE) {
+                mRemoved++;
+            } else {
+                mChanged++;
+            }
+            if (mOpCount > 0) {
+                int last = (mOpCount - 1) * 3;
+                int lastType = mOps[last];
+                int lastPosition = mOps[last + 1];
+                int lastCount = mOps[last + 2];
+                // consecutive removes all happen at the same position, the others run on
+                boolean merges = lastType == type && (type == REMOVE
+                        ? position == lastPosition : position == lastPosition + lastCount);
+                if (merges) {
+                    mOps[last + 2]++;
+                    return;
+                }
+            }
+            if (mOpCount * 3 == mOps.length) {
+                mOps = Arrays.copyOf(mOps, mOps.length * 2);
+            }
+            int next = mOpCount * 3;
+            mOps[next] = type;
+            mOps[next + 1] = position;
+            mOps[next + 2] = 1;
+            mOpCount++;
+        }
+
+        int getInsertedCount() {
+            return mInserted;
+        }
+
+        int getRemovedCount() {
+            return mRemoved;
+        }
+
+        int getChangedCount() {
+            return mChanged;
+        }
+
+        void dispatchUpdatesTo(UpdateCallback callback) {
+            for (int i = 0; i < mOpCount; i++) {
+                int type = mOps[i * 3];
+                int position = mOps[i * 3 + 1];
+                int count = mOps[i * 3 + 2];
+                if (type == INSERT) {
+                    callback.onInserted(position, count);
+                } else if (type == REMOVE) {
+                    callback.onRemoved(position, count);
+                } else {
+                    callback.onChanged(position, count);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mInserted + " inserted, " + mRemoved + " removed, " + mChanged + " changed";
+        }
+    }
+
+    /**
+     * Walks both snapshots in date order, like a merge: a date only in {@code from} is removed,
+     * a date only in {@code to} is inserted, and a date in both is changed if its row would
+     * look different.  Both lists are sorted by date, so this is the smallest diff and costs
+     * one pass.
+     */
+    static Diff diff(ForecastSnapshot from, ForecastSnapshot to) {
+        Diff diff = new Diff();
+        boolean rendersLike = from.rendersLike(to);
+        int oldCount = from.getCount();
+        int newCount = to.getCount();
+        int i = 0;
+        int j = 0;
+        // where the next update lands in the list as updated so far
+        int position = 0;
+        while (i < oldCount || j < newCount) {
+            if (j == newCount || (i < oldCount && from.mDates[i] < to.mDates[j])) {
+                diff.add(Diff.REMOVE, position);
+                i++;
+            } else if (i == oldCount || to.mDates[j] < from.mDates[i]) {
+                diff.add(Diff.INSERT, position);
+                position++;
+                j++;
+            } else {
+                if (!rendersLike || !from.sameContents(i, to, j)) {
+                    diff.add(Diff.CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+}
@@ -16,6 +16,9 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
@@ -30,6 +33,7 @@ import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
@@ -167,10 +171,13 @@ public class SettingsActivity extends PreferenceActivity
             }
 
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.requestSync(this);
+            // the new location may already have rows, render their text until the sync is back
+            renderDisplayStrings();
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. render the forecast list's text again, which also updates
+            // lists of weather entries accordingly
+            renderDisplayStrings();
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -181,6 +188,34 @@ public class SettingsActivity extends PreferenceActivity
         }
     }
 
+    /**
+     * Renders the forecast list's text for the preferred location again, off the main thread.
+     */
+    private void renderDisplayStrings() {
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentProviderClient client = resolver.acquireContentProviderClient(
+                        WeatherContract.CONTENT_AUTHORITY);
+                if (client == null) {
+                    return;
+                }
+                try {
+                    ContentProvider provider = client.getLocalContentProvider();
+                    if (provider instanceof WeatherProvider) {
+                        ((WeatherProvider) provider).renderDisplayStrings();
+                    } else {
+                        // the lists format the stale rows themselves
+                        resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+                    }
+                } finally {
+                    client.release();
+                }
+            }
+        }).start();
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -235,7 +270,7 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                SunshineSyncAdapter.requestSync(this);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
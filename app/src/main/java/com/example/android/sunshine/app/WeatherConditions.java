@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The OpenWeatherMap condition codes, resolved once into a table indexed by weather id.
+ * <p/>
+ * Every code from {@link #FIRST_ID} to {@link #LAST_ID} maps to a look (the icon, art, art
+ * pack name and image shared by a group of codes) and a description string.  The
+ * {@link Utility} condition helpers look both up with two array reads, instead of walking the
+ * range checks on every bind, widget update, notification and Muzei publish.
+ */
+public final class WeatherConditions {
+
+    // Based on weather code data found at:
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    public static final int FIRST_ID = 200;
+    public static final int LAST_ID = 962;
+
+    private static final byte NO_LOOK = -1;
+    private static final byte STORM = 0;
+    private static final byte LIGHT_RAIN = 1;
+    private static final byte RAIN = 2;
+    private static final byte SNOW = 3;
+    private static final byte FOG = 4;
+    private static final byte SQUALLS = 5;
+    private static final byte CLEAR = 6;
+    private static final byte LIGHT_CLOUDS = 7;
+    private static final byte CLOUDS = 8;
+
+    // by look
+    private static final int[] ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+    private static final int[] ART = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "storm", "clear", "light_clouds", "clouds"
+    };
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // by weather id - FIRST_ID
+    private static final byte[] sLooks = new byte[LAST_ID - FIRST_ID + 1];
+    private static final int[] sStrings = new int[LAST_ID - FIRST_ID + 1];
+
+    static {
+        Arrays.fill(sLooks, NO_LOOK);
+        setLook(200, 232, STORM);
+        setLook(300, 321, LIGHT_RAIN);
+        setLook(500, 504, RAIN);
+        setLook(511, 511, SNOW);
+        setLook(520, 531, RAIN);
+        setLook(600, 622, SNOW);
+        // 761 (dust) has always been drawn as fog: the fog range used to be checked first and
+        // swallowed it, so only 781 (tornado) gets the squall look.
+        setLook(701, 761, FOG);
+        setLook(781, 781, SQUALLS);
+        setLook(800, 800, CLEAR);
+        setLook(801, 801, LIGHT_CLOUDS);
+        setLook(802, 804, CLOUDS);
+
+        setString(200, 232, R.string.condition_2xx);
+        setString(300, 321, R.string.condition_3xx);
+        setString(500, R.string.condition_500);
+        setString(501, R.string.condition_501);
+        setString(502, R.string.condition_502);
+        setString(503, R.string.condition_503);
+        setString(504, R.string.condition_504);
+        setString(511, R.string.condition_511);
+        setString(520, R.string.condition_520);
+        setString(531, R.string.condition_531);
+        setString(600, R.string.condition_600);
+        setString(601, R.string.condition_601);
+        setString(602, R.string.condition_602);
+        setString(611, R.string.condition_611);
+        setString(612, R.string.condition_612);
+        setString(615, R.string.condition_615);
+        setString(616, R.string.condition_616);
+        setString(620, R.string.condition_620);
+        setString(621, R.string.condition_621);
+        setString(622, R.string.condition_622);
+        setString(701, R.string.condition_701);
+        setString(711, R.string.condition_711);
+        setString(721, R.string.condition_721);
+        setString(731, R.string.condition_731);
+        setString(741, R.string.condition_741);
+        setString(751, R.string.condition_751);
+        setString(761, R.string.condition_761);
+        setString(762, R.string.condition_762);
+        setString(771, R.string.condition_771);
+        setString(781, R.string.condition_781);
+        setString(800, R.string.condition_800);
+        setString(801, R.string.condition_801);
+        setString(802, R.string.condition_802);
+        setString(803, R.string.condition_803);
+        setString(804, R.string.condition_804);
+        setString(900, R.string.condition_900);
+        setString(901, R.string.condition_901);
+        setString(902, R.string.condition_902);
+        setString(903, R.string.condition_903);
+        setString(904, R.string.condition_904);
+        setString(905, R.string.condition_905);
+        setString(906, R.string.condition_906);
+        setString(951, R.string.condition_951);
+        setString(952, R.string.condition_952);
+        setString(953, R.string.condition_953);
+        setString(954, R.string.condition_954);
+        setString(955, R.string.condition_955);
+        setString(956, R.string.condition_956);
+        setString(957, R.string.condition_957);
+        setString(958, R.string.condition_958);
+        setString(959, R.string.condition_959);
+        setString(960, R.string.condition_960);
+        setString(961, R.string.condition_961);
+        setString(962, R.string.condition_962);
+    }
+
+    // the art URLs formatted for the art pack they were last asked for
+    private static volatile ArtUrls sArtUrls;
+
+    private static final class ArtUrls {
+        final String format;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrls(String format) {
+            this.format = format;
+            for (int look = 0; look < ART_NAMES.length; look++) {
+                urls[look] = String.format(Locale.US, format, ART_NAMES[look]);
+            }
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void setLook(int firstId, int lastId, byte look) {
+        for (int weatherId = firstId; weatherId <= lastId; weatherId++) {
+            sLooks[weatherId - FIRST_ID] = look;
+        }
+    }
+
+    private static void setString(int firstId, int lastId, int stringId) {
+        for (int weatherId = firstId; weatherId <= lastId; weatherId++) {
+            sStrings[weatherId - FIRST_ID] = stringId;
+        }
+    }
+
+    private static void setString(int weatherId, int stringId) {
+        setString(weatherId, weatherId, stringId);
+    }
+
+    private static int getLook(int weatherId) {
+        return weatherId < FIRST_ID || weatherId > LAST_ID
+                ? NO_LOOK : sLooks[weatherId - FIRST_ID];
+    }
+
+    /**
+     * @return the icon resource id for the condition, or -1 if there is none.
+     */
+    public static int getIconResource(int weatherId) {
+        int look = getLook(weatherId);
+        return look == NO_LOOK ? -1 : ICONS[look];
+    }
+
+    /**
+     * @return the art resource id for the condition, or -1 if there is none.
+     */
+    public static int getArtResource(int weatherId) {
+        int look = getLook(weatherId);
+        return look == NO_LOOK ? -1 : ART[look];
+    }
+
+    /**
+     * @param artPackFormat the art pack preference, a format string taking the art's name
+     * @return the art URL for the condition, or null if there is none.
+     */
+    public static String getArtUrl(String artPackFormat, int weatherId) {
+        int look = getLook(weatherId);
+        if (look == NO_LOOK) {
+            return null;
+        }
+        ArtUrls artUrls = sArtUrls;
+        if (artUrls == null || !artUrls.format.equals(artPackFormat)) {
+            artUrls = new ArtUrls(artPackFormat);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[look];
+    }
+
+    /**
+     * @return the URL of a photo for the condition, or null if there is none.
+     */
+    public static String getImageUrl(int weatherId) {
+        int look = getLook(weatherId);
+        return look == NO_LOOK ? null : IMAGE_URLS[look];
+    }
+
+    /**
+     * @return the description string resource id for the condition, or 0 if it has none.
+     */
+    public static int getStringResource(int weatherId) {
+        return weatherId < FIRST_ID || weatherId > LAST_ID ? 0 : sStrings[weatherId - FIRST_ID];
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compact storage layout for weather rows, an alternative to the plain weather table.
+ * <p/>
+ * The rows live in {@link #DATA_TABLE_NAME}, where the six REAL columns are stored as
+ * fixed-point integers in hundredths, which SQLite packs into one to four bytes instead of
+ * eight.  The description, the same few dozen strings on every row of every location, is
+ * interned into {@link #CONDITION_TABLE_NAME} together with its weather id, and rows keep the
+ * condition's _ID.
+ * <p/>
+ * A view named {@link WeatherEntry#TABLE_NAME} joins the two back into the original columns,
+ * so every query and projection in {@link WeatherContract} reads it unchanged.  Writes can't go
+ * through the view: {@link WeatherProvider} encodes them with the helpers below.  Hundredths
+ * keep every value OpenWeatherMap sends exactly; anything finer is rounded.
+ */
+final class CompactWeatherLayout {
+
+    static final String DATA_TABLE_NAME = "weather_data";
+    static final String CONDITION_TABLE_NAME = "weather_condition";
+
+    // Column in the data table with the foreign key into the condition table.
+    static final String COLUMN_CONDITION_KEY = "condition_id";
+
+    // fixed-point values are stored multiplied by this
+    static final int SCALE = 100;
+
+    // The columns stored as fixed-point integers, under their WeatherEntry names.
+    static final String[] FIXED_POINT_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    static final String SQL_CREATE_CONDITION_TABLE = "CREATE TABLE " + CONDITION_TABLE_NAME +
+            " (" + WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            " UNIQUE (" + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + "));";
+
+    static final String SQL_CREATE_DATA_TABLE;
+
+    static final String SQL_CREATE_DATA_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE + " ON " + DATA_TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // The original weather columns, decoded: SELECT d._id AS _id, ..., d.min / 100.0 AS min, ...
+    private static final String SQL_SELECT_DECODED;
+
+    static final String SQL_CREATE_VIEW;
+
+    // Compiled per row by the batch paths, with the condition id, the fixed-point values, the
+    // date and the location id bound in that order.
+    static final String SQL_BATCH_INSERT;
+    static final String SQL_BATCH_UPDATE;
+
+    static {
+        StringBuilder dataColumns = new StringBuilder();
+        StringBuilder decoded = new StringBuilder("SELECT d." + WeatherEntry._ID + " AS " +
+                WeatherEntry._ID + ", d." + WeatherEntry.COLUMN_LOC_KEY + " AS " +
+                WeatherEntry.COLUMN_LOC_KEY + ", d." + WeatherEntry.COLUMN_DATE + " AS " +
+                WeatherEntry.COLUMN_DATE + ", c." + WeatherEntry.COLUMN_SHORT_DESC + " AS " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", c." + WeatherEntry.COLUMN_WEATHER_ID + " AS " +
+                WeatherEntry.COLUMN_WEATHER_ID);
+        StringBuilder insertColumns = new StringBuilder(COLUMN_CONDITION_KEY);
+        StringBuilder placeholders = new StringBuilder("?");
+        StringBuilder assignments = new StringBuilder(COLUMN_CONDITION_KEY + " = ?");
+        for (String column : FIXED_POINT_COLUMNS) {
+            dataColumns.append(column).append(" INTEGER NOT NULL, ");
+            decoded.append(", d.").append(column).append(" / ").append(SCALE).append(".0 AS ")
+                    .append(column);
+            insertColumns.append(", ").append(column);
+            placeholders.append(", ?");
+            assignments.append(", ").append(column).append(" = ?");
+        }
+        decoded.append(" FROM " + DATA_TABLE_NAME + " d INNER JOIN " + CONDITION_TABLE_NAME +
+                " c ON d." + COLUMN_CONDITION_KEY + " = c." + WeatherEntry._ID);
+        SQL_SELECT_DECODED = decoded.toString();
+
+        SQL_CREATE_DATA_TABLE = "CREATE TABLE " + DATA_TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                COLUMN_CONDITION_KEY + " INTEGER NOT NULL, " +
+                dataColumns +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " FOREIGN KEY (" + COLUMN_CONDITION_KEY + ") REFERENCES " +
+                CONDITION_TABLE_NAME + " (" + WeatherEntry._ID + "), " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+        SQL_CREATE_VIEW = "CREATE VIEW " + WeatherEntry.TABLE_NAME + " AS " + SQL_SELECT_DECODED;
+
+        SQL_BATCH_INSERT = "INSERT INTO " + DATA_TABLE_NAME + " (" + insertColumns + ", " +
+                WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_LOC_KEY + ") VALUES (" +
+                placeholders + ", ?, ?)";
+        SQL_BATCH_UPDATE = "UPDATE " + DATA_TABLE_NAME + " SET " + assignments + " WHERE " +
+                WeatherProvider.sDateAndLocationIdSelection;
+    }
+
+    private CompactWeatherLayout() {
+    }
+
+    /**
+     * @return whether the database stores its weather rows in this layout.
+     */
+    static boolean isInstalled(SQLiteDatabase db) {
+        return "view".equals(DatabaseUtils.stringForQuery(db,
+                "SELECT COALESCE((SELECT type FROM sqlite_master WHERE name = ?), '')",
+                new String[]{WeatherEntry.TABLE_NAME}));
+    }
+
+    static void create(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_CONDITION_TABLE);
+        db.execSQL(SQL_CREATE_DATA_TABLE);
+        db.execSQL(SQL_CREATE_DATA_LOCATION_DATE_INDEX);
+        db.execSQL(SQL_CREATE_VIEW);
+    }
+
+    /**
+     * Moves the rows of a plain weather table into this layout, keeping their _IDs.
+     */
+    static void convertFromRows(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_CONDITION_TABLE);
+        db.execSQL(SQL_CREATE_DATA_TABLE);
+        db.execSQL("INSERT INTO " + CONDITION_TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ")" +
+                " SELECT DISTINCT " + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + " FROM " + WeatherEntry.TABLE_NAME);
+
+        StringBuilder columns = new StringBuilder();
+        StringBuilder encoded = new StringBuilder();
+        for (String column : FIXED_POINT_COLUMNS) {
+            columns.append(", ").append(column);
+            encoded.append(", CAST(ROUND(w.").append(column).append(" * ").append(SCALE)
+                    .append(") AS INTEGER)");
+        }
+        db.execSQL("INSERT INTO " + DATA_TABLE_NAME + " (" + WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                COLUMN_CONDITION_KEY + columns + ") SELECT w." + WeatherEntry._ID + ", w." +
+                WeatherEntry.COLUMN_LOC_KEY + ", w." + WeatherEntry.COLUMN_DATE + ", c." +
+                WeatherEntry._ID + encoded + " FROM " + WeatherEntry.TABLE_NAME + " w" +
+                " INNER JOIN " + CONDITION_TABLE_NAME + " c ON c." +
+                WeatherEntry.COLUMN_WEATHER_ID + " = w." + WeatherEntry.COLUMN_WEATHER_ID +
+                " AND c." + WeatherEntry.COLUMN_SHORT_DESC + " = w." +
+                WeatherEntry.COLUMN_SHORT_DESC);
+
+        // dropping the table drops its index too, and frees the name for the view
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+        db.execSQL(SQL_CREATE_DATA_LOCATION_DATE_INDEX);
+        db.execSQL(SQL_CREATE_VIEW);
+    }
+
+    /**
+     * Moves the rows of this layout back into a plain weather table, keeping their _IDs.
+     *
+     * @param createWeatherTable the statement creating the plain table
+     * @param createIndex        the statement creating its location and date index
+     */
+    static void convertToRows(SQLiteDatabase db, String createWeatherTable,
+                              String createIndex) {
+        db.execSQL("DROP VIEW " + WeatherEntry.TABLE_NAME);
+        db.execSQL(createWeatherTable);
+        StringBuilder columns = new StringBuilder(WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : FIXED_POINT_COLUMNS) {
+            columns.append(", ").append(column);
+        }
+        db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " (" + columns + ") " +
+                SQL_SELECT_DECODED);
+        // the index moves back once the data table, and its index of the same name, is gone
+        db.execSQL("DROP TABLE " + DATA_TABLE_NAME);
+        db.execSQL("DROP TABLE " + CONDITION_TABLE_NAME);
+        db.execSQL(createIndex);
+    }
+
+    /**
+     * @return the value in hundredths, rounded half away from zero like SQLite's ROUND().
+     */
+    static long toFixedPoint(double value) {
+        long fixed = Math.round(Math.abs(value) * SCALE);
+        return value < 0 ? -fixed : fixed;
+    }
+
+    /**
+     * @return the value as the view will read it back.
+     */
+    static double quantize(double value) {
+        return toFixedPoint(value) / (double) SCALE;
+    }
+
+    /**
+     * Rounds the fixed-point columns of a weather row to what the view will read back.
+     */
+    static void quantize(ContentValues values) {
+        for (String column : FIXED_POINT_COLUMNS) {
+            Double value = values.getAsDouble(column);
+            if (value != null) {
+                values.put(column, quantize(value));
+            }
+        }
+    }
+
+    /**
+     * Turns a weather row, in {@link WeatherEntry} columns, into a row of the data table.
+     *
+     * @throws IllegalArgumentException if only one of the weather id and the description is
+     *                                  given; the condition needs both
+     */
+    static ContentValues encode(ContentValues values, ConditionInterner conditions) {
+        ContentValues encoded = new ContentValues(values);
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (weatherId != null && shortDesc != null) {
+            encoded.remove(WeatherEntry.COLUMN_WEATHER_ID);
+            encoded.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            encoded.put(COLUMN_CONDITION_KEY, conditions.intern(weatherId, shortDesc));
+        } else if (weatherId != null || shortDesc != null) {
+            throw new IllegalArgumentException(WeatherEntry.COLUMN_WEATHER_ID + " and " +
+                    WeatherEntry.COLUMN_SHORT_DESC + " must be written together");
+        }
+        for (String column : FIXED_POINT_COLUMNS) {
+            Double value = values.getAsDouble(column);
+            if (value != null) {
+                encoded.put(column, toFixedPoint(value));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Binds day {@code i} of the batch for {@link #SQL_BATCH_INSERT} or
+     * {@link #SQL_BATCH_UPDATE}.
+     */
+    static void bindBatchRow(SQLiteStatement statement, ForecastBatch batch, int i,
+                             long normalizedDate, long conditionId) {
+        statement.bindLong(1, conditionId);
+        statement.bindLong(2, toFixedPoint(batch.minTemps[i]));
+        statement.bindLong(3, toFixedPoint(batch.maxTemps[i]));
+        statement.bindLong(4, toFixedPoint(batch.humidities[i]));
+        statement.bindLong(5, toFixedPoint(batch.pressures[i]));
+        statement.bindLong(6, toFixedPoint(batch.windSpeeds[i]));
+        statement.bindLong(7, toFixedPoint(batch.degrees[i]));
+        statement.bindLong(8, normalizedDate);
+        statement.bindLong(9, batch.getLocationId());
+    }
+
+    /**
+     * Finds or adds the condition row for a weather id and description.  The ids it has seen
+     * are remembered, so a batch only touches the condition table once per condition.  Close
+     * it when the write is done.
+     */
+    static class ConditionInterner {
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mSelect;
+        private final Map<String, Long> mIds = new HashMap<>();
+
+        ConditionInterner(SQLiteDatabase db) {
+            mInsert = db.compileStatement("INSERT INTO " + CONDITION_TABLE_NAME +
+                    " (" + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ") VALUES (?, ?)");
+            mSelect = db.compileStatement("SELECT " + WeatherEntry._ID + " FROM " +
+                    CONDITION_TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_WEATHER_ID +
+                    " = ? AND " + WeatherEntry.COLUMN_SHORT_DESC + " = ?");
+        }
+
+        long intern(int weatherId, String shortDesc) {
+            String key = weatherId + "|" + shortDesc;
+            Long id = mIds.get(key);
+            if (id == null) {
+                mSelect.bindLong(1, weatherId);
+                mSelect.bindString(2, shortDesc);
+                try {
+                    id = mSelect.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    mInsert.bindLong(1, weatherId);
+                    mInsert.bindString(2, shortDesc);
+                    id = mInsert.executeInsert();
+                }
+                mIds.put(key, id);
+            }
+            return id;
+        }
+
+        void close() {
+            mInsert.close();
+            mSelect.close();
+        }
+    }
+}
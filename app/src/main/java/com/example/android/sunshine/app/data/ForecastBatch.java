@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A run of weather rows for one location, kept column by column in primitive arrays.
+ * <p/>
+ * The parser appends days to it and {@link WeatherProvider} binds the columns straight into
+ * a compiled statement, so a forecast goes from the network to the database without boxing
+ * every value into a {@link ContentValues}.  Descriptions are interned: the API only ever sends
+ * a few dozen of them, so every batch shares one String per description instead of holding a
+ * copy per day until the rows are written.
+ */
+public class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // OpenWeatherMap has about 50 condition codes with one description each, so this is only
+    // reached if the API starts sending free text; past it descriptions are kept as they come.
+    private static final int MAX_INTERNED_DESCRIPTIONS = 256;
+
+    private static final HashMap<String, String> sDescriptions = new HashMap<>();
+
+    private long mLocationId = -1;
+    private int mSize;
+
+    long[] dates;
+    int[] weatherIds;
+    String[] shortDescs;
+    double[] minTemps;
+    double[] maxTemps;
+    double[] humidities;
+    double[] pressures;
+    double[] windSpeeds;
+    double[] degrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        dates = new long[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    /**
+     * @param locationId the _ID of the location row every day in the batch belongs to
+     */
+    public void setLocationId(long locationId) {
+        mLocationId = locationId;
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(long date, int weatherId, String shortDesc, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degree) {
+        if (mSize == dates.length) {
+            grow();
+        }
+        dates[mSize] = date;
+        weatherIds[mSize] = weatherId;
+        shortDescs[mSize] = internDescription(shortDesc);
+        minTemps[mSize] = minTemp;
+        maxTemps[mSize] = maxTemp;
+        humidities[mSize] = humidity;
+        pressures[mSize] = pressure;
+        windSpeeds[mSize] = windSpeed;
+        degrees[mSize] = degree;
+        mSize++;
+    }
+
+    /**
+     * @return the batch as weather rows, for callers that can only reach the provider through
+     * a ContentResolver.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues values = new ContentValues();
+            if (mLocationId != -1) {
+                values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            }
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, dates[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidities[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressures[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeeds[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemps[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemps[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDescs[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the one instance of {@code shortDesc} shared by all batches, or {@code shortDesc}
+     * itself once the pool is full.
+     */
+    static String internDescription(String shortDesc) {
+        if (shortDesc == null) {
+            return null;
+        }
+        synchronized (sDescriptions) {
+            String interned = sDescriptions.get(shortDesc);
+            if (interned != null) {
+                return interned;
+            }
+            if (sDescriptions.size() < MAX_INTERNED_DESCRIPTIONS) {
+                sDescriptions.put(shortDesc, shortDesc);
+            }
+            return shortDesc;
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, dates.length * 2);
+        dates = Arrays.copyOf(dates, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        shortDescs = Arrays.copyOf(shortDescs, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+}
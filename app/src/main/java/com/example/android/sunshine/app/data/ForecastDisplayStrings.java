@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.DisplayEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the forecast list's text for the preferred location into the
+ * {@link DisplayEntry} table.
+ * <p/>
+ * {@link WeatherProvider} calls {@link #render} after every write with the dates it wrote, so
+ * the day names, temperatures and descriptions of a row are formatted once when it changes
+ * instead of on every bind.  The
+ * weather queries join the table in; a list reads a row's text with
+ * {@link Row#read(Cursor, int, RenderKey)}, which returns null when the row was rendered for
+ * another locale, unit or day, and then has to format that row itself.
+ */
+public final class ForecastDisplayStrings {
+    private static final String LOG_TAG = ForecastDisplayStrings.class.getSimpleName();
+
+    static final String SQL_CREATE_DISPLAY_TABLE = "CREATE TABLE " + DisplayEntry.TABLE_NAME + " (" +
+            DisplayEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            DisplayEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            DisplayEntry.COLUMN_LOCALE + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_METRIC + " INTEGER NOT NULL, " +
+            DisplayEntry.COLUMN_JULIAN_DAY + " INTEGER NOT NULL, " +
+            DisplayEntry.COLUMN_DAY + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_DAY_LONG + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_DESCRIPTION + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_DESCRIPTION_A11Y + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_HIGH + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_HIGH_A11Y + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_LOW + " TEXT NOT NULL, " +
+            DisplayEntry.COLUMN_LOW_A11Y + " TEXT NOT NULL, " +
+            // one rendering per weather row; also the index the weather queries join on
+            " PRIMARY KEY (" + DisplayEntry.COLUMN_LOC_KEY + ", " + DisplayEntry.COLUMN_DATE +
+            ") ON CONFLICT REPLACE);";
+
+    /**
+     * The display columns in the order {@link Row#read(Cursor, int, RenderKey)} expects them,
+     * for appending to a weather projection.
+     */
+    public static final String[] COLUMNS = {
+            DisplayEntry.COLUMN_LOCALE,
+            DisplayEntry.COLUMN_METRIC,
+            DisplayEntry.COLUMN_JULIAN_DAY,
+            DisplayEntry.COLUMN_DAY,
+            DisplayEntry.COLUMN_DAY_LONG,
+            DisplayEntry.COLUMN_DESCRIPTION,
+            DisplayEntry.COLUMN_DESCRIPTION_A11Y,
+            DisplayEntry.COLUMN_HIGH,
+            DisplayEntry.COLUMN_HIGH_A11Y,
+            DisplayEntry.COLUMN_LOW,
+            DisplayEntry.COLUMN_LOW_A11Y
+    };
+
+    private static final String SQL_INSERT;
+
+    static {
+        StringBuilder columns = new StringBuilder(DisplayEntry.COLUMN_LOC_KEY)
+                .append(", ").append(DisplayEntry.COLUMN_DATE);
+        StringBuilder placeholders = new StringBuilder("?, ?");
+        for (String column : COLUMNS) {
+            columns.append(", ").append(column);
+            placeholders.append(", ?");
+        }
+        SQL_INSERT = "INSERT INTO " + DisplayEntry.TABLE_NAME +
+                " (" + columns + ") VALUES (" + placeholders + ")";
+    }
+
+    // the weather columns render reads, by index
+    private static final String[] RENDER_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // Text for days gone by, another location or other settings, which no list reads.  A scan,
+    // but the table only ever holds the days from today on of the location on screen.
+    //display_date < ? OR display_location_id NOT IN (SELECT _id FROM location
+    //WHERE location_setting = ?) OR display_locale != ? OR display_metric != ?
+    //OR display_julian_day != ?
+    static final String sStaleSelection =
+            DisplayEntry.COLUMN_DATE + " < ? OR " +
+                    DisplayEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " + LocationEntry._ID +
+                    " FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?) OR " +
+                    DisplayEntry.COLUMN_LOCALE + " != ? OR " +
+                    DisplayEntry.COLUMN_METRIC + " != ? OR " +
+                    DisplayEntry.COLUMN_JULIAN_DAY + " != ?";
+
+    // The location's rows from today on that were written, or have no text yet.
+    //location.location_setting = ? AND date >= ? AND (weather.date BETWEEN ? AND ?
+    //OR display_locale IS NULL)
+    static final String sRenderSelection =
+            WeatherProvider.sLocationSettingWithStartDateSelection + "AND (" +
+                    WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE +
+                    " BETWEEN ? AND ? OR " + DisplayEntry.COLUMN_LOCALE + " IS NULL)";
+
+    private static final AtomicInteger sRenderedRows = new AtomicInteger();
+    private static final AtomicLong sRenderNanos = new AtomicLong();
+
+    private ForecastDisplayStrings() {
+    }
+
+    /**
+     * What the text depends on besides the weather row.
+     */
+    public static final class RenderKey {
+        public final String locale;
+        public final boolean metric;
+        public final int julianDay;
+
+        public RenderKey(String locale, boolean metric, int julianDay) {
+            this.locale = locale;
+            this.metric = metric;
+            this.julianDay = julianDay;
+        }
+
+        /**
+         * @return the key for the current locale, unit setting and day.
+         */
+        public static RenderKey current(Context context) {
+            Time now = new Time();
+            now.setToNow();
+            return new RenderKey(Locale.getDefault().toString(), Utility.isMetric(context),
+                    Time.getJulianDay(System.currentTimeMillis(), now.gmtoff));
+        }
+    }
+
+    /**
+     * The rendered text of one weather row.
+     */
+    public static final class Row {
+        public final String day;
+        public final String dayLong;
+        public final String description;
+        public final String descriptionA11y;
+        public final String high;
+        public final String highA11y;
+        public final String low;
+        public final String lowA11y;
+
+        Row(String day, String dayLong, String description, String descriptionA11y,
+            String high, String highA11y, String low, String lowA11y) {
+            this.day = day;
+            this.dayLong = dayLong;
+            this.description = description;
+            this.descriptionA11y = descriptionA11y;
+            this.high = high;
+            this.highA11y = highA11y;
+            this.low = low;
+            this.lowA11y = lowA11y;
+        }
+
+        /**
+         * Formats the row the way the forecast list always has.
+         */
+        public static Row format(Context context, long date, int weatherId, double high,
+                                 double low) {
+            String description = Utility.getStringForWeatherCondition(context, weatherId);
+            String highString = Utility.formatTemperature(context, high);
+            String lowString = Utility.formatTemperature(context, low);
+            return new Row(Utility.getFriendlyDayString(context, date, false),
+                    Utility.getFriendlyDayString(context, date, true),
+                    description, context.getString(R.string.a11y_forecast, description),
+                    highString, context.getString(R.string.a11y_high_temp, highString),
+                    lowString, context.getString(R.string.a11y_low_temp, lowString));
+        }
+
+        /**
+         * @param firstColumn where {@link #COLUMNS} start in the cursor's projection
+         * @return the row's text, or null if it wasn't rendered for {@code key}.
+         */
+        public static Row read(Cursor cursor, int firstColumn, RenderKey key) {
+            if (cursor.isNull(firstColumn) ||
+                    !key.locale.equals(cursor.getString(firstColumn)) ||
+                    (cursor.getInt(firstColumn + 1) != 0) != key.metric ||
+                    cursor.getInt(firstColumn + 2) != key.julianDay) {
+                return null;
+            }
+            return new Row(cursor.getString(firstColumn + 3), cursor.getString(firstColumn + 4),
+                    cursor.getString(firstColumn + 5), cursor.getString(firstColumn + 6),
+                    cursor.getString(firstColumn + 7), cursor.getString(firstColumn + 8),
+                    cursor.getString(firstColumn + 9), cursor.getString(firstColumn + 10));
+        }
+    }
+
+    /**
+     * Renders the text of every one of {@code locationSetting}'s weather rows from today on.
+     *
+     * @return the number of rows rendered
+     */
+    static int render(Context context, SQLiteDatabase db, String locationSetting) {
+        return render(context, db, locationSetting, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Brings the table up to date for {@code locationSetting}, rendered for the current locale,
+     * units and day, after its weather rows from {@code firstDate} to {@code lastDate} were
+     * written.  Drops the text of past days and of other locations or settings, since only
+     * the preferred location's forecast from today on is ever on screen, and then renders the
+     * written rows from today on, and any row from today on that has no text yet.
+     *
+     * @param firstDate the first date written, greater than {@code lastDate} when the write
+     *                  didn't touch any weather row
+     * @return the number of rows rendered
+     */
+    static int render(Context context, SQLiteDatabase db, String locationSetting,
+                      long firstDate, long lastDate) {
+        long start = System.nanoTime();
+        RenderKey key = RenderKey.current(context);
+        String today = Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()));
+        int rendered = 0;
+        db.beginTransaction();
+        try {
+            db.delete(DisplayEntry.TABLE_NAME, sStaleSelection, new String[]{today,
+                    locationSetting, key.locale, key.metric ? "1" : "0",
+                    Integer.toString(key.julianDay)});
+            Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                    RENDER_COLUMNS,
+                    sRenderSelection,
+                    new String[]{locationSetting, today, Long.toString(firstDate),
+                            Long.toString(lastDate)},
+                    null,
+                    null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+            try {
+                while (cursor.moveToNext()) {
+                    Row row = Row.format(context, cursor.getLong(1), cursor.getInt(2),
+                            cursor.getDouble(3), cursor.getDouble(4));
+                    insert.bindLong(1, cursor.getLong(0));
+                    insert.bindLong(2, cursor.getLong(1));
+                    insert.bindString(3, key.locale);
+                    insert.bindLong(4, key.metric ? 1 : 0);
+                    insert.bindLong(5, key.julianDay);
+                    insert.bindString(6, row.day);
+                    insert.bindString(7, row.dayLong);
+                    insert.bindString(8, row.description);
+                    insert.bindString(9, row.descriptionA11y);
+                    insert.bindString(10, row.high);
+                    insert.bindString(11, row.highA11y);
+                    insert.bindString(12, row.low);
+                    insert.bindString(13, row.lowA11y);
+                    insert.executeInsert();
+                    rendered++;
+                }
+            } finally {
+                insert.close();
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long nanos = System.nanoTime() - start;
+        sRenderedRows.addAndGet(rendered);
+        sRenderNanos.addAndGet(nanos);
+        Log.d(LOG_TAG, "Rendered " + rendered + " forecast rows for " + key.locale +
+                (key.metric ? ", metric" : ", imperial") + " in " + nanos / 1000 + " us");
+        return rendered;
+    }
+
+    public static int getRenderedRowCount() {
+        return sRenderedRows.get();
+    }
+
+    public static long getRenderNanos() {
+        return sRenderNanos.get();
+    }
+}
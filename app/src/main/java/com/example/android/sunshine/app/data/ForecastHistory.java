@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolls past weather up into the {@link HistoryEntry} table, so that the database keeps a
+ * summary of every day it has seen instead of either every row or none of them.
+ * <p/>
+ * The {@link #FULL_RESOLUTION_DAYS} days before today keep their weather and hourly rows as
+ * they were stored.  Each day before that becomes one history row with the lowest, highest and
+ * mean temperature, the strongest wind and the mean pressure of all of the day's forecasts.
+ * Days older than {@link #DAILY_HISTORY_DAYS} are merged into one row per week, and weeks older
+ * than {@link #WEEKLY_HISTORY_WEEKS} are dropped, so each location holds a bounded number of
+ * rows however long the app has been syncing.
+ * <p/>
+ * {@link #rollUp} works through one location at a time and at most
+ * {@link #DAYS_PER_TRANSACTION} days per transaction, so a provider reader never waits behind
+ * more than one short transaction, even on the first roll up after months of history.
+ */
+final class ForecastHistory {
+    private static final String LOG_TAG = ForecastHistory.class.getSimpleName();
+
+    // days before today kept as weather and hourly rows
+    static final int FULL_RESOLUTION_DAYS = 7;
+    // days before today kept as one history row per day, the rest are rolled up into weeks
+    static final int DAILY_HISTORY_DAYS = 35;
+    // weeks of weekly history kept
+    static final int WEEKLY_HISTORY_WEEKS = 104;
+
+    // the most days rolled up, or merged into weeks, by one transaction
+    static final int DAYS_PER_TRANSACTION = 7;
+
+    static final int DAYS_PER_WEEK = 7;
+
+    // One row per location, period length and start day; the primary key also serves every
+    // read and delete below, which all pick a location's rows of one length by start day.
+    static final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_START_DAY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_AVG_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_WIND + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MEAN_PRESSURE + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_SAMPLES + " INTEGER NOT NULL, " +
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " PRIMARY KEY (" + HistoryEntry.COLUMN_LOC_KEY + ", " + HistoryEntry.COLUMN_DAYS +
+            ", " + HistoryEntry.COLUMN_START_DAY + ") ON CONFLICT REPLACE);";
+
+    // The statements below are package-private so TestQueryPlans can check that each is
+    // served by an index.
+
+    //location_id = ? AND date >= ? AND date < ?
+    static final String sWeatherDaySelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_id = ? AND hour >= ? AND hour < ?
+    static final String sHourlyRangeSelection =
+            HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    HourlyEntry.COLUMN_HOUR + " >= ? AND " +
+                    HourlyEntry.COLUMN_HOUR + " < ?";
+
+    //location_id = ? AND days = ? AND start_day >= ? AND start_day < ?
+    static final String sHistoryRangeSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    HistoryEntry.COLUMN_DAYS + " = ? AND " +
+                    HistoryEntry.COLUMN_START_DAY + " >= ? AND " +
+                    HistoryEntry.COLUMN_START_DAY + " < ?";
+
+    static final String SQL_OLDEST_HOUR = "SELECT MIN(" + HourlyEntry.COLUMN_HOUR + ") FROM " +
+            HourlyEntry.TABLE_NAME + " WHERE " + HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+            HourlyEntry.COLUMN_HOUR + " < ?";
+
+    // a day's forecast, decoded through the view in the compact layout
+    static final String SQL_WEATHER_OF_DAY = "SELECT " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_PRESSURE + " FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+            sWeatherDaySelection;
+
+    static final String SQL_HOURS_OF_DAY = "SELECT COUNT(*), MIN(" + HourlyEntry.COLUMN_TEMP +
+            "), MAX(" + HourlyEntry.COLUMN_TEMP + "), AVG(" + HourlyEntry.COLUMN_TEMP +
+            "), MAX(" + HourlyEntry.COLUMN_WIND_SPEED + "), AVG(" + HourlyEntry.COLUMN_PRESSURE +
+            ") FROM " + HourlyEntry.TABLE_NAME + " WHERE " + sHourlyRangeSelection;
+
+    // the stored rows of a location and period length from a start day on, oldest first
+    static final String SQL_HISTORY_RANGE = "SELECT " + HistoryEntry.COLUMN_START_DAY + ", " +
+            HistoryEntry.COLUMN_MIN_TEMP + ", " + HistoryEntry.COLUMN_MAX_TEMP + ", " +
+            HistoryEntry.COLUMN_AVG_TEMP + ", " + HistoryEntry.COLUMN_MAX_WIND + ", " +
+            HistoryEntry.COLUMN_MEAN_PRESSURE + ", " + HistoryEntry.COLUMN_SAMPLES + " FROM " +
+            HistoryEntry.TABLE_NAME + " WHERE " + sHistoryRangeSelection + " ORDER BY " +
+            HistoryEntry.COLUMN_START_DAY + " ASC LIMIT " + DAYS_PER_TRANSACTION;
+
+    private static final int NO_DAY = -1;
+
+    private ForecastHistory() {
+    }
+
+    /**
+     * @return the statement finding a location's oldest weather row before a date, in
+     * {@code weatherTable}: the weather table, or the compact layout's data table.
+     */
+    static String selectOldestDate(String weatherTable) {
+        return "SELECT MIN(" + WeatherEntry.COLUMN_DATE + ") FROM " + weatherTable + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+    }
+
+    /**
+     * The temperatures, wind and pressure of some forecasts, with how many went in.  Merging
+     * two keeps the extremes and weights the means by their sample counts.
+     */
+    static final class Aggregate {
+        int startDay;
+        double min;
+        double max;
+        double avg;
+        double maxWind;
+        double meanPressure;
+        int samples;
+
+        void add(double min, double max, double avg, double maxWind, double meanPressure,
+                 int samples) {
+            if (samples <= 0) {
+                return;
+            }
+            if (this.samples == 0) {
+                this.min = min;
+                this.max = max;
+                this.avg = avg;
+                this.maxWind = maxWind;
+                this.meanPressure = meanPressure;
+                this.samples = samples;
+                return;
+            }
+            int total = this.samples + samples;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.avg = (this.avg * this.samples + avg * samples) / total;
+            this.maxWind = Math.max(this.maxWind, maxWind);
+            this.meanPressure = (this.meanPressure * this.samples + meanPressure * samples) /
+                    total;
+            this.samples = total;
+        }
+
+        void add(Aggregate other) {
+            add(other.min, other.max, other.avg, other.maxWind, other.meanPressure,
+                    other.samples);
+        }
+    }
+
+    /**
+     * What one {@link #rollUp} did.
+     */
+    static final class Result {
+        // weather and hourly rows rolled up into days
+        int rolledUpRows;
+        // of which weather rows
+        int rolledUpWeatherRows;
+        // days merged into weeks
+        int mergedDays;
+        // weeks dropped for being too old
+        int expiredWeeks;
+        int transactions;
+
+        int getRemovedRows() {
+            return rolledUpRows + mergedDays + expiredWeeks;
+        }
+
+        @Override
+        public String toString() {
+            return rolledUpRows + " rows rolled up, " + mergedDays + " days merged into weeks, " +
+                    expiredWeeks + " weeks expired in " + transactions + " transactions";
+        }
+    }
+
+    /**
+     * Rolls up every location's weather and hourly rows from before the full resolution
+     * window, merges old days into weeks and drops the oldest weeks.  Run it outside of any
+     * transaction: it commits as it goes.
+     *
+     * @param weatherTable where the weather rows are written: the weather table, or the
+     *                     compact layout's data table
+     * @param now          the time to take as now
+     */
+    static Result rollUp(SQLiteDatabase db, String weatherTable, long now) {
+        long start = System.nanoTime();
+        Time time = new Time();
+        time.set(now);
+        int today = Time.getJulianDay(now, time.gmtoff);
+
+        Result result = new Result();
+        for (long locationId : queryLocationIds(db)) {
+            String location = Long.toString(locationId);
+            // each call is one transaction, so readers get in between batches
+            boolean more;
+            do {
+                more = rollUpDays(db, weatherTable, time, location,
+                        today - FULL_RESOLUTION_DAYS, result);
+            } while (more);
+            do {
+                more = mergeDaysIntoWeeks(db, location, today - DAILY_HISTORY_DAYS, result);
+            } while (more);
+            result.expiredWeeks += db.delete(HistoryEntry.TABLE_NAME, sHistoryRangeSelection,
+                    new String[]{location, Integer.toString(DAYS_PER_WEEK), "0",
+                            Integer.toString(today - WEEKLY_HISTORY_WEEKS * DAYS_PER_WEEK)});
+        }
+        Log.d(LOG_TAG, "History: " + result + " in " + (System.nanoTime() - start) / 1000 +
+                " us");
+        return result;
+    }
+
+    private static List<Long> queryLocationIds(SQLiteDatabase db) {
+        List<Long> locationIds = new ArrayList<>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Rolls up the oldest {@link #DAYS_PER_TRANSACTION} days of a location's weather and
+     * hourly rows from before {@code firstKeptDay}, in one transaction.
+     *
+     * @return whether there may be more days to roll up
+     */
+    private static boolean rollUpDays(SQLiteDatabase db, String weatherTable, Time time,
+                                      String location, int firstKeptDay, Result result) {
+        String[] oldestArgs = {location, Long.toString(time.setJulianDay(firstKeptDay))};
+        String[] oldestHourArgs = {location, Long.toString(firstHourOf(time, firstKeptDay))};
+        String selectOldestDate = selectOldestDate(weatherTable);
+        int rolledUp = 0;
+        db.beginTransaction();
+        try {
+            while (rolledUp < DAYS_PER_TRANSACTION) {
+                int day = NO_DAY;
+                long date = queryMin(db, selectOldestDate, oldestArgs);
+                if (date != -1) {
+                    day = julianDay(time, date);
+                }
+                long hour = queryMin(db, SQL_OLDEST_HOUR, oldestHourArgs);
+                if (hour != -1) {
+                    int hourDay = julianDay(time, hour * HourlyEntry.HOUR_IN_MILLIS);
+                    day = day == NO_DAY ? hourDay : Math.min(day, hourDay);
+                }
+                if (day == NO_DAY) {
+                    break;
+                }
+                rollUpDay(db, weatherTable, time, location, day, result);
+                rolledUp++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            result.transactions++;
+        }
+        return rolledUp == DAYS_PER_TRANSACTION;
+    }
+
+    /**
+     * Replaces a location's weather and hourly rows of {@code day} with its daily history
+     * row.  The daily forecast counts as one sample whose mean is halfway between its low and
+     * high; each 3-hour period is a sample of its own.
+     */
+    private static void rollUpDay(SQLiteDatabase db, String weatherTable, Time time,
+                                  String location, int day, Result result) {
+        Aggregate aggregate = new Aggregate();
+        aggregate.startDay = day;
+
+        String[] dayArgs = {location, Long.toString(time.setJulianDay(day)),
+                Long.toString(time.setJulianDay(day + 1))};
+        Cursor cursor = db.rawQuery(SQL_WEATHER_OF_DAY, dayArgs);
+        try {
+            while (cursor.moveToNext()) {
+                double min = cursor.getDouble(0);
+                double max = cursor.getDouble(1);
+                aggregate.add(min, max, (min + max) / 2, cursor.getDouble(2),
+                        cursor.getDouble(3), 1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        String[] hourArgs = {location, Long.toString(firstHourOf(time, day)),
+                Long.toString(firstHourOf(time, day + 1))};
+        cursor = db.rawQuery(SQL_HOURS_OF_DAY, hourArgs);
+        try {
+            if (cursor.moveToFirst()) {
+                aggregate.add(cursor.getDouble(1), cursor.getDouble(2), cursor.getDouble(3),
+                        cursor.getDouble(4), cursor.getDouble(5), cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int weatherRows = db.delete(weatherTable, sWeatherDaySelection, dayArgs);
+        result.rolledUpWeatherRows += weatherRows;
+        result.rolledUpRows += weatherRows;
+        result.rolledUpRows += db.delete(HourlyEntry.TABLE_NAME, sHourlyRangeSelection,
+                hourArgs);
+        merge(db, location, 1, aggregate);
+    }
+
+    /**
+     * Merges the oldest {@link #DAYS_PER_TRANSACTION} of a location's days from before
+     * {@code firstDailyDay} into their weeks, in one transaction.
+     *
+     * @return whether there may be more days to merge
+     */
+    private static boolean mergeDaysIntoWeeks(SQLiteDatabase db, String location,
+                                              int firstDailyDay, Result result) {
+        String[] args = {location, "1", "0", Integer.toString(firstDailyDay)};
+        db.beginTransaction();
+        try {
+            List<Aggregate> days = queryHistory(db, args);
+            if (days.isEmpty()) {
+                db.setTransactionSuccessful();
+                return false;
+            }
+            Aggregate week = null;
+            for (Aggregate day : days) {
+                int weekStart = day.startDay - day.startDay % DAYS_PER_WEEK;
+                if (week != null && week.startDay != weekStart) {
+                    merge(db, location, DAYS_PER_WEEK, week);
+                    week = null;
+                }
+                if (week == null) {
+                    week = new Aggregate();
+                    week.startDay = weekStart;
+                }
+                week.add(day);
+            }
+            merge(db, location, DAYS_PER_WEEK, week);
+            // the days read are all of the location's days up to the last of them
+            args[3] = Integer.toString(days.get(days.size() - 1).startDay + 1);
+            result.mergedDays += db.delete(HistoryEntry.TABLE_NAME, sHistoryRangeSelection, args);
+            db.setTransactionSuccessful();
+            return days.size() == DAYS_PER_TRANSACTION;
+        } finally {
+            db.endTransaction();
+            result.transactions++;
+        }
+    }
+
+    /**
+     * Adds {@code aggregate} to the stored row for its location, length and start day, if
+     * there is one, and writes it back.
+     */
+    private static void merge(SQLiteDatabase db, String location, int days, Aggregate aggregate) {
+        String startDay = Integer.toString(aggregate.startDay);
+        List<Aggregate> stored = queryHistory(db, new String[]{location, Integer.toString(days),
+                startDay, Integer.toString(aggregate.startDay + 1)});
+        if (!stored.isEmpty()) {
+            aggregate.add(stored.get(0));
+        }
+        if (aggregate.samples == 0) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(HistoryEntry.COLUMN_LOC_KEY, location);
+        values.put(HistoryEntry.COLUMN_DAYS, days);
+        values.put(HistoryEntry.COLUMN_START_DAY, aggregate.startDay);
+        values.put(HistoryEntry.COLUMN_MIN_TEMP, aggregate.min);
+        values.put(HistoryEntry.COLUMN_MAX_TEMP, aggregate.max);
+        values.put(HistoryEntry.COLUMN_AVG_TEMP, aggregate.avg);
+        values.put(HistoryEntry.COLUMN_MAX_WIND, aggregate.maxWind);
+        values.put(HistoryEntry.COLUMN_MEAN_PRESSURE, aggregate.meanPressure);
+        values.put(HistoryEntry.COLUMN_SAMPLES, aggregate.samples);
+        // replaces the stored row
+        db.insert(HistoryEntry.TABLE_NAME, null, values);
+    }
+
+    private static List<Aggregate> queryHistory(SQLiteDatabase db, String[] args) {
+        List<Aggregate> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(SQL_HISTORY_RANGE, args);
+        try {
+            while (cursor.moveToNext()) {
+                Aggregate row = new Aggregate();
+                row.startDay = cursor.getInt(0);
+                row.add(cursor.getDouble(1), cursor.getDouble(2), cursor.getDouble(3),
+                        cursor.getDouble(4), cursor.getDouble(5), cursor.getInt(6));
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the single value {@code sql} selects, or -1 if it is NULL.
+     */
+    private static long queryMin(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int julianDay(Time time, long millis) {
+        time.set(millis);
+        return Time.getJulianDay(millis, time.gmtoff);
+    }
+
+    /**
+     * @return the first whole hour since the epoch that starts on or after the beginning of
+     * {@code day}, so that every hour falls in exactly one day, even where midnight isn't on
+     * the hour in UTC.
+     */
+    static long firstHourOf(Time time, int day) {
+        return (time.setJulianDay(day) + HourlyEntry.HOUR_IN_MILLIS - 1) /
+                HourlyEntry.HOUR_IN_MILLIS;
+    }
+}
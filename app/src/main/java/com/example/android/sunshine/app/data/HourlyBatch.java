@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+
+/**
+ * A run of hourly rows for one location, kept column by column in primitive arrays, the
+ * hourly counterpart of {@link ForecastBatch}.
+ * <p/>
+ * A 3-hour forecast is eight times as many rows as the daily one, so the parser appends the
+ * periods here and {@link WeatherProvider} binds them straight into one compiled statement
+ * instead of boxing each into a {@link ContentValues}.  Descriptions share the daily batches'
+ * interned Strings.
+ */
+public class HourlyBatch {
+
+    private static final int DEFAULT_CAPACITY = 40;
+
+    private long mLocationId = -1;
+    private int mSize;
+
+    long[] hours;
+    int[] weatherIds;
+    String[] shortDescs;
+    double[] temps;
+    double[] humidities;
+    double[] pressures;
+    double[] windSpeeds;
+    double[] degrees;
+
+    public HourlyBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HourlyBatch(int capacity) {
+        hours = new long[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        temps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    /**
+     * @param locationId the _ID of the location row every hour in the batch belongs to
+     */
+    public void setLocationId(long locationId) {
+        mLocationId = locationId;
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param hour the start of the period, in hours since the epoch, as
+     *             {@link WeatherContract.HourlyEntry#toEpochHour(long)} gives it
+     */
+    public void add(long hour, int weatherId, String shortDesc, double temp, double humidity,
+                    double pressure, double windSpeed, double degree) {
+        if (mSize == hours.length) {
+            grow();
+        }
+        hours[mSize] = hour;
+        weatherIds[mSize] = weatherId;
+        shortDescs[mSize] = ForecastBatch.internDescription(shortDesc);
+        temps[mSize] = temp;
+        humidities[mSize] = humidity;
+        pressures[mSize] = pressure;
+        windSpeeds[mSize] = windSpeed;
+        degrees[mSize] = degree;
+        mSize++;
+    }
+
+    /**
+     * @return the batch as hourly rows, for callers that can only reach the provider through a
+     * ContentResolver.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues values = new ContentValues();
+            if (mLocationId != -1) {
+                values.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, mLocationId);
+            }
+            values.put(WeatherContract.HourlyEntry.COLUMN_HOUR, hours[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, shortDescs[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_TEMP, temps[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidities[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, pressures[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, windSpeeds[i]);
+            values.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, degrees[i]);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, hours.length * 2);
+        hours = Arrays.copyOf(hours, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        shortDescs = Arrays.copyOf(shortDescs, capacity);
+        temps = Arrays.copyOf(temps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * The forecast for the current day at one location, as stored in the database.  Temperatures
+ * are in Celsius; format them with {@link com.example.android.sunshine.app.Utility}.
+ * <p/>
+ * Instances are immutable so {@link TodayForecastCache} can hand the same one to every thread.
+ */
+public final class TodayForecast {
+    public final String locationSetting;
+    // normalized, see WeatherContract.normalizeDate
+    public final long date;
+    public final int weatherId;
+    public final String shortDesc;
+    public final double maxTemp;
+    public final double minTemp;
+
+    public TodayForecast(String locationSetting, long date, int weatherId, String shortDesc,
+                         double maxTemp, double minTemp) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.shortDesc = shortDesc;
+        this.maxTemp = maxTemp;
+        this.minTemp = minTemp;
+    }
+
+    @Override
+    public String toString() {
+        return locationSetting + "@" + date + ": " + shortDesc + " (" + weatherId + ") " +
+                maxTemp + "/" + minTemp;
+    }
+}
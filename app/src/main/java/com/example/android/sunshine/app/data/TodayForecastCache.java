@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide snapshot of today's forecast at the preferred location.
+ * <p/>
+ * After every sync the widgets, Muzei, the notification and the wearable all want the same
+ * row.  {@link WeatherProvider} refreshes the snapshot right after each write, so they read
+ * it from memory instead of each making their own query.  A reader that finds no snapshot for
+ * the current location and day queries the provider and keeps the result, unless a write
+ * happened in the meantime.
+ */
+public class TodayForecastCache {
+    private static final String LOG_TAG = TodayForecastCache.class.getSimpleName();
+
+    static final String[] TODAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    // guarded by TodayForecastCache.class
+    private static TodayForecast sSnapshot;
+    // bumped on every invalidation, so a query that raced a write doesn't publish stale data
+    private static int sGeneration;
+
+    private static final AtomicInteger sHitCount = new AtomicInteger();
+    private static final AtomicInteger sQueryCount = new AtomicInteger();
+
+    private TodayForecastCache() {
+    }
+
+    /**
+     * @return today's forecast at the preferred location, or null if the database has none.
+     * May query the provider, so don't call it on the main thread.
+     */
+    public static TodayForecast get(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        int generation;
+        synchronized (TodayForecastCache.class) {
+            if (sSnapshot != null && sSnapshot.date == today &&
+                    sSnapshot.locationSetting.equals(locationSetting)) {
+                sHitCount.incrementAndGet();
+                return sSnapshot;
+            }
+            generation = sGeneration;
+        }
+
+        sQueryCount.incrementAndGet();
+        // today's row only: when it's missing, tomorrow's isn't today's forecast
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, today),
+                TODAY_COLUMNS, null, null, null);
+        TodayForecast forecast = readFirst(locationSetting, cursor);
+        publish(forecast, generation);
+        logStats();
+        return forecast;
+    }
+
+    /**
+     * Drops the snapshot.  Called by the provider whenever weather or location rows change.
+     *
+     * @return the generation a snapshot read after this call should be published with.
+     */
+    static synchronized int invalidate() {
+        sSnapshot = null;
+        return ++sGeneration;
+    }
+
+    /**
+     * Makes {@code forecast} the snapshot, unless the cache was invalidated after
+     * {@code generation} was handed out.
+     */
+    static synchronized void publish(TodayForecast forecast, int generation) {
+        if (forecast != null && generation == sGeneration) {
+            sSnapshot = forecast;
+        }
+    }
+
+    /**
+     * @param cursor today's row with the {@link #TODAY_COLUMNS} projection, or null.  It is
+     *               closed.
+     * @return the first row of the cursor, or null if there is none.
+     */
+    static TodayForecast readFirst(String locationSetting, Cursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new TodayForecast(locationSetting,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the number of reads answered from memory since the process started.
+     */
+    public static int getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * @return the number of reads that had to query the provider since the process started.
+     */
+    public static int getQueryCount() {
+        return sQueryCount.get();
+    }
+
+    private static void logStats() {
+        Log.d(LOG_TAG, "Today's forecast: " + getHitCount() + " cache hits, " +
+                getQueryCount() + " provider queries");
+    }
+}
@@ -43,6 +43,8 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -126,10 +128,26 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter asking bulkInsert to compare each row with the stored one and only
+        // write the rows whose values changed.
+        public static final String PARAM_DIFF_UPSERT = "diff_upsert";
+
+        // Query parameter limiting a weather query to a page of rows, as "count" or
+        // "offset,count".
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_DIFF_UPSERT, "true").build();
+        }
+
+        public static boolean isDiffUpsertUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_DIFF_UPSERT));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -144,6 +162,24 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * A page of at most {@code count} rows from {@code startDate} on.  Unlike
+         * {@link #buildWeatherLocationWithStartDate} the date isn't normalized, so the page after
+         * one ending on day {@code d} starts at {@code d + 1}.
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long startDate,
+                                                   int offset, int count) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_LIMIT,
+                            offset == 0 ? Integer.toString(count) : offset + "," + count)
+                    .build();
+        }
+
+        public static String getLimitFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_LIMIT);
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -165,4 +201,164 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the 3-hour forecast,
+        one row per location and hour.  Unlike the weather rows, times aren't normalized to a
+        day; they are stored as hours since the epoch, in UTC.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        public static final long HOUR_IN_MILLIS = 3600000L;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Hours since the epoch (UTC) at the start of the forecast period
+        public static final String COLUMN_HOUR = "hour";
+        // Weather id and short description, as for the weather table
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // The temperature at that hour (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+
+        // Humidity, pressure, wind speed and direction, in the weather table's units
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding a location's hours, as hours since the epoch.  The start
+        // is inclusive and the end exclusive.
+        public static final String PARAM_START_HOUR = "start";
+        public static final String PARAM_END_HOUR = "end";
+
+        public static long toEpochHour(long millis) {
+            return millis / HOUR_IN_MILLIS;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * The hours of a location from {@code startMillis} up to, but not including,
+         * {@code endMillis}.  Both are rounded down to the hour.
+         */
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long startMillis,
+                                                       long endMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START_HOUR,
+                            Long.toString(toEpochHour(startMillis)))
+                    .appendQueryParameter(PARAM_END_HOUR, Long.toString(toEpochHour(endMillis)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the first hour asked for, or 0 for all of them.
+         */
+        public static long getStartHourFromUri(Uri uri) {
+            String hourString = uri.getQueryParameter(PARAM_START_HOUR);
+            return hourString == null || hourString.length() == 0
+                    ? 0 : Long.parseLong(hourString);
+        }
+
+        /**
+         * @return the hour after the last one asked for, or {@link Long#MAX_VALUE} for all of
+         * them.
+         */
+        public static long getEndHourFromUri(Uri uri) {
+            String hourString = uri.getQueryParameter(PARAM_END_HOUR);
+            return hourString == null || hourString.length() == 0
+                    ? Long.MAX_VALUE : Long.parseLong(hourString);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table: past weather rolled
+        up into one row per location and day, and further back per location and week.  Days are
+        Julian days, like the display table's; a week starts on the Monday its start_day falls
+        on.  WeatherProvider.rollUp() rolls the weather and hourly rows up into it.
+     */
+    public static final class HistoryEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The Julian day the row starts on, and how many days it covers: 1 or 7
+        public static final String COLUMN_START_DAY = "start_day";
+        public static final String COLUMN_DAYS = "days";
+
+        // Lowest, highest and mean temperature over the period (stored as floats)
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_TEMP = "avg";
+
+        // Strongest wind and mean pressure, in the weather table's units
+        public static final String COLUMN_MAX_WIND = "max_wind";
+        public static final String COLUMN_MEAN_PRESSURE = "mean_pressure";
+
+        // How many forecasts went into the row: one per daily forecast and per 3-hour period.
+        // The means are weighted by it when rows are merged.
+        public static final String COLUMN_SAMPLES = "samples";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the display table: the forecast list's
+        text for each weather row, rendered when the rows are written so that binding a row only
+        sets text.  Each row records the locale, units and day it was rendered for, and is stale
+        once any of them changes.  WeatherProvider.renderDisplayStrings() renders them again.
+     */
+    public static final class DisplayEntry {
+
+        public static final String TABLE_NAME = "weather_display";
+
+        // The weather row the text belongs to.  Named apart from the weather columns, since
+        // the weather queries join this table in.
+        public static final String COLUMN_LOC_KEY = "display_location_id";
+        public static final String COLUMN_DATE = "display_date";
+
+        // What the text was rendered for: Locale.toString(), 1 for metric units, and the
+        // Julian day "Today" and "Tomorrow" are relative to.
+        public static final String COLUMN_LOCALE = "display_locale";
+        public static final String COLUMN_METRIC = "display_metric";
+        public static final String COLUMN_JULIAN_DAY = "display_julian_day";
+
+        // The text itself, and the content descriptions that go with it
+        public static final String COLUMN_DAY = "day_text";
+        public static final String COLUMN_DAY_LONG = "day_long_text";
+        public static final String COLUMN_DESCRIPTION = "description_text";
+        public static final String COLUMN_DESCRIPTION_A11Y = "description_a11y_text";
+        public static final String COLUMN_HIGH = "high_text";
+        public static final String COLUMN_HIGH_A11Y = "high_a11y_text";
+        public static final String COLUMN_LOW = "low_text";
+        public static final String COLUMN_LOW_A11Y = "low_a11y_text";
+    }
 }
@@ -18,7 +18,14 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.DisplayEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +34,153 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version and add a
+    // Migration to MIGRATIONS that brings the previous version up to it.
+    static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Every forecast query joins on the location and then filters or sorts on the date, so the
+    // location goes first.  The UNIQUE(date, location_id) index can't serve those lookups: it
+    // would make SQLite walk every location's rows for a date range.  Added in version 3.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date_idx";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // The plain weather table; the CompactWeatherLayout puts a view of the same name instead.
+    static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // The 3-hour forecast, added in version 5.  The UNIQUE(location_id, hour) index both keeps
+    // one row per location and hour and serves every read: a range of a location's hours is a
+    // single index range, however many hours or locations the table holds.  Kept in a plain
+    // table whichever layout the weather rows use.
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_HOUR + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_HOUR + ") ON CONFLICT REPLACE);";
+
+    // Databases older than this predate the migrations below and are dropped and recreated.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * One step of the schema history, bringing a database from {@code toVersion - 1} to
+     * {@code toVersion} while keeping the rows already cached.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In version order, one step per version after OLDEST_MIGRATABLE_VERSION.
+    static final Migration[] MIGRATIONS = {
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // starts out empty, the provider renders it on the next write
+                    db.execSQL(ForecastDisplayStrings.SQL_CREATE_DISPLAY_TABLE);
+                }
+            },
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // starts out empty, the next sync fills it
+                    db.execSQL(SQL_CREATE_HOURLY_TABLE);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // starts out empty, the next sync rolls up the days already stored
+                    db.execSQL(ForecastHistory.SQL_CREATE_HISTORY_TABLE);
+                }
+            },
+    };
+
+    private final boolean mCompactLayout;
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, BuildConfig.COMPACT_WEATHER_STORAGE);
+    }
+
+    /**
+     * @param name          the database file, tests and benchmarks use their own
+     * @param compactLayout whether to store the weather rows in the
+     *                      {@link CompactWeatherLayout}
+     */
+    WeatherDbHelper(Context context, String name, boolean compactLayout) {
+        this(context, name, compactLayout, true);
+    }
+
+    /**
+     * @param writeAheadLogging whether to open the database in write-ahead logging mode, where
+     *                          it has one connection for writes and a pool of connections for
+     *                          reads, so the lists and the widget can query while a sync
+     *                          writes.  Only benchmarks turn it off, to compare.
+     */
+    WeatherDbHelper(Context context, String name, boolean compactLayout,
+                    boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mCompactLayout = compactLayout;
+        mWriteAheadLogging = writeAheadLogging;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(writeAheadLogging);
+        }
     }
 
     @Override
@@ -48,51 +195,87 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        if (mCompactLayout) {
+            CompactWeatherLayout.create(sqLiteDatabase);
+        } else {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        }
+        sqLiteDatabase.execSQL(ForecastDisplayStrings.SQL_CREATE_DISPLAY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(ForecastHistory.SQL_CREATE_HISTORY_TABLE);
+    }
+
+    /**
+     * Converts the weather rows to the layout this helper was built for, if the database was
+     * last opened with the other one.  Runs after any upgrade, so a migration that touches the
+     * weather rows has to check {@link CompactWeatherLayout#isInstalled(SQLiteDatabase)}.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mWriteAheadLogging && !db.isReadOnly()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // before Jelly Bean SQLiteOpenHelper can't do it for us, and it has to happen
+            // outside a transaction
+            db.enableWriteAheadLogging();
+        }
+        if (db.isReadOnly() || CompactWeatherLayout.isInstalled(db) == mCompactLayout) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            if (mCompactLayout) {
+                CompactWeatherLayout.convertFromRows(db);
+            } else {
+                CompactWeatherLayout.convertToRows(db, SQL_CREATE_WEATHER_TABLE,
+                        SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "Converted weather rows to the " + (mCompactLayout ? "compact" : "plain") +
+                " layout in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    /**
+     * @return whether the weather rows are stored in the {@link CompactWeatherLayout}, behind a
+     * view, rather than in a plain table.
+     */
+    boolean isCompactLayout() {
+        return mCompactLayout;
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // This database is only a cache for online data, but throwing it away means every
+        // user sees an empty app, widget and watch face until the next sync comes back.  So
+        // we walk the schema forward one version at a time instead, and only start over for
+        // databases older than the first migration.  SQLiteOpenHelper runs all of this in a
+        // single transaction, so a failed step leaves the old database untouched.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            Log.d(LOG_TAG, "Recreating database version " + oldVersion);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DisplayEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                long start = SystemClock.elapsedRealtime();
+                migration.migrate(sqLiteDatabase);
+                Log.d(LOG_TAG, "Migrated database to version " + migration.toVersion + " in " +
+                        (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+        }
     }
 }
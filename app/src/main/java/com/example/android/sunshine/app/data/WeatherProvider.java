@@ -17,57 +17,153 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Every write, and the cache refresh and display string rendering that follow it, holds
+    // this lock, so writes reach the database one at a time in the order they were made.  The
+    // public write methods only take it and hand over to their ...Locked counterparts.
+    // Queries never take it: from Honeycomb on the database is in write-ahead logging mode,
+    // where readers work from the last committed state on their own connections while a
+    // write is under way.
+    private final Object mWriteLock = new Object();
+
+    // While a batch is open, guarded by mWriteLock: the URIs its writes changed, each notified
+    // once when it closes, and whether one of them needs notifyChange's refresh first.
+    private Set<Uri> mBatchUris;
+    private boolean mBatchRefresh;
+
+    // The dates of the weather rows written since the display strings were last rendered, an
+    // empty range while the first is after the last.  Guarded by mWriteLock.
+    private long mWrittenFirstDate = Long.MAX_VALUE;
+    private long mWrittenLastDate = Long.MIN_VALUE;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int HISTORY = 600;
+    static final int HISTORY_WITH_LOCATION = 601;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The query builder and selections below are package-private so TestQueryPlans can check
+    // that every route is served by an index.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
+        //LEFT JOIN weather_display ON weather.location_id = weather_display.display_location_id
+        //AND weather.date = weather_display.display_date
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID +
+                        " LEFT JOIN " + WeatherContract.DisplayEntry.TABLE_NAME +
+                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.DisplayEntry.COLUMN_LOC_KEY +
+                        " AND " + WeatherContract.WeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.WeatherEntry.COLUMN_DATE +
+                        " = " + WeatherContract.DisplayEntry.COLUMN_DATE);
+    }
+
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+
+    static{
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //history INNER JOIN location ON history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //date = ? AND location_id = ?
+    static final String sDateAndLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND hour >= ? AND hour < ?
+    static final String sHourlyLocationSettingWithRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_HOUR + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_HOUR + " < ? ";
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?), for deletes, which
+    //can't join
+    static final String sHourlyLocationSettingSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -89,7 +185,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.WeatherEntry.getLimitFromUri(uri)
         );
     }
 
@@ -108,6 +205,30 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sHourlyLocationSettingWithRangeSelection,
+                new String[]{WeatherContract.HourlyEntry.getLocationSettingFromUri(uri),
+                        Long.toString(WeatherContract.HourlyEntry.getStartHourFromUri(uri)),
+                        Long.toString(WeatherContract.HourlyEntry.getEndHourFromUri(uri))},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingSelection,
+                new String[]{WeatherContract.HistoryEntry.getLocationSettingFromUri(uri)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +251,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -139,10 +266,23 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        if (mOpenHelper == null) {
+            mOpenHelper = new WeatherDbHelper(getContext());
+        }
         return true;
     }
 
+    public WeatherProvider() {
+    }
+
+    /**
+     * For tests and benchmarks that need a provider over their own database; attach it to a
+     * context with {@link #attachInfo(android.content.Context, android.content.pm.ProviderInfo)}.
+     */
+    WeatherProvider(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +304,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +359,42 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -226,6 +408,12 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        synchronized (mWriteLock) {
+            return insertLocked(uri, values);
+        }
+    }
+
+    private Uri insertLocked(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -233,7 +421,14 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                markWritten(values);
+                CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
+                long _id;
+                try {
+                    _id = insertWeather(db, values, conditions);
+                } finally {
+                    closeConditionInterner(conditions);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -251,12 +446,18 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        synchronized (mWriteLock) {
+            return deleteLocked(uri, selection, selectionArgs);
+        }
+    }
+
+    private int deleteLocked(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
@@ -264,23 +465,302 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (mOpenHelper.isCompactLayout()) {
+                    rowsDeleted = db.delete(CompactWeatherLayout.DATA_TABLE_NAME,
+                            selectRowsOfView(selection), selectionArgs);
+                } else {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                rowsDeleted = deleteHourly(db, uri, match, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    notifyHourlyChange(uri);
+                }
+                return rowsDeleted;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    notifyHourlyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                }
+                return rowsDeleted;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    private static int deleteHourly(SQLiteDatabase db, Uri uri, int match, String selection,
+                                    String[] selectionArgs) {
+        if (match == HOURLY) {
+            return db.delete(WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+        }
+        String[] args = new String[1 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        args[0] = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        }
+        return db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                sHourlyLocationSettingSelection + "AND (" + selection + ")", args);
+    }
+
+    /**
+     * Rolls the weather and hourly rows from before the last few days up into history, merges
+     * old days into weeks and drops the oldest weeks.  Each step commits on its own, so call it
+     * outside of {@link #applyBatch(ArrayList)}; inside {@link #runInBatch(Runnable)} its
+     * notifications wait for the batch like any other write's.
+     *
+     * @param now the time to take as now
+     * @return the number of weather, hourly and history rows rolled up, merged or dropped
+     */
+    public int rollUp(long now) {
+        synchronized (mWriteLock) {
+            ForecastHistory.Result result = ForecastHistory.rollUp(
+                    mOpenHelper.getWritableDatabase(),
+                    mOpenHelper.isCompactLayout() ? CompactWeatherLayout.DATA_TABLE_NAME
+                            : WeatherContract.WeatherEntry.TABLE_NAME,
+                    now);
+            if (result.rolledUpWeatherRows != 0) {
+                // the days are past, but today's forecast and the display strings are brought
+                // up to date, and the display rows of the removed days dropped, all the same
+                markWritten(Long.MIN_VALUE, WeatherContract.normalizeDate(now) - 1);
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+            if (result.rolledUpRows != result.rolledUpWeatherRows) {
+                notifyHourlyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+            }
+            if (result.getRemovedRows() != 0) {
+                notifyHourlyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+            }
+            return result.getRemovedRows();
+        }
+    }
+
+    /**
+     * Tells observers about a change, after bringing today's forecast snapshot and the
+     * forecast list's display strings up to date.  Every write path to the weather and
+     * location tables goes through here.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchUris != null) {
+            mBatchRefresh = true;
+            mBatchUris.add(uri);
+            return;
+        }
+        refreshTodayForecast();
+        renderWrittenRows();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Renders the display strings of the preferred location's forecast from today on again, and
+     * has the lists that show them reload.  For settings that change the text of every row,
+     * like the units, or which rows are shown, like the location; reach the provider with
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     */
+    public void renderDisplayStrings() {
+        synchronized (mWriteLock) {
+            markWritten(Long.MIN_VALUE, Long.MAX_VALUE);
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Widens the range of dates {@link #renderWrittenRows()} renders to the row's date.
+     */
+    private void markWritten(ContentValues values) {
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (date != null) {
+            markWritten(date, date);
+        }
+    }
+
+    private void markWritten(long firstDate, long lastDate) {
+        mWrittenFirstDate = Math.min(mWrittenFirstDate, firstDate);
+        mWrittenLastDate = Math.max(mWrittenLastDate, lastDate);
+    }
+
+    /**
+     * Renders the display strings of the preferred location's rows written since the last
+     * render, rather than all of them: most writes change a few days, or none.  Writes that
+     * only touched locations render nothing.
+     */
+    private void renderWrittenRows() {
+        if (mWrittenFirstDate > mWrittenLastDate) {
+            return;
+        }
+        ForecastDisplayStrings.render(getContext(), mOpenHelper.getWritableDatabase(),
+                Utility.getPreferredLocation(getContext()), mWrittenFirstDate, mWrittenLastDate);
+        mWrittenFirstDate = Long.MAX_VALUE;
+        mWrittenLastDate = Long.MIN_VALUE;
+    }
+
+    /**
+     * Tells observers about a change to the hourly or history rows, which feed neither today's
+     * forecast nor the display strings.
+     */
+    private void notifyHourlyChange(Uri uri) {
+        if (mBatchUris != null) {
+            mBatchUris.add(uri);
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * Opens a batch, unless one is already open.  Call with mWriteLock held.
+     *
+     * @return whether the caller opened the batch and has to close it
+     */
+    private boolean openBatch() {
+        if (mBatchUris != null) {
+            return false;
+        }
+        mBatchUris = new LinkedHashSet<>();
+        mBatchRefresh = false;
+        return true;
+    }
+
+    /**
+     * Closes the open batch, refreshing today's forecast and the display strings once if any of
+     * its writes asked for it, and then notifying each URI it changed once.
+     *
+     * @param notify false when the batch was rolled back and nothing changed
+     */
+    private void closeBatch(boolean notify) {
+        Set<Uri> uris = mBatchUris;
+        boolean refresh = mBatchRefresh;
+        mBatchUris = null;
+        mBatchRefresh = false;
+        if (!notify) {
+            return;
+        }
+        if (refresh) {
+            refreshTodayForecast();
+            renderWrittenRows();
+        }
+        for (Uri uri : uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        Log.d(LOG_TAG, "Batch notified " + uris.size() + " URIs");
+    }
+
+    /**
+     * Applies the operations in a single transaction, and tells observers about the change
+     * once it commits, with one notification per URI however many operations touched it.
+     * Every CursorLoader watching the forecast reloads once for the whole batch instead of once
+     * per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            boolean openedBatch = openBatch();
+            boolean committed = false;
+            try {
+                ContentProviderResult[] results;
+                db.beginTransaction();
+                try {
+                    results = super.applyBatch(operations);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                committed = true;
+                return results;
+            } finally {
+                if (openedBatch) {
+                    closeBatch(committed);
+                }
+            }
+        }
+    }
+
+    /**
+     * In-process counterpart of {@link #applyBatch(ArrayList)} for writes that aren't
+     * ContentProviderOperations, like {@link #upsert(ForecastBatch...)}: runs them holding
+     * back every notification until they're done, then notifies each changed URI once.
+     * <p/>
+     * Unlike applyBatch this doesn't open a transaction, each write keeps its own, so a
+     * failure part way leaves the earlier writes in place, and they are notified.  Other
+     * threads' writes wait until the batch is done.
+     */
+    public void runInBatch(Runnable writes) {
+        synchronized (mWriteLock) {
+            boolean openedBatch = openBatch();
+            try {
+                writes.run();
+            } finally {
+                if (openedBatch) {
+                    closeBatch(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * In-process counterpart of {@link #applyBatch(ArrayList)} that, unlike
+     * {@link #runInBatch(Runnable)}, runs the writes in a single transaction: either all of them
+     * are kept or none.  Their notifications are held back until it commits, or join the open
+     * batch when called inside runInBatch.  Don't roll up history in it, the roll up commits as
+     * it goes.
+     */
+    public void runInTransaction(Runnable writes) {
+        synchronized (mWriteLock) {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            boolean openedBatch = openBatch();
+            boolean committed = false;
+            try {
+                db.beginTransaction();
+                try {
+                    writes.run();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                committed = true;
+            } finally {
+                if (openedBatch) {
+                    closeBatch(committed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the {@link TodayForecastCache} snapshot with a fresh read from our database.
+     * The writes are usually a sync, and its widget, Muzei, notification and wearable updates
+     * all read today's forecast right after; this way they find it in memory.
+     */
+    private void refreshTodayForecast() {
+        int generation = TodayForecastCache.invalidate();
+        long now = System.currentTimeMillis();
+        String locationSetting = Utility.getPreferredLocation(getContext());
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                TodayForecastCache.TODAY_COLUMNS,
+                sLocationSettingAndDaySelection,
+                new String[]{locationSetting,
+                        Long.toString(WeatherContract.normalizeDate(now))},
+                null,
+                null,
+                null);
+        TodayForecastCache.publish(TodayForecastCache.readFirst(locationSetting, cursor),
+                generation);
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -292,16 +772,30 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        synchronized (mWriteLock) {
+            return updateLocked(uri, values, selection, selectionArgs);
+        }
+    }
+
+    private int updateLocked(
+            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // the selection could pick any row
+                markWritten(Long.MIN_VALUE, Long.MAX_VALUE);
+                CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
+                try {
+                    rowsUpdated = updateWeather(db, values, selection, selectionArgs, conditions);
+                } finally {
+                    closeConditionInterner(conditions);
+                }
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
@@ -310,38 +804,541 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        synchronized (mWriteLock) {
+            return bulkInsertLocked(uri, values);
+        }
+    }
+
+    private int bulkInsertLocked(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isDiffUpsertUri(uri)) {
+                    return upsert(uri, values).getChangedCount();
+                }
                 db.beginTransaction();
+                CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        markWritten(value);
+                        long _id = insertWeather(db, value, conditions);
                         if (_id != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    closeConditionInterner(conditions);
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
+            case HOURLY:
+                return bulkInsertHourly(db, uri, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes the hours in one transaction, replacing the rows stored for the same location
+     * and hour.
+     */
+    private int bulkInsertHourly(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyHourlyChange(uri);
+        }
+        return returnCount;
+    }
+
+    // INSERT INTO hourly (location_id, hour, ...) VALUES (?, ?, ...); the table's unique
+    // constraint replaces a row stored for the same location and hour
+    private static final String sHourlyInsertSql = "INSERT INTO " +
+            WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_HOUR + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.HourlyEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.HourlyEntry.COLUMN_DEGREES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Writes the hours of every batch, typically one per location, replacing the rows stored
+     * for the same location and hour, through a single INSERT compiled once for the whole
+     * transaction.
+     * <p/>
+     * This is the in-process counterpart of {@link #bulkInsert(Uri, ContentValues[])} on
+     * {@link WeatherContract.HourlyEntry#CONTENT_URI}; reach the provider with
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * @return the number of rows inserted
+     */
+    public int bulkInsert(HourlyBatch... batches) {
+        synchronized (mWriteLock) {
+            return bulkInsertLocked(batches);
+        }
+    }
+
+    private int bulkInsertLocked(HourlyBatch... batches) {
+        for (HourlyBatch batch : batches) {
+            if (batch.getLocationId() == -1) {
+                throw new IllegalArgumentException("Hourly batch has no location");
+            }
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sHourlyInsertSql);
+        try {
+            for (HourlyBatch batch : batches) {
+                for (int i = 0; i < batch.size(); i++) {
+                    insert.bindLong(1, batch.getLocationId());
+                    insert.bindLong(2, batch.hours[i]);
+                    insert.bindLong(3, batch.weatherIds[i]);
+                    insert.bindString(4, batch.shortDescs[i]);
+                    insert.bindDouble(5, batch.temps[i]);
+                    insert.bindDouble(6, batch.humidities[i]);
+                    insert.bindDouble(7, batch.pressures[i]);
+                    insert.bindDouble(8, batch.windSpeeds[i]);
+                    insert.bindDouble(9, batch.degrees[i]);
+                    if (insert.executeInsert() != -1) {
+                        returnCount++;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyHourlyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    /**
+     * What a diff-aware upsert did with each of the incoming rows.
+     */
+    public static class UpsertResult {
+        public int inserted;
+        public int updated;
+        public int unchanged;
+
+        public int getChangedCount() {
+            return inserted + updated;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged";
+        }
+    }
+
+    /**
+     * Diff-aware version of {@link #bulkInsert(Uri, ContentValues[])} for weather rows.
+     * <p/>
+     * Each row is compared with the one stored for the same date and location.  New rows are
+     * inserted, rows with different values are updated in place (keeping their _ID, unlike the
+     * delete and insert the REPLACE conflict clause would do) and identical rows aren't written
+     * at all.  Observers are only notified when at least one row changed.
+     */
+    public UpsertResult upsert(Uri uri, ContentValues[] values) {
+        synchronized (mWriteLock) {
+            return upsertLocked(uri, values);
+        }
+    }
+
+    private UpsertResult upsertLocked(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != WEATHER) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertResult result = new UpsertResult();
+        db.beginTransaction();
+        CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                if (conditions != null) {
+                    // compare what the view would read back
+                    CompactWeatherLayout.quantize(value);
+                }
+                Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                        null,
+                        sDateAndLocationIdSelection,
+                        new String[]{value.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE),
+                                value.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)},
+                        null,
+                        null,
+                        null);
+                try {
+                    if (!existing.moveToFirst()) {
+                        markWritten(value);
+                        if (insertWeather(db, value, conditions) != -1) {
+                            result.inserted++;
+                        }
+                    } else if (matchesCurrentRow(existing, value)) {
+                        result.unchanged++;
+                    } else {
+                        markWritten(value);
+                        long _id = existing.getLong(
+                                existing.getColumnIndex(WeatherContract.WeatherEntry._ID));
+                        result.updated += updateWeather(db, value,
+                                WeatherContract.WeatherEntry._ID + " = ?",
+                                new String[]{Long.toString(_id)}, conditions);
+                    }
+                } finally {
+                    existing.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            closeConditionInterner(conditions);
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "Weather upsert: " + result);
+        if (result.getChangedCount() > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    // Weather columns in the order the compiled statements below bind them, starting at 1.
+    private static final String[] sBatchColumns = {
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+    };
+
+    // INSERT INTO weather (short_desc, ..., date, location_id) VALUES (?, ..., ?)
+    private static final String sBatchInsertSql;
+
+    // UPDATE weather SET short_desc = ?, ... WHERE date = ? AND location_id = ?
+    private static final String sBatchUpdateSql;
+
+    // 1 if the stored row differs from the bound values, 0 if it matches and -1 if there is
+    // no row for the date and location.
+    static final String sBatchProbeSql;
+
+    static {
+        int valueCount = sBatchColumns.length - 2;
+        StringBuilder columns = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        StringBuilder differences = new StringBuilder();
+        for (int i = 0; i < sBatchColumns.length; i++) {
+            String separator = i == 0 ? "" : ", ";
+            columns.append(separator).append(sBatchColumns[i]);
+            placeholders.append(separator).append('?');
+            if (i < valueCount) {
+                assignments.append(separator).append(sBatchColumns[i]).append(" = ?");
+                differences.append(i == 0 ? "" : " OR ").append(sBatchColumns[i])
+                        .append(" IS NOT ?");
+            }
+        }
+        sBatchInsertSql = "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " (" + columns + ") VALUES (" + placeholders + ")";
+        sBatchUpdateSql = "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " SET " + assignments + " WHERE " + sDateAndLocationIdSelection;
+        sBatchProbeSql = "SELECT COALESCE((SELECT " + differences +
+                " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " WHERE " + sDateAndLocationIdSelection + "), -1)";
+    }
+
+    /**
+     * Binds day {@code i} of the batch in {@link #sBatchColumns} order.
+     */
+    private static void bindBatchRow(SQLiteStatement statement, ForecastBatch batch, int i,
+                                     long normalizedDate) {
+        statement.bindString(1, batch.shortDescs[i]);
+        statement.bindLong(2, batch.weatherIds[i]);
+        statement.bindDouble(3, batch.minTemps[i]);
+        statement.bindDouble(4, batch.maxTemps[i]);
+        statement.bindDouble(5, batch.humidities[i]);
+        statement.bindDouble(6, batch.pressures[i]);
+        statement.bindDouble(7, batch.windSpeeds[i]);
+        statement.bindDouble(8, batch.degrees[i]);
+        statement.bindLong(9, normalizedDate);
+        statement.bindLong(10, batch.getLocationId());
+    }
+
+    /**
+     * Binds day {@code i} of the batch for {@link #sBatchProbeSql}.  For the compact layout the
+     * fixed-point columns are bound as its view reads them back, so the probe compares like
+     * with like; the batch itself is left as the caller filled it.
+     *
+     * @param conditions null for the plain weather table
+     */
+    private static void bindBatchProbe(SQLiteStatement probe, ForecastBatch batch, int i,
+                                       long normalizedDate,
+                                       CompactWeatherLayout.ConditionInterner conditions) {
+        if (conditions == null) {
+            bindBatchRow(probe, batch, i, normalizedDate);
+            return;
+        }
+        probe.bindString(1, batch.shortDescs[i]);
+        probe.bindLong(2, batch.weatherIds[i]);
+        probe.bindDouble(3, CompactWeatherLayout.quantize(batch.minTemps[i]));
+        probe.bindDouble(4, CompactWeatherLayout.quantize(batch.maxTemps[i]));
+        probe.bindDouble(5, CompactWeatherLayout.quantize(batch.humidities[i]));
+        probe.bindDouble(6, CompactWeatherLayout.quantize(batch.pressures[i]));
+        probe.bindDouble(7, CompactWeatherLayout.quantize(batch.windSpeeds[i]));
+        probe.bindDouble(8, CompactWeatherLayout.quantize(batch.degrees[i]));
+        probe.bindLong(9, normalizedDate);
+        probe.bindLong(10, batch.getLocationId());
+    }
+
+    /**
+     * Binds day {@code i} of the batch for the insert or update of the database's layout.
+     *
+     * @param conditions null for the plain weather table
+     */
+    private static void bindBatchWrite(SQLiteStatement statement, ForecastBatch batch, int i,
+                                       long normalizedDate,
+                                       CompactWeatherLayout.ConditionInterner conditions) {
+        if (conditions == null) {
+            bindBatchRow(statement, batch, i, normalizedDate);
+        } else {
+            CompactWeatherLayout.bindBatchRow(statement, batch, i, normalizedDate,
+                    conditions.intern(batch.weatherIds[i], batch.shortDescs[i]));
+        }
+    }
+
+    /**
+     * @return an interner for the condition table, or null if the database keeps its weather
+     * rows in a plain table.
+     */
+    private CompactWeatherLayout.ConditionInterner openConditionInterner(SQLiteDatabase db) {
+        return mOpenHelper.isCompactLayout()
+                ? new CompactWeatherLayout.ConditionInterner(db) : null;
+    }
+
+    private static void closeConditionInterner(
+            CompactWeatherLayout.ConditionInterner conditions) {
+        if (conditions != null) {
+            conditions.close();
+        }
+    }
+
+    /**
+     * Inserts a weather row, given in {@link WeatherContract.WeatherEntry} columns, into the
+     * database's layout.
+     *
+     * @return the row ID of the new row, or -1 if an error occurred
+     */
+    private static long insertWeather(SQLiteDatabase db, ContentValues values,
+                                      CompactWeatherLayout.ConditionInterner conditions) {
+        if (conditions == null) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        }
+        return db.insert(CompactWeatherLayout.DATA_TABLE_NAME, null,
+                CompactWeatherLayout.encode(values, conditions));
+    }
+
+    /**
+     * Updates the weather rows matching a selection on the weather columns, in the database's
+     * layout.
+     *
+     * @return the number of rows updated
+     */
+    private static int updateWeather(SQLiteDatabase db, ContentValues values, String selection,
+                                     String[] selectionArgs,
+                                     CompactWeatherLayout.ConditionInterner conditions) {
+        if (conditions == null) {
+            return db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+        }
+        return db.update(CompactWeatherLayout.DATA_TABLE_NAME,
+                CompactWeatherLayout.encode(values, conditions), selectRowsOfView(selection),
+                selectionArgs);
+    }
+
+    // _id IN (SELECT _id FROM weather WHERE <selection>), so selections written against the
+    // weather columns pick rows of the compact layout's data table
+    private static String selectRowsOfView(String selection) {
+        return WeatherContract.WeatherEntry._ID + " IN (SELECT " +
+                WeatherContract.WeatherEntry._ID + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME +
+                (selection == null ? "" : " WHERE " + selection) + ")";
+    }
+
+    private static void checkBatch(ForecastBatch batch) {
+        if (batch.getLocationId() == -1) {
+            throw new IllegalArgumentException("Forecast batch has no location");
+        }
+    }
+
+    /**
+     * Inserts every day of the batch, replacing the stored rows for the same dates, through a
+     * single INSERT compiled once for the whole transaction.
+     * <p/>
+     * This is the in-process counterpart of {@link #bulkInsert(Uri, ContentValues[])}; reach
+     * the provider with {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * @return the number of rows inserted
+     */
+    public int bulkInsert(ForecastBatch batch) {
+        synchronized (mWriteLock) {
+            return bulkInsertLocked(batch);
+        }
+    }
+
+    private int bulkInsertLocked(ForecastBatch batch) {
+        checkBatch(batch);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount = 0;
+        db.beginTransaction();
+        CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
+        SQLiteStatement insert = db.compileStatement(conditions == null
+                ? sBatchInsertSql : CompactWeatherLayout.SQL_BATCH_INSERT);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                long date = WeatherContract.normalizeDate(batch.dates[i]);
+                markWritten(date, date);
+                bindBatchWrite(insert, batch, i, date, conditions);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            closeConditionInterner(conditions);
+            db.endTransaction();
+        }
+        if (returnCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return returnCount;
+    }
+
+    /**
+     * Diff-aware version of {@link #bulkInsert(ForecastBatch)}, with the same outcome as
+     * {@link #upsert(Uri, ContentValues[])}.  Each day costs one compiled probe that compares
+     * the stored row with the new values inside SQLite, plus an insert or update only when the
+     * probe says one is needed.
+     * <p/>
+     * All batches, typically one per location, are written in a single transaction and
+     * observers are notified once for the lot.
+     */
+    public UpsertResult upsert(ForecastBatch... batches) {
+        synchronized (mWriteLock) {
+            return upsertLocked(batches);
+        }
+    }
+
+    private UpsertResult upsertLocked(ForecastBatch... batches) {
+        for (ForecastBatch batch : batches) {
+            checkBatch(batch);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertResult result = new UpsertResult();
+        db.beginTransaction();
+        CompactWeatherLayout.ConditionInterner conditions = openConditionInterner(db);
+        // the probe reads the weather view of the compact layout as it would the table
+        SQLiteStatement probe = db.compileStatement(sBatchProbeSql);
+        SQLiteStatement insert = db.compileStatement(conditions == null
+                ? sBatchInsertSql : CompactWeatherLayout.SQL_BATCH_INSERT);
+        SQLiteStatement update = db.compileStatement(conditions == null
+                ? sBatchUpdateSql : CompactWeatherLayout.SQL_BATCH_UPDATE);
+        try {
+            for (ForecastBatch batch : batches) {
+                for (int i = 0; i < batch.size(); i++) {
+                    long date = WeatherContract.normalizeDate(batch.dates[i]);
+                    bindBatchProbe(probe, batch, i, date, conditions);
+                    long difference = probe.simpleQueryForLong();
+                    if (difference != 0) {
+                        markWritten(date, date);
+                    }
+                    if (difference == -1) {
+                        bindBatchWrite(insert, batch, i, date, conditions);
+                        if (insert.executeInsert() != -1) {
+                            result.inserted++;
+                        }
+                    } else if (difference != 0) {
+                        // executeUpdateDelete would give us the count, but it needs Honeycomb;
+                        // the probe already told us the row is there
+                        bindBatchWrite(update, batch, i, date, conditions);
+                        update.execute();
+                        result.updated++;
+                    } else {
+                        result.unchanged++;
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            probe.close();
+            insert.close();
+            update.close();
+            closeConditionInterner(conditions);
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "Weather batch upsert: " + result);
+        if (result.getChangedCount() > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether every value matches the cursor's current row.  Numbers are compared by
+     * value, so an Integer 75 matches a stored REAL 75.0.
+     */
+    private static boolean matchesCurrentRow(Cursor cursor, ContentValues values) {
+        for (String column : values.keySet()) {
+            int index = cursor.getColumnIndex(column);
+            if (index == -1) {
+                return false;
+            }
+            Object value = values.get(column);
+            if (value == null) {
+                if (!cursor.isNull(index)) return false;
+            } else if (cursor.isNull(index)) {
+                return false;
+            } else if (value instanceof Number) {
+                if (((Number) value).doubleValue() != cursor.getDouble(index)) return false;
+            } else if (!value.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
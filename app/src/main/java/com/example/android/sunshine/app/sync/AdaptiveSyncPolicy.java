@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the next sync should happen, from what the previous ones found.
+ * <p/>
+ * <ul>
+ * <li>It keeps a moving average of how long the forecast upstream takes to change, as seen by
+ * syncs that stored new rows, and polls twice per expected change.  A sync that finds nothing
+ * new (a 304 from the response cache, or the same rows again) stretches the interval, up to
+ * the expected change interval.</li>
+ * <li>A sync that can't reach the server, or gets something it can't parse, backs off
+ * exponentially from {@link #FIRST_RETRY_MILLIS} instead of waiting a full interval or
+ * hammering a server that is down.</li>
+ * <li>Manual requests, from the watch or a settings change, are coalesced by a
+ * {@link ManualSyncDebouncer}.</li>
+ * </ul>
+ * Times are passed in, so the policy can be replayed against simulated events.  The learned
+ * state lives in the default shared preferences between syncs, see {@link #load(Context)} and
+ * {@link #save(Context)}.
+ */
+class AdaptiveSyncPolicy {
+    static final long MIN_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long MAX_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(12);
+    static final long DEFAULT_INTERVAL_MILLIS =
+            TimeUnit.SECONDS.toMillis(SunshineSyncAdapter.SYNC_INTERVAL);
+    static final long FIRST_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    static final long DEBOUNCE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    // how much the newest observation moves the change interval estimate
+    private static final double CHANGE_ESTIMATE_WEIGHT = 0.3;
+
+    private static final String PREF_INTERVAL = "sync_interval_millis";
+    private static final String PREF_CHANGE_ESTIMATE = "sync_change_estimate_millis";
+    private static final String PREF_LAST_CHANGE = "sync_last_change_millis";
+    private static final String PREF_FAILURE_COUNT = "sync_failure_count";
+
+    private long mIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private long mChangeEstimateMillis = DEFAULT_INTERVAL_MILLIS;
+    // when a sync last stored new rows, -1 if none has yet
+    private long mLastChangeMillis = -1;
+    private int mFailureCount;
+
+    /**
+     * The first request for an immediate sync schedules one {@link #DEBOUNCE_WINDOW_MILLIS}
+     * later, and the requests that arrive before it runs ride along.  The watch asks from every
+     * connected node and a Place Picker result changes several preferences in a row, so this
+     * turns a burst of requests into a single sync that sees the final settings.
+     */
+    static class ManualSyncDebouncer {
+        // when the pending sync runs, -1 if there is none
+        private long mPendingSyncMillis = -1;
+
+        /**
+         * @param nowMillis the time of the request, on a monotonic clock
+         * @return when the sync should run on the same clock, or -1 if a sync already pending
+         * will serve this request too.
+         */
+        synchronized long onSyncRequested(long nowMillis) {
+            if (mPendingSyncMillis != -1 && nowMillis <= mPendingSyncMillis) {
+                return -1;
+            }
+            mPendingSyncMillis = nowMillis + DEBOUNCE_WINDOW_MILLIS;
+            return mPendingSyncMillis;
+        }
+    }
+
+    static AdaptiveSyncPolicy load(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy();
+        policy.mIntervalMillis = prefs.getLong(PREF_INTERVAL, DEFAULT_INTERVAL_MILLIS);
+        policy.mChangeEstimateMillis = prefs.getLong(PREF_CHANGE_ESTIMATE, DEFAULT_INTERVAL_MILLIS);
+        policy.mLastChangeMillis = prefs.getLong(PREF_LAST_CHANGE, -1);
+        policy.mFailureCount = prefs.getInt(PREF_FAILURE_COUNT, 0);
+        return policy;
+    }
+
+    void save(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(PREF_INTERVAL, mIntervalMillis)
+                .putLong(PREF_CHANGE_ESTIMATE, mChangeEstimateMillis)
+                .putLong(PREF_LAST_CHANGE, mLastChangeMillis)
+                .putInt(PREF_FAILURE_COUNT, mFailureCount)
+                .apply();
+    }
+
+    /**
+     * Learns from a finished sync.
+     *
+     * @param nowMillis the wall clock time the sync finished
+     * @param status    the location status the sync ended with
+     * @param changed   whether the sync stored rows that weren't in the database already
+     * @return how long to wait before the next periodic sync.
+     */
+    long onSyncFinished(long nowMillis, @SunshineSyncAdapter.LocationStatus int status,
+                        boolean changed) {
+        switch (status) {
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
+                mFailureCount++;
+                // 15 minutes, 30, 1 hour, ... capped
+                long backoff = FIRST_RETRY_MILLIS << Math.min(mFailureCount - 1, 16);
+                mIntervalMillis = Math.min(backoff, MAX_INTERVAL_MILLIS);
+                return mIntervalMillis;
+            case SunshineSyncAdapter.LOCATION_STATUS_OK:
+                break;
+            default:
+                // nothing to learn from a location the server doesn't know
+                return mIntervalMillis;
+        }
+
+        mFailureCount = 0;
+        if (changed) {
+            if (mLastChangeMillis != -1 && nowMillis > mLastChangeMillis) {
+                long observed = nowMillis - mLastChangeMillis;
+                mChangeEstimateMillis = Math.round(CHANGE_ESTIMATE_WEIGHT * observed +
+                        (1 - CHANGE_ESTIMATE_WEIGHT) * mChangeEstimateMillis);
+            }
+            mLastChangeMillis = nowMillis;
+            mIntervalMillis = clamp(mChangeEstimateMillis / 2);
+        } else {
+            // nothing new, so look less often, but at least once per expected change
+            mIntervalMillis = Math.min(clamp(mIntervalMillis * 3 / 2),
+                    clamp(mChangeEstimateMillis));
+        }
+        return mIntervalMillis;
+    }
+
+    long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    long getChangeEstimateMillis() {
+        return mChangeEstimateMillis;
+    }
+
+    private static long clamp(long intervalMillis) {
+        return Math.max(MIN_INTERVAL_MILLIS, Math.min(intervalMillis, MAX_INTERVAL_MILLIS));
+    }
+}
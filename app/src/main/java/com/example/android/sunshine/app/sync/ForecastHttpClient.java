@@ -0,0 +1,274 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * GETs forecast responses with timeouts, gzip and bounded retries, and keeps the connections
+ * alive for the next request.
+ * <p/>
+ * HttpURLConnection already pools keep-alive connections per host, but only gets a connection
+ * back once its body has been read to the end and closed, and never after disconnect().  So
+ * {@link Response#close()} drains what the caller didn't read and leaves the connection open,
+ * and a sync of many locations runs over a handful of sockets.
+ * <p/>
+ * We ask for gzip ourselves, which turns off the platform's transparent decompression, so we
+ * can count the bytes on the wire as well as the bytes we parse.  Totals for the process are
+ * logged after every request.
+ */
+class ForecastHttpClient {
+    private static final String LOG_TAG = ForecastHttpClient.class.getSimpleName();
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(20);
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_RETRY_BASE_MILLIS = 500;
+
+    private static final AtomicInteger sRequestCount = new AtomicInteger();
+    private static final AtomicInteger sRetryCount = new AtomicInteger();
+    private static final AtomicLong sLatencyMillis = new AtomicLong();
+    private static final AtomicLong sWireBytes = new AtomicLong();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mMaxAttempts;
+    private final long mRetryBaseMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * Lets the caller add headers, such as cache validators, before a request is sent.
+     */
+    interface RequestDecorator {
+        void decorate(HttpURLConnection urlConnection);
+    }
+
+    /**
+     * A response whose headers have arrived.  Always close it, whether the body was read or
+     * not.
+     */
+    static class Response {
+        final int code;
+        final String eTag;
+        final String lastModified;
+        // from the request being sent to the headers arriving, retries included
+        final long latencyMillis;
+
+        private final HttpURLConnection mConnection;
+        private CountingInputStream mWire;
+        private CountingInputStream mDecoded;
+
+        private Response(HttpURLConnection urlConnection, long latencyMillis)
+                throws IOException {
+            mConnection = urlConnection;
+            this.code = urlConnection.getResponseCode();
+            this.eTag = urlConnection.getHeaderField("ETag");
+            this.lastModified = urlConnection.getHeaderField("Last-Modified");
+            this.latencyMillis = latencyMillis;
+        }
+
+        /**
+         * @return the decoded body.  Throws like {@link HttpURLConnection#getInputStream()}
+         * for error responses.
+         */
+        InputStream getBody() throws IOException {
+            if (mDecoded == null) {
+                mWire = new CountingInputStream(mConnection.getInputStream());
+                InputStream body = mWire;
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(body);
+                }
+                mDecoded = new CountingInputStream(body);
+            }
+            return mDecoded;
+        }
+
+        long getWireBytes() {
+            return mWire == null ? 0 : mWire.count;
+        }
+
+        long getDecodedBytes() {
+            return mDecoded == null ? 0 : mDecoded.count;
+        }
+
+        /**
+         * Reads what's left of the body, so the connection can carry the next request, and
+         * records the request.
+         */
+        void close() {
+            try {
+                InputStream wire = mWire;
+                if (wire == null) {
+                    wire = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream() : mConnection.getInputStream();
+                }
+                if (wire != null) {
+                    drain(wire);
+                    wire.close();
+                }
+            } catch (IOException e) {
+                // a connection we couldn't drain can't be reused
+                mConnection.disconnect();
+            }
+            record(this);
+        }
+    }
+
+    ForecastHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_ATTEMPTS,
+                DEFAULT_RETRY_BASE_MILLIS);
+    }
+
+    /**
+     * @param maxAttempts     how many times a request is sent before giving up, at least 1
+     * @param retryBaseMillis the average wait before the first retry; it doubles with every
+     *                        attempt and the actual wait is picked at random up to twice that
+     */
+    ForecastHttpClient(int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts,
+                       long retryBaseMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mRetryBaseMillis = retryBaseMillis;
+    }
+
+    /**
+     * Sends a GET, retrying connection failures, timeouts and server errors.
+     *
+     * @param decorator adds request headers, or null
+     * @return the response of the last attempt, which may still be a server error.
+     * @throws IOException if the last attempt failed to get a response
+     */
+    Response get(String url, RequestDecorator decorator) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+            try {
+                urlConnection.setRequestMethod("GET");
+                urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+                urlConnection.setReadTimeout(mReadTimeoutMillis);
+                urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+                // We revalidate against our own cache, so keep any platform HTTP cache out of the way
+                urlConnection.setUseCaches(false);
+                if (decorator != null) {
+                    decorator.decorate(urlConnection);
+                }
+                Response response = new Response(urlConnection,
+                        SystemClock.elapsedRealtime() - start);
+                if (response.code < HttpURLConnection.HTTP_INTERNAL_ERROR ||
+                        attempt >= mMaxAttempts) {
+                    return response;
+                }
+                Log.d(LOG_TAG, "Attempt " + attempt + " got " + response.code + ", retrying");
+                response.close();
+            } catch (IOException e) {
+                urlConnection.disconnect();
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+                Log.d(LOG_TAG, "Attempt " + attempt + " failed, retrying", e);
+            }
+            sRetryCount.incrementAndGet();
+            backOff(attempt);
+        }
+    }
+
+    private void backOff(int attempt) throws IOException {
+        // full jitter, so the locations of a sync don't retry in lockstep
+        long ceiling = mRetryBaseMillis * 2 << Math.min(attempt - 1, 10);
+        long delay = (long) (mRandom.nextDouble() * ceiling);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // drain
+        }
+    }
+
+    private static void record(Response response) {
+        sRequestCount.incrementAndGet();
+        sLatencyMillis.addAndGet(response.latencyMillis);
+        sWireBytes.addAndGet(response.getWireBytes());
+        sDecodedBytes.addAndGet(response.getDecodedBytes());
+        Log.d(LOG_TAG, "GET " + response.code + " in " + response.latencyMillis + " ms, " +
+                response.getWireBytes() + " bytes on the wire, " + response.getDecodedBytes() +
+                " decoded; " + sRequestCount.get() + " requests, " + sRetryCount.get() +
+                " retries, " + sWireBytes.get() + " bytes on the wire, " + sDecodedBytes.get() +
+                " decoded so far");
+    }
+
+    static int getRequestCount() {
+        return sRequestCount.get();
+    }
+
+    static int getRetryCount() {
+        return sRetryCount.get();
+    }
+
+    /**
+     * @return the average time to the response headers, in milliseconds.
+     */
+    static long getAverageLatencyMillis() {
+        int requests = sRequestCount.get();
+        return requests == 0 ? 0 : sLatencyMillis.get() / requests;
+    }
+
+    static long getWireBytes() {
+        return sWireBytes.get();
+    }
+
+    static long getDecodedBytes() {
+        return sDecodedBytes.get();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Decodes the OpenWeatherMap daily forecast response into a {@link ForecastBatch}.
+ * <p/>
+ * Two paths are available: {@link #parse(String, int)} builds the full {@link JSONObject} tree
+ * from a String, while {@link #parse(InputStream, int)} pulls tokens straight off the network
+ * stream with a {@link JsonReader}, so neither the raw body nor a DOM is ever held in memory.
+ * Both produce exactly the same rows.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits for the day fields seen by the streaming parser: humidity, pressure, wind, degrees,
+    // max, min, short_desc and weather_id
+    private static final int FIELD_HUMIDITY = 1;
+    private static final int FIELD_PRESSURE = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_DEGREES = 1 << 3;
+    private static final int FIELD_MAX_TEMP = 1 << 4;
+    private static final int FIELD_MIN_TEMP = 1 << 5;
+    private static final int FIELD_SHORT_DESC = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+
+    /**
+     * The decoded response.  The location of the days is only known once the city has been
+     * stored, so it is left for the caller to set on the batch.
+     */
+    static class ForecastResponse {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        final ForecastBatch days = new ForecastBatch();
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and build the
+     * weather rows from the resulting Object hierarchy.
+     *
+     * @param forecastJsonStr the complete response body
+     * @param julianStartDay  the julian day of the first entry in the "list" array
+     */
+    static ForecastResponse parse(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        ForecastResponse response = new ForecastResponse();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            response.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (response.messageCode != HttpURLConnection.HTTP_OK) {
+                return response;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        response.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        response.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        response.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            response.days.add(dayTime.setJulianDay(julianStartDay + i),
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    temperatureObject.getDouble(OWM_MIN),
+                    temperatureObject.getDouble(OWM_MAX),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+        }
+        return response;
+    }
+
+    /**
+     * Pull-parse the forecast directly from the response stream.  Fields we don't use are
+     * skipped without being materialized, and the order of the top-level keys does not matter.
+     * <p/>
+     * Structural problems in the payload are reported as a {@link JSONException}, the same as
+     * the String based path, so callers can keep treating them as an invalid server response.
+     * The stream is not closed.
+     *
+     * @param in             the response body, encoded as UTF-8
+     * @param julianStartDay the julian day of the first entry in the "list" array
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static ForecastResponse parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        ForecastResponse response = new ForecastResponse();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            boolean hasCity = false;
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" comes back as a number or as a String depending on the endpoint
+                    response.messageCode = Integer.parseInt(reader.nextString());
+                    if (response.messageCode != HttpURLConnection.HTTP_OK) {
+                        return response;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, response);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, response, julianStartDay);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!hasCity || !hasList) {
+                throw new JSONException("No value for " + (hasCity ? OWM_LIST : OWM_CITY));
+            }
+            return response;
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ForecastResponse response)
+            throws IOException, JSONException {
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                response.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        response.cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        response.cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (response.cityName == null || !hasCoord) {
+            throw new JSONException("No value for " +
+                    (response.cityName == null ? OWM_CITY_NAME : OWM_COORD));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, ForecastResponse response, int julianStartDay)
+            throws IOException, JSONException {
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+        int i = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int fields = 0;
+            int weatherId = 0;
+            String shortDesc = null;
+            double minTemp = 0;
+            double maxTemp = 0;
+            double humidity = 0;
+            double pressure = 0;
+            double windSpeed = 0;
+            double degrees = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                    fields |= FIELD_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    // JSONObject.getInt truncates fractional humidity, nextInt would reject it
+                    humidity = (int) reader.nextDouble();
+                    fields |= FIELD_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                    fields |= FIELD_WIND_SPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    degrees = reader.nextDouble();
+                    fields |= FIELD_DEGREES;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            maxTemp = reader.nextDouble();
+                            fields |= FIELD_MAX_TEMP;
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            minTemp = reader.nextDouble();
+                            fields |= FIELD_MIN_TEMP;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Description is in a child array called "weather", which is 1 element long.
+                    // That element also contains a weather code.
+                    reader.beginArray();
+                    boolean first = true;
+                    while (reader.hasNext()) {
+                        if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        first = false;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                shortDesc = reader.nextString();
+                                fields |= FIELD_SHORT_DESC;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                fields |= FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // the DOM path fails on a missing field, so must we
+            if (fields != ALL_DAY_FIELDS) {
+                throw new JSONException("Incomplete forecast entry at index " + i);
+            }
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            response.days.add(dayTime.setJulianDay(julianStartDay + i), weatherId, shortDesc,
+                    minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+            i++;
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of forecast responses, keyed by the request URI.
+ * <p/>
+ * For every URI we keep the response validators (ETag and Last-Modified) alongside a gzipped
+ * copy of the body.  The validators turn the next request for that URI into a conditional GET,
+ * and the body lets us rebuild the database from a 304 if the rows it produced are gone.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast-responses";
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final AtomicInteger sHitCount = new AtomicInteger();
+    private static final AtomicInteger sMissCount = new AtomicInteger();
+
+    private final File mDirectory;
+
+    /**
+     * The validators and bookkeeping stored for one cached response.
+     */
+    static class Entry {
+        final String eTag;
+        final String lastModified;
+        // the julian day the first forecast in the body was stored for
+        final int julianStartDay;
+        final File body;
+
+        Entry(String eTag, String lastModified, int julianStartDay, File body) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.julianStartDay = julianStartDay;
+            this.body = body;
+        }
+
+        /**
+         * Makes the request conditional on the stored validators.  Must be called before the
+         * connection is connected.
+         */
+        void addValidators(HttpURLConnection urlConnection) {
+            if (eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        /**
+         * @return the decompressed body of the cached response.
+         */
+        InputStream openBody() throws IOException {
+            return new GZIPInputStream(new FileInputStream(body));
+        }
+    }
+
+    /**
+     * Copies a response body into the cache as it is being read.  Nothing is visible in the
+     * cache until {@link #commit()} is called, so a body that fails to parse is never stored.
+     */
+    class Editor {
+        private final String mKey;
+        private final String mETag;
+        private final String mLastModified;
+        private final int mJulianStartDay;
+        private final File mTempBody;
+        private final OutputStream mOut;
+        private InputStream mTee;
+
+        private Editor(String key, String eTag, String lastModified, int julianStartDay)
+                throws IOException {
+            mKey = key;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mJulianStartDay = julianStartDay;
+            mTempBody = new File(mDirectory, key + BODY_SUFFIX + TEMP_SUFFIX);
+            mOut = new GZIPOutputStream(new FileOutputStream(mTempBody));
+        }
+
+        /**
+         * @return a stream that reads from {@code in} and writes everything read to the cache.
+         */
+        InputStream tee(InputStream in) {
+            mTee = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long byteCount) throws IOException {
+                    // route skips through read so the cached copy has no holes
+                    byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+                    int read = read(buffer, 0, buffer.length);
+                    return read == -1 ? 0 : read;
+                }
+            };
+            return mTee;
+        }
+
+        void commit() throws IOException {
+            // the parser may stop short of trailing whitespace, keep the copy byte-exact
+            if (mTee != null) {
+                byte[] buffer = new byte[1024];
+                while (mTee.read(buffer, 0, buffer.length) != -1) {
+                    // drain
+                }
+            }
+            mOut.close();
+            File body = new File(mDirectory, mKey + BODY_SUFFIX);
+            File meta = new File(mDirectory, mKey + META_SUFFIX);
+            File tempMeta = new File(mDirectory, mKey + META_SUFFIX + TEMP_SUFFIX);
+
+            Writer writer = new FileWriter(tempMeta);
+            try {
+                writer.write(nullToEmpty(mETag) + "\n");
+                writer.write(nullToEmpty(mLastModified) + "\n");
+                writer.write(Integer.toString(mJulianStartDay) + "\n");
+            } finally {
+                writer.close();
+            }
+
+            // The meta file goes last: an entry only exists once both files are in place, and
+            // the old validators never outlive the body they were sent with.
+            meta.delete();
+            if (!mTempBody.renameTo(body) || !tempMeta.renameTo(meta)) {
+                abort();
+                throw new IOException("Unable to commit cached response " + mKey);
+            }
+        }
+
+        void abort() {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing cached response", e);
+            }
+            mTempBody.delete();
+            new File(mDirectory, mKey + META_SUFFIX + TEMP_SUFFIX).delete();
+        }
+    }
+
+    ForecastResponseCache(Context context) {
+        this(new File(context.getCacheDir(), CACHE_DIRECTORY));
+    }
+
+    ForecastResponseCache(File directory) {
+        mDirectory = directory;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDirectory);
+        }
+    }
+
+    /**
+     * @return the cached response for the URI, or null if there is none.
+     */
+    Entry get(String uri) {
+        String key = keyFor(uri);
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        if (!meta.isFile() || !body.isFile()) {
+            return null;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(meta));
+            String eTag = emptyToNull(reader.readLine());
+            String lastModified = emptyToNull(reader.readLine());
+            String julianStartDay = reader.readLine();
+            if (julianStartDay == null || (eTag == null && lastModified == null)) {
+                return null;
+            }
+            return new Entry(eTag, lastModified, Integer.parseInt(julianStartDay), body);
+        } catch (IOException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Discarding unreadable cached response for " + key, e);
+            meta.delete();
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing cached response", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts storing a response.  Responses without any validator can't be revalidated, so
+     * they are not cached.
+     *
+     * @param eTag           the ETag header of the response, if any
+     * @param lastModified   the Last-Modified header of the response, if any
+     * @param julianStartDay the julian day the first forecast in the body is stored for
+     * @return an editor for the response, or null if it shouldn't be cached.
+     */
+    Editor edit(String uri, String eTag, String lastModified, int julianStartDay) {
+        if (eTag == null && lastModified == null) {
+            return null;
+        }
+        try {
+            return new Editor(keyFor(uri), eTag, lastModified, julianStartDay);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to cache response for " + uri, e);
+            return null;
+        }
+    }
+
+    static void recordHit() {
+        sHitCount.incrementAndGet();
+    }
+
+    static void recordMiss() {
+        sMissCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of syncs answered with a 304 since the process started.
+     */
+    static int getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * @return the number of syncs that had to download the full body since the process started.
+     */
+    static int getMissCount() {
+        return sMissCount.get();
+    }
+
+    private static String keyFor(String uri) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // every Android device ships MD5 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.length() == 0 ? null : value;
+    }
+}
@@ -0,0 +1,764 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.HourlyBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Refreshes the forecast of every location in the database, plus the preferred one.
+ * <p/>
+ * Locations are downloaded and parsed on a bounded pool of workers, with at most
+ * {@code perHostLimit} requests in flight to any one host.  Nothing is written until every
+ * download is done: the new locations, the days and the 3-hour forecasts of all of them then go
+ * into the provider in one transaction, so observers, widgets and the wearable hear about a
+ * sync once however many locations it covered.  The history is rolled up right after, in its
+ * own small transactions.
+ */
+class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String DEFAULT_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String DEFAULT_HOURLY_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast?";
+    static final int DEFAULT_POOL_SIZE = 4;
+    // OpenWeatherMap throttles keys that open many connections at once
+    static final int DEFAULT_PER_HOST_LIMIT = 2;
+
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+
+    /**
+     * A location to download the forecast for.
+     */
+    static class Target {
+        final String locationSetting;
+        // the Place Picker coordinates of the preferred location, null to query by setting
+        final String latitude;
+        final String longitude;
+        // the location row, -1 until the location is stored
+        final long locationId;
+
+        Target(String locationSetting, String latitude, String longitude, long locationId) {
+            this.locationSetting = locationSetting;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.locationId = locationId;
+        }
+    }
+
+    /**
+     * The outcome of one location's download.
+     */
+    static class LocationResult {
+        final Target target;
+        @SunshineSyncAdapter.LocationStatus
+        int status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        // the forecast to store, null if there is nothing new
+        ForecastJsonParser.ForecastResponse forecast;
+        // the 3-hour forecast to store, null if it couldn't be fetched
+        HourlyBatch hours;
+
+        LocationResult(Target target) {
+            this.target = target;
+        }
+    }
+
+    /**
+     * What a whole sync did.
+     */
+    static class Result {
+        int locationCount;
+        int failedCount;
+        // days downloaded and handed to the provider, and how many of them changed a row
+        int storedDays;
+        int changedDays;
+        int storedHours;
+        // weather, hourly and history rows rolled up or dropped by the history
+        int rolledUpRows;
+        @SunshineSyncAdapter.LocationStatus
+        int preferredLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        long elapsedMillis;
+
+        @Override
+        public String toString() {
+            return locationCount + " locations (" + failedCount + " failed) in " +
+                    elapsedMillis + " ms, " + storedDays + " days stored, " + changedDays +
+                    " changed, " + storedHours + " hours stored, " + rolledUpRows +
+                    " rows rolled up";
+        }
+    }
+
+    private final Context mContext;
+    private final String mBaseUrl;
+    private final String mHourlyBaseUrl;
+    private final int mPoolSize;
+    private final int mPerHostLimit;
+    private final ForecastHttpClient mHttpClient;
+    // guarded by itself
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+
+    ForecastSyncEngine(Context context) {
+        this(context, DEFAULT_BASE_URL, DEFAULT_HOURLY_BASE_URL, DEFAULT_POOL_SIZE,
+                DEFAULT_PER_HOST_LIMIT, new ForecastHttpClient());
+    }
+
+    /**
+     * An engine that only fetches the daily forecast.
+     *
+     * @param baseUrl      the daily forecast endpoint, tests point it at a local server
+     * @param poolSize     the most locations downloaded at once
+     * @param perHostLimit the most requests in flight to any one host
+     * @param httpClient   sends the requests, tests pick its timeouts and retries
+     */
+    ForecastSyncEngine(Context context, String baseUrl, int poolSize, int perHostLimit,
+                       ForecastHttpClient httpClient) {
+        this(context, baseUrl, null, poolSize, perHostLimit, httpClient);
+    }
+
+    /**
+     * @param hourlyBaseUrl the 3-hour forecast endpoint, or null not to fetch it
+     */
+    ForecastSyncEngine(Context context, String baseUrl, String hourlyBaseUrl, int poolSize,
+                       int perHostLimit, ForecastHttpClient httpClient) {
+        mContext = context;
+        mBaseUrl = baseUrl;
+        mHourlyBaseUrl = hourlyBaseUrl;
+        mPoolSize = poolSize;
+        mPerHostLimit = perHostLimit;
+        mHttpClient = httpClient;
+    }
+
+    /**
+     * Downloads every location and stores the results.  Blocks until done, so call it from the
+     * sync thread.
+     */
+    Result sync() {
+        long start = SystemClock.elapsedRealtime();
+        List<Target> targets = loadTargets();
+        String preferredLocation = Utility.getPreferredLocation(mContext);
+        final ForecastResponseCache responseCache = new ForecastResponseCache(mContext);
+
+        List<LocationResult> results = new ArrayList<>(targets.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(mPoolSize, targets.size()));
+        try {
+            List<Future<LocationResult>> futures = new ArrayList<>(targets.size());
+            for (final Target target : targets) {
+                futures.add(pool.submit(new Callable<LocationResult>() {
+                    @Override
+                    public LocationResult call() {
+                        LocationResult result = fetch(target, responseCache);
+                        if (mHourlyBaseUrl != null &&
+                                result.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                            result.hours = fetchHourly(target);
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + targets.get(i).locationSetting, e);
+                    results.add(new LocationResult(targets.get(i)));
+                }
+            }
+        } catch (InterruptedException e) {
+            // the sync was cancelled, store whatever finished
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Result result = storeInBatch(results);
+        result.locationCount = targets.size();
+        for (LocationResult locationResult : results) {
+            if (locationResult.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                result.failedCount++;
+            }
+            if (locationResult.target.locationSetting.equals(preferredLocation)) {
+                result.preferredLocationStatus = locationResult.status;
+            }
+        }
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.d(LOG_TAG, "Sync: " + result);
+        return result;
+    }
+
+    /**
+     * @return the preferred location followed by every other location in the database.
+     */
+    private List<Target> loadTargets() {
+        String preferredLocation = Utility.getPreferredLocation(mContext);
+        long preferredLocationId = -1;
+        List<Target> targets = new ArrayList<>();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, LOCATION_COLUMNS, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String locationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+                    if (locationSetting.equals(preferredLocation)) {
+                        preferredLocationId = cursor.getLong(INDEX_LOCATION_ID);
+                    } else {
+                        targets.add(new Target(locationSetting, null, null,
+                                cursor.getLong(INDEX_LOCATION_ID)));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        Target preferred;
+        if (Utility.isLocationLatLonAvailable(mContext)) {
+            preferred = new Target(preferredLocation,
+                    String.valueOf(Utility.getLocationLatitude(mContext)),
+                    String.valueOf(Utility.getLocationLongitude(mContext)),
+                    preferredLocationId);
+        } else {
+            preferred = new Target(preferredLocation, null, null, preferredLocationId);
+        }
+        targets.add(0, preferred);
+        return targets;
+    }
+
+    private Uri buildForecastUri(Target target) {
+        return buildRequestUri(mBaseUrl, target, NUM_DAYS);
+    }
+
+    /**
+     * @param count how many entries to ask for, 0 for the endpoint's default
+     */
+    private static Uri buildRequestUri(String baseUrl, Target target, int count) {
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+        if (target.latitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, target.latitude)
+                    .appendQueryParameter(LON_PARAM, target.longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, target.locationSetting);
+        }
+        uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS);
+        if (count > 0) {
+            uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(count));
+        }
+        return uriBuilder.appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private Semaphore permitsFor(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mPerHostLimit);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Downloads and parses one location.  Runs on a worker thread and never writes to the
+     * database.
+     */
+    private LocationResult fetch(Target target, ForecastResponseCache responseCache) {
+        LocationResult result = new LocationResult(target);
+
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastHttpClient.Response response = null;
+        Semaphore permits = null;
+
+        try {
+            String requestUri = buildForecastUri(target).toString();
+            final ForecastResponseCache.Entry cachedResponse = responseCache.get(requestUri);
+
+            permits = permitsFor(new URL(requestUri).getHost());
+            permits.acquire();
+
+            // Send the request to OpenWeatherMap over a pooled connection
+            response = mHttpClient.get(requestUri, cachedResponse == null ? null :
+                    new ForecastHttpClient.RequestDecorator() {
+                        @Override
+                        public void decorate(HttpURLConnection urlConnection) {
+                            cachedResponse.addValidators(urlConnection);
+                        }
+                    });
+
+            if (cachedResponse != null && response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ForecastResponseCache.recordHit();
+                logResponseCacheStats();
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                if (hasWeatherForToday(target.locationSetting)) {
+                    // Nothing changed upstream and we still have the rows it produced, so
+                    // there is nothing to store.
+                    return result;
+                }
+                // The rows are gone (the database was recreated, say); rebuild them from the
+                // copy of the body we kept instead of downloading it again.
+                InputStream cachedBody = cachedResponse.openBody();
+                try {
+                    result.forecast = parseForecast(cachedBody, cachedResponse.julianStartDay);
+                } finally {
+                    cachedBody.close();
+                }
+                return checkForecast(result);
+            }
+            ForecastResponseCache.recordMiss();
+            logResponseCacheStats();
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                // Nothing to do.
+                return result;
+            }
+
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
+
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized UTC date for all of our weather.
+            Time dayTime = new Time();
+            dayTime.setToNow();
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+            // Keep a compressed copy of the body as we parse it, so the next sync can be a
+            // conditional request.
+            ForecastResponseCache.Editor cacheEditor = responseCache.edit(requestUri,
+                    response.eTag, response.lastModified, julianStartDay);
+            if (cacheEditor != null) {
+                inputStream = cacheEditor.tee(inputStream);
+            }
+
+            try {
+                result.forecast = parseForecast(inputStream, julianStartDay);
+                if (cacheEditor != null &&
+                        result.forecast.messageCode == HttpURLConnection.HTTP_OK) {
+                    cacheEditor.commit();
+                    cacheEditor = null;
+                }
+            } finally {
+                if (cacheEditor != null) {
+                    cacheEditor.abort();
+                }
+            }
+            return checkForecast(result);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (response != null) {
+                // leaves the connection open for the next location
+                response.close();
+            }
+            if (permits != null) {
+                permits.release();
+            }
+        }
+        result.forecast = null;
+        return result;
+    }
+
+    /**
+     * Downloads and parses the 3-hour forecast of a location whose daily forecast came back
+     * fine.  It changes every few hours, so unlike the daily one it isn't cached.
+     *
+     * @return the hours to store, or null if there are none
+     */
+    private HourlyBatch fetchHourly(Target target) {
+        ForecastHttpClient.Response response = null;
+        Semaphore permits = null;
+        try {
+            String requestUri = buildRequestUri(mHourlyBaseUrl, target, 0).toString();
+            permits = permitsFor(new URL(requestUri).getHost());
+            permits.acquire();
+
+            response = mHttpClient.get(requestUri, null);
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return null;
+            }
+            HourlyForecastParser.HourlyResponse hourly = parseHourly(inputStream);
+            if (hourly.messageCode != HttpURLConnection.HTTP_OK) {
+                Log.d(LOG_TAG, "No 3-hour forecast for " + target.locationSetting + ": " +
+                        hourly.messageCode);
+                return null;
+            }
+            return hourly.hours;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            if (permits != null) {
+                permits.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the status from the response's message code, and drops forecasts that aren't OK.
+     */
+    private static LocationResult checkForecast(LocationResult result) {
+        // do we have an error?
+        switch (result.forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return result;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                break;
+            default:
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                break;
+        }
+        result.forecast = null;
+        return result;
+    }
+
+    /**
+     * Decodes a forecast response body.  The stream is consumed but not closed.
+     */
+    private static ForecastJsonParser.ForecastResponse parseForecast(InputStream inputStream,
+                                                                     int julianStartDay)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Decode the rows straight off the stream; an empty body shows up as an
+            // EOFException, which is handled like any other network failure.
+            return ForecastJsonParser.parse(inputStream, julianStartDay);
+        }
+        return ForecastJsonParser.parse(readBody(inputStream), julianStartDay);
+    }
+
+    /**
+     * Reads a response body into a String, for the parsers that need one.
+     */
+    private static String readBody(InputStream inputStream) throws IOException {
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes a 3-hour forecast response body, as {@link #parseForecast} does a daily one.
+     */
+    private static HourlyForecastParser.HourlyResponse parseHourly(InputStream inputStream)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return HourlyForecastParser.parse(inputStream);
+        }
+        return HourlyForecastParser.parse(readBody(inputStream));
+    }
+
+    /**
+     * @return whether the database holds today's forecast for the location.
+     */
+    private boolean hasWeatherForToday(String locationSetting) {
+        long now = System.currentTimeMillis();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, now),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst() &&
+                    cursor.getLong(0) == WeatherContract.normalizeDate(now);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void logResponseCacheStats() {
+        Log.d(LOG_TAG, "Forecast response cache: " + ForecastResponseCache.getHitCount() +
+                " not modified, " + ForecastResponseCache.getMissCount() + " downloaded");
+    }
+
+    /**
+     * Stores the results in one transaction and rolls up the history, both in one of the
+     * provider's batches, when it lives in our process.  Observers then hear about each URI the
+     * sync changed once, and today's forecast and the display strings are brought up to date
+     * once, instead of after every new location, the days, the hours and the roll up.
+     */
+    private Result storeInBatch(final List<LocationResult> results) {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            try {
+                ContentProvider localProvider = client.getLocalContentProvider();
+                if (localProvider instanceof WeatherProvider) {
+                    final WeatherProvider provider = (WeatherProvider) localProvider;
+                    final Result[] stored = new Result[1];
+                    provider.runInBatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            provider.runInTransaction(new Runnable() {
+                                @Override
+                                public void run() {
+                                    stored[0] = store(results);
+                                }
+                            });
+                            // after every sync, stored or not, so the history keeps up as the
+                            // days go by
+                            stored[0].rolledUpRows = provider.rollUp(System.currentTimeMillis());
+                        }
+                    });
+                    return stored[0];
+                }
+            } finally {
+                client.release();
+            }
+        }
+        // the resolver has neither a transaction to share nor a roll up: each write commits on
+        // its own, and the roll up waits for a sync in the provider's process
+        return store(results);
+    }
+
+    /**
+     * Stores the city of every downloaded forecast as a location and writes all of their hours
+     * and days in one go.  {@link #storeInBatch} runs it in one transaction.
+     */
+    private Result store(List<LocationResult> results) {
+        Result result = new Result();
+        List<ForecastBatch> batches = new ArrayList<>(results.size());
+        List<HourlyBatch> hours = new ArrayList<>();
+        for (LocationResult locationResult : results) {
+            ForecastJsonParser.ForecastResponse forecast = locationResult.forecast;
+            boolean hasDays = forecast != null && forecast.days.size() > 0;
+            Target target = locationResult.target;
+            long locationId = target.locationId;
+            if (locationId == -1) {
+                if (!hasDays) {
+                    // the city to store comes with the daily forecast
+                    continue;
+                }
+                locationId = addLocation(target.locationSetting, forecast.cityName,
+                        forecast.cityLatitude, forecast.cityLongitude);
+            }
+            if (locationResult.hours != null) {
+                locationResult.hours.setLocationId(locationId);
+                hours.add(locationResult.hours);
+            }
+            if (!hasDays) {
+                continue;
+            }
+            forecast.days.setLocationId(locationId);
+            batches.add(forecast.days);
+            result.storedDays += forecast.days.size();
+        }
+        if (!hours.isEmpty()) {
+            result.storedHours = storeHours(hours);
+        }
+        if (batches.isEmpty()) {
+            return result;
+        }
+
+        result.changedDays = storeForecasts(batches);
+        return result;
+    }
+
+    /**
+     * Writes the forecasts through the provider's batch ingest when it lives in our process,
+     * and falls back to a regular bulkInsert of ContentValues otherwise.  Either way most syncs
+     * bring back the forecast we already have, so only the days that changed are written.
+     *
+     * @return the number of days that changed a row
+     */
+    private int storeForecasts(List<ForecastBatch> batches) {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentProviderClient client =
+                resolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            try {
+                ContentProvider localProvider = client.getLocalContentProvider();
+                if (localProvider instanceof WeatherProvider) {
+                    return ((WeatherProvider) localProvider).upsert(
+                            batches.toArray(new ForecastBatch[batches.size()]))
+                            .getChangedCount();
+                }
+            } finally {
+                client.release();
+            }
+        }
+        List<ContentValues> values = new ArrayList<>();
+        for (ForecastBatch batch : batches) {
+            Collections.addAll(values, batch.toContentValues());
+        }
+        return resolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUpsertUri(),
+                values.toArray(new ContentValues[values.size()]));
+    }
+
+    /**
+     * Writes the hours through the provider's batch ingest when it lives in our process, and
+     * falls back to a regular bulkInsert of ContentValues otherwise.
+     *
+     * @return the number of hours stored
+     */
+    private int storeHours(List<HourlyBatch> batches) {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentProviderClient client =
+                resolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            try {
+                ContentProvider localProvider = client.getLocalContentProvider();
+                if (localProvider instanceof WeatherProvider) {
+                    return ((WeatherProvider) localProvider).bulkInsert(
+                            batches.toArray(new HourlyBatch[batches.size()]));
+                }
+            } finally {
+                client.release();
+            }
+        }
+        List<ContentValues> values = new ArrayList<>();
+        for (HourlyBatch batch : batches) {
+            Collections.addAll(values, batch.toContentValues());
+        }
+        return resolver.bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                values.toArray(new ContentValues[values.size()]));
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName        A human-readable city name, e.g "Mountain View"
+     * @param lat             the latitude of the city
+     * @param lon             the longitude of the city
+     * @return the row ID of the added location.
+     */
+    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        long locationId;
+
+        // First, check if the location with this city name exists in the db
+        Cursor locationCursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+
+        if (locationCursor.moveToFirst()) {
+            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
+            locationId = locationCursor.getLong(locationIdIndex);
+        } else {
+            // Now that the content provider is set up, inserting rows of data is pretty simple.
+            // First create a ContentValues object to hold the data you want to insert.
+            ContentValues locationValues = new ContentValues();
+
+            // Then add the data, along with the corresponding name of the data type,
+            // so the content provider knows what kind of value is being inserted.
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+            // Finally, insert location data into the database.
+            Uri insertedUri = mContext.getContentResolver().insert(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    locationValues
+            );
+
+            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+            locationId = ContentUris.parseId(insertedUri);
+        }
+
+        locationCursor.close();
+        // Wait, that worked?  Yes!
+        return locationId;
+    }
+}
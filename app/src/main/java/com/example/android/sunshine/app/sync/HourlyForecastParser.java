@@ -0,0 +1,248 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.HourlyBatch;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Decodes the OpenWeatherMap 3-hour forecast response into an {@link HourlyBatch}.
+ * <p/>
+ * Like {@link ForecastJsonParser} there is a {@link JSONObject} path for a String and a
+ * {@link JsonReader} path that pulls the periods straight off the network stream into the
+ * batch's columns; both produce the same rows.  The location isn't known from the response, so
+ * it is left for the caller to set on the batch.
+ */
+class HourlyForecastParser {
+
+    // Each period's forecast is an element of the "list" array
+    static final String OWM_LIST = "list";
+    // the start of the period, in seconds since the epoch
+    static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+
+    // Wind speed and direction are children of the "wind" object
+    static final String OWM_WIND = "wind";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits for the fields of a period seen by the streaming parser
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMP = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WIND_SPEED = 1 << 4;
+    private static final int FIELD_DEGREES = 1 << 5;
+    private static final int FIELD_SHORT_DESC = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_FIELDS = (1 << 8) - 1;
+
+    /**
+     * The decoded response.
+     */
+    static class HourlyResponse {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        // without the location
+        final HourlyBatch hours = new HourlyBatch();
+    }
+
+    private HourlyForecastParser() {
+    }
+
+    /**
+     * Build the batch from the complete response, for devices without {@link JsonReader}.
+     */
+    static HourlyResponse parse(String forecastJsonStr) throws JSONException {
+        HourlyResponse response = new HourlyResponse();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            response.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (response.messageCode != HttpURLConnection.HTTP_OK) {
+                return response;
+            }
+        }
+
+        JSONArray periods = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < periods.length(); i++) {
+            JSONObject period = periods.getJSONObject(i);
+            JSONObject main = period.getJSONObject(OWM_MAIN);
+            JSONObject wind = period.getJSONObject(OWM_WIND);
+            JSONObject weatherObject = period.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            response.hours.add(HourlyEntry.toEpochHour(period.getLong(OWM_TIME) * 1000),
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    main.getDouble(OWM_TEMPERATURE),
+                    main.getInt(OWM_HUMIDITY),
+                    main.getDouble(OWM_PRESSURE),
+                    wind.getDouble(OWM_WINDSPEED),
+                    wind.getDouble(OWM_WIND_DIRECTION));
+        }
+        return response;
+    }
+
+    /**
+     * Pull-parse the periods directly from the response stream, skipping the fields we don't
+     * store.  Structural problems are reported as a {@link JSONException}, as for
+     * {@link ForecastJsonParser#parse(InputStream, int)}.  The stream is not closed.
+     *
+     * @param in the response body, encoded as UTF-8
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static HourlyResponse parse(InputStream in) throws IOException, JSONException {
+        HourlyResponse response = new HourlyResponse();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            boolean hasList = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" comes back as a number or as a String depending on the endpoint
+                    response.messageCode = Integer.parseInt(reader.nextString());
+                    if (response.messageCode != HttpURLConnection.HTTP_OK) {
+                        return response;
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    readPeriods(reader, response);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            return response;
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readPeriods(JsonReader reader, HourlyResponse response)
+            throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int fields = 0;
+            long time = 0;
+            int weatherId = 0;
+            String shortDesc = null;
+            double temp = 0;
+            double humidity = 0;
+            double pressure = 0;
+            double windSpeed = 0;
+            double degrees = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_TIME.equals(name)) {
+                    time = reader.nextLong();
+                    fields |= FIELD_TIME;
+                } else if (OWM_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (OWM_TEMPERATURE.equals(mainName)) {
+                            temp = reader.nextDouble();
+                            fields |= FIELD_TEMP;
+                        } else if (OWM_PRESSURE.equals(mainName)) {
+                            pressure = reader.nextDouble();
+                            fields |= FIELD_PRESSURE;
+                        } else if (OWM_HUMIDITY.equals(mainName)) {
+                            // JSONObject.getInt truncates fractional humidity, so must we
+                            humidity = (int) reader.nextDouble();
+                            fields |= FIELD_HUMIDITY;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (OWM_WINDSPEED.equals(windName)) {
+                            windSpeed = reader.nextDouble();
+                            fields |= FIELD_WIND_SPEED;
+                        } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                            degrees = reader.nextDouble();
+                            fields |= FIELD_DEGREES;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // only the first condition is stored, as for the daily forecast
+                    reader.beginArray();
+                    boolean first = true;
+                    while (reader.hasNext()) {
+                        if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        first = false;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                shortDesc = reader.nextString();
+                                fields |= FIELD_SHORT_DESC;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                fields |= FIELD_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // the DOM path fails on a missing field, so must we
+            if (fields != ALL_FIELDS) {
+                throw new JSONException("Incomplete forecast period at index " +
+                        response.hours.size());
+            }
+            response.hours.add(HourlyEntry.toEpochHour(time * 1000), weatherId, shortDesc, temp,
+                    humidity, pressure, windSpeed, degrees);
+        }
+        reader.endArray();
+    }
+}
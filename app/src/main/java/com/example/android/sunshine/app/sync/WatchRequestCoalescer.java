@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TodayForecast;
+import com.example.android.sunshine.app.data.TodayForecastCache;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers the watch faces asking for the weather with as few syncs as possible.
+ * <p/>
+ * A watch face with nothing to show asks every connected node, and several watches or a flaky
+ * connection make for bursts of requests.  If the last successful sync is younger than
+ * {@link #FRESHNESS_THRESHOLD_MILLIS} the request is answered right away from the stored
+ * forecast.  Otherwise the node waits for a sync: the first waiting node starts one, the
+ * others join it, and they are all answered when it finishes.  Answers are a
+ * {@link WearWeatherPayload} sent to each node as a message on {@link WearWeatherPayload#PATH}.
+ */
+class WatchRequestCoalescer {
+    private static final String LOG_TAG = WatchRequestCoalescer.class.getSimpleName();
+
+    static final String REQUEST_PATH = "/request-weather";
+    static final long FRESHNESS_THRESHOLD_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    // a sync that hasn't finished by then is assumed lost, and the next request starts another
+    static final long SYNC_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    // per watch, so one that's out of reach can't hold up the sync that answers it
+    private static final long SEND_TIMEOUT_SECONDS = 10;
+
+    // what onWeatherRequested did with a request
+    static final int SERVED_FROM_CACHE = 0;
+    static final int SYNC_STARTED = 1;
+    static final int JOINED_SYNC = 2;
+
+    // wall clock time of the last sync that reached the server
+    static final String PREF_LAST_SYNC = "last_successful_sync_millis";
+
+    private static final WatchRequestCoalescer sInstance = new WatchRequestCoalescer();
+
+    // guarded by this
+    private final Set<String> mWaitingNodes = new LinkedHashSet<>();
+    // elapsed realtime the pending sync was requested at, -1 if there is none
+    private long mSyncRequestedMillis = -1;
+    private int mServedFromCacheCount;
+    private int mSyncCount;
+    private int mJoinedCount;
+
+    static WatchRequestCoalescer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Handles a request for the weather from a watch.
+     *
+     * @return SERVED_FROM_CACHE, SYNC_STARTED or JOINED_SYNC.
+     */
+    int onWeatherRequested(Context context, String nodeId) {
+        if (isFresh(context)) {
+            byte[] payload = currentPayload(context);
+            if (payload != null) {
+                synchronized (this) {
+                    mServedFromCacheCount++;
+                }
+                logStats();
+                reply(context, Collections.singleton(nodeId), payload);
+                return SERVED_FROM_CACHE;
+            }
+        }
+
+        boolean startSync;
+        synchronized (this) {
+            mWaitingNodes.add(nodeId);
+            long now = SystemClock.elapsedRealtime();
+            startSync = mSyncRequestedMillis == -1 ||
+                    now - mSyncRequestedMillis > SYNC_TIMEOUT_MILLIS;
+            if (startSync) {
+                mSyncRequestedMillis = now;
+                mSyncCount++;
+            } else {
+                mJoinedCount++;
+            }
+        }
+        logStats();
+        if (startSync) {
+            startSync(context);
+            return SYNC_STARTED;
+        }
+        return JOINED_SYNC;
+    }
+
+    /**
+     * Answers every node waiting for a sync.  Called at the end of every sync, periodic ones
+     * included.
+     *
+     * @param reachedServer whether the sync got a forecast from the server
+     */
+    void onSyncFinished(Context context, boolean reachedServer) {
+        if (reachedServer) {
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putLong(PREF_LAST_SYNC, System.currentTimeMillis())
+                    .apply();
+        }
+        List<String> nodes;
+        synchronized (this) {
+            mSyncRequestedMillis = -1;
+            if (mWaitingNodes.isEmpty()) {
+                return;
+            }
+            nodes = new ArrayList<>(mWaitingNodes);
+            mWaitingNodes.clear();
+        }
+        byte[] payload = currentPayload(context);
+        if (payload == null) {
+            // they will ask again when they reconnect
+            Log.d(LOG_TAG, "No forecast for " + nodes.size() + " waiting watches");
+            return;
+        }
+        reply(context, nodes, payload);
+    }
+
+    boolean isFresh(Context context) {
+        long lastSync = PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(PREF_LAST_SYNC, 0);
+        long age = System.currentTimeMillis() - lastSync;
+        return age >= 0 && age < FRESHNESS_THRESHOLD_MILLIS;
+    }
+
+    /**
+     * @return today's forecast encoded for the watch, or null if there is none.
+     */
+    byte[] currentPayload(Context context) {
+        TodayForecast today = TodayForecastCache.get(context);
+        if (today == null) {
+            return null;
+        }
+        return WearWeatherPayload.encode(today.weatherId, today.maxTemp, today.minTemp,
+                Utility.isMetric(context));
+    }
+
+    void startSync(Context context) {
+        SunshineSyncAdapter.syncImmediately(context);
+    }
+
+    /**
+     * Sends the payload to each node.  Blocks for up to {@link #CONNECT_TIMEOUT_SECONDS} plus
+     * {@link #SEND_TIMEOUT_SECONDS} per node, so call it off the main thread.
+     */
+    void reply(Context context, Collection<String> nodeIds, byte[] payload) {
+        GoogleApiClient client = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult connection = client.blockingConnect(CONNECT_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.d(LOG_TAG, "Unable to answer " + nodeIds.size() + " watches: " + connection);
+            return;
+        }
+        try {
+            for (String nodeId : nodeIds) {
+                MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(client,
+                        nodeId, WearWeatherPayload.PATH, payload)
+                        .await(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!result.getStatus().isSuccess()) {
+                    Log.d(LOG_TAG, "Unable to answer " + nodeId + ": " + result.getStatus());
+                }
+            }
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    synchronized int getServedFromCacheCount() {
+        return mServedFromCacheCount;
+    }
+
+    synchronized int getSyncCount() {
+        return mSyncCount;
+    }
+
+    synchronized int getJoinedCount() {
+        return mJoinedCount;
+    }
+
+    private void logStats() {
+        Log.d(LOG_TAG, "Watch requests: " + getServedFromCacheCount() + " served from cache, " +
+                getSyncCount() + " syncs, " + getJoinedCount() + " joined a pending sync");
+    }
+}
@@ -17,8 +17,10 @@ public class WearSyncListenerService extends WearableListenerService {
     public void onMessageReceived(MessageEvent messageEvent) {
         super.onMessageReceived(messageEvent);
         Log.d(LOG_TAG, "Message received");
-        if (messageEvent.getPath().equals("/request-weather")){
-            SunshineSyncAdapter.syncImmediately(this);
+        if (messageEvent.getPath().equals(WatchRequestCoalescer.REQUEST_PATH)){
+            // the watch has nothing to show, answer it directly rather than through the data item
+            WatchRequestCoalescer.getInstance().onWeatherRequested(this,
+                    messageEvent.getSourceNodeId());
         }
     }
 }
@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The weather the watch face shows, as the bytes of the "/weather" data item.
+ * <p/>
+ * The watch face ships its own condition icons, so instead of a rendered PNG we only send what
+ * it needs to pick one and format the temperatures itself.  Layout, big endian:
+ * <pre>
+ *  0  byte   VERSION
+ *  1  byte   flags, FLAG_METRIC if the user wants Celsius
+ *  2  short  OWM weather condition id
+ *  4  float  high temperature, in Celsius
+ *  8  float  low temperature, in Celsius
+ * </pre>
+ * The watch face's WeatherPayload decodes it; bump VERSION whenever the layout changes.
+ */
+class WearWeatherPayload {
+    private static final String LOG_TAG = WearWeatherPayload.class.getSimpleName();
+
+    static final String PATH = "/weather";
+    static final byte VERSION = 1;
+    static final int SIZE = 12;
+    static final int FLAG_METRIC = 1;
+
+    // the last payload the data layer accepted, Base64 encoded
+    static final String PREF_LAST_SENT = "wear_weather_payload";
+
+    private static final AtomicInteger sSentCount = new AtomicInteger();
+    private static final AtomicInteger sSkippedCount = new AtomicInteger();
+
+    private WearWeatherPayload() {
+    }
+
+    static byte[] encode(int weatherId, double high, double low, boolean metric) {
+        return ByteBuffer.allocate(SIZE)
+                .put(VERSION)
+                .put((byte) (metric ? FLAG_METRIC : 0))
+                .putShort((short) weatherId)
+                .putFloat((float) high)
+                .putFloat((float) low)
+                .array();
+    }
+
+    /**
+     * @return whether {@code payload} differs from the last one the data layer accepted.
+     * Counts the payload as skipped when it doesn't.
+     */
+    static boolean hasChanged(Context context, byte[] payload) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastSent = prefs.getString(PREF_LAST_SENT, null);
+        if (lastSent != null && Arrays.equals(payload, Base64.decode(lastSent, Base64.NO_WRAP))) {
+            sSkippedCount.incrementAndGet();
+            logStats();
+            return false;
+        }
+        return true;
+    }
+
+    static void markSent(Context context, byte[] payload) {
+        sSentCount.incrementAndGet();
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(PREF_LAST_SENT, Base64.encodeToString(payload, Base64.NO_WRAP))
+                .apply();
+        logStats();
+    }
+
+    private static void logStats() {
+        Log.d(LOG_TAG, "Wear payload: " + sSentCount.get() + " sent (" +
+                sSentCount.get() * SIZE + " bytes), " + sSkippedCount.get() + " unchanged");
+    }
+}
@@ -20,40 +20,69 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.TodayForecast;
+import com.example.android.sunshine.app.data.TodayForecastCache;
+
+import java.util.Arrays;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
 public class TodayWidgetIntentService extends IntentService {
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    private static final String LOG_TAG = TodayWidgetIntentService.class.getSimpleName();
+
+    // the layouts, by width
+    private static final int[] LAYOUT_IDS = {
+            R.layout.widget_today_small,
+            R.layout.widget_today,
+            R.layout.widget_today_large
     };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    private static final int SMALL = 0;
+    private static final int DEFAULT = 1;
+    private static final int LARGE = 2;
+
+    private static final TodayWidgetUpdateTracker sTracker = new TodayWidgetUpdateTracker();
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
 
+    /**
+     * Starts an update of every Today widget.  Widgets already showing today's forecast are left
+     * alone unless they are among {@code forcedAppWidgetIds}, which may be null.
+     */
+    static void startUpdate(Context context, int[] forcedAppWidgetIds) {
+        Intent intent = new Intent(context, TodayWidgetIntentService.class);
+        if (forcedAppWidgetIds != null) {
+            intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, forcedAppWidgetIds);
+        }
+        context.startService(intent);
+    }
+
+    static void forgetWidgets(int[] appWidgetIds) {
+        sTracker.forget(appWidgetIds);
+    }
+
+    public static int getPushedUpdateCount() {
+        return sTracker.getPushedCount();
+    }
+
+    public static int getSkippedUpdateCount() {
+        return sTracker.getSkippedCount();
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         // Retrieve all of the Today widget ids: these are the widgets we need to update
@@ -61,64 +90,89 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
+        // Get today's data, usually already in memory after a sync
+        TodayForecast today = TodayForecastCache.get(this);
+        if (today == null) {
             return;
         }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
+
+        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(today.weatherId);
+        String description = today.shortDesc;
+        String formattedMaxTemperature = Utility.formatTemperature(this, today.maxTemp);
+        String formattedMinTemperature = Utility.formatTemperature(this, today.minTemp);
+
+        int[] forcedAppWidgetIds = intent.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+        if (forcedAppWidgetIds != null) {
+            Arrays.sort(forcedAppWidgetIds);
         }
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        // Every widget of a size shows the same thing, so the views are built at most once per
+        // size, and only if some widget of that size isn't showing them already
+        int[] stateHashes = new int[LAYOUT_IDS.length];
+        for (int size = 0; size < LAYOUT_IDS.length; size++) {
+            stateHashes[size] = TodayWidgetUpdateTracker.hashState(LAYOUT_IDS[size],
+                    weatherArtResourceId, description, formattedMaxTemperature,
+                    formattedMinTemperature);
+        }
+        RemoteViews[] views = new RemoteViews[LAYOUT_IDS.length];
+        PendingIntent pendingIntent = null;
 
         // Perform this loop procedure for each Today widget
+        int pushed = 0;
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
             int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
+            int size;
             if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
+                size = LARGE;
             } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
+                size = DEFAULT;
             } else {
-                layoutId = R.layout.widget_today_small;
+                size = SMALL;
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
-
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
-            // Content Descriptions for RemoteViews were only added in ICS MR1
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+            boolean forced = forcedAppWidgetIds != null &&
+                    Arrays.binarySearch(forcedAppWidgetIds, appWidgetId) >= 0;
+            if (!sTracker.shouldPush(appWidgetId, stateHashes[size], forced)) {
+                continue;
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
 
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+            if (views[size] == null) {
+                if (pendingIntent == null) {
+                    // Create an Intent to launch MainActivity
+                    Intent launchIntent = new Intent(this, MainActivity.class);
+                    pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+                }
+                views[size] = buildViews(LAYOUT_IDS[size], weatherArtResourceId, description,
+                        formattedMaxTemperature, formattedMinTemperature, pendingIntent);
+            }
 
             // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            appWidgetManager.updateAppWidget(appWidgetId, views[size]);
+            pushed++;
+        }
+        Log.d(LOG_TAG, "Updated " + pushed + " of " + appWidgetIds.length + " Today widgets; " +
+                sTracker.getPushedCount() + " pushed and " + sTracker.getSkippedCount() +
+                " skipped since start");
+    }
+
+    private RemoteViews buildViews(int layoutId, int weatherArtResourceId, String description,
+                                   String formattedMaxTemperature,
+                                   String formattedMinTemperature, PendingIntent pendingIntent) {
+        RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+
+        // Add the data to the RemoteViews
+        views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+        // Content Descriptions for RemoteViews were only added in ICS MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            setRemoteContentDescription(views, description);
         }
+        views.setTextViewText(R.id.widget_description, description);
+        views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+        views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+        views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+        return views;
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
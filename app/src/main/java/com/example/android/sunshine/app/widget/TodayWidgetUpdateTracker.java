@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.util.SparseIntArray;
+
+import java.util.Arrays;
+
+/**
+ * Remembers a hash of what each Today widget was last sent, so that an update which wouldn't
+ * change what a widget shows can skip {@code updateAppWidget} and the RemoteViews parcel it
+ * costs.  Nothing is remembered across process restarts, so the first update after one always
+ * goes out.
+ */
+final class TodayWidgetUpdateTracker {
+
+    private final SparseIntArray mPushedStates = new SparseIntArray();
+    private int mPushed;
+    private int mSkipped;
+
+    /**
+     * @return a hash of everything a Today widget shows.
+     */
+    static int hashState(int layoutId, int artResourceId, String description,
+                         String formattedMaxTemperature, String formattedMinTemperature) {
+        return Arrays.hashCode(new Object[]{layoutId, artResourceId, description,
+                formattedMaxTemperature, formattedMinTemperature});
+    }
+
+    /**
+     * Decides whether {@code appWidgetId} needs {@code stateHash} pushed to it, and if so
+     * records it as pushed.
+     *
+     * @param force push even if the widget should already be showing this state, for when the
+     *              widget host asked for views
+     */
+    synchronized boolean shouldPush(int appWidgetId, int stateHash, boolean force) {
+        int index = mPushedStates.indexOfKey(appWidgetId);
+        if (!force && index >= 0 && mPushedStates.valueAt(index) == stateHash) {
+            mSkipped++;
+            return false;
+        }
+        mPushedStates.put(appWidgetId, stateHash);
+        mPushed++;
+        return true;
+    }
+
+    synchronized void forget(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            mPushedStates.delete(appWidgetId);
+        }
+    }
+
+    synchronized int getPushedCount() {
+        return mPushed;
+    }
+
+    synchronized int getSkippedCount() {
+        return mSkipped;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Frame time and allocation counts for the watch face's onDraw.
+ * <p/>
+ * Off by default, so a normal frame only pays for a boolean check.  Turn it on with
+ * {@code adb shell setprop log.tag.FrameStats VERBOSE} before the watch face starts, or with
+ * {@link #setEnabled(boolean)} from a test, then read the totals or watch logcat: a summary
+ * is logged every {@link #LOG_INTERVAL_FRAMES} frames.  A frame that allocates anything is a
+ * regression.
+ * <p/>
+ * The per-layer redraw counts are always kept, since they only cost an increment: the time layer
+ * is drawn on every frame, the static layer only when something on it changed.
+ */
+class FrameStats {
+    static final String TAG = "FrameStats";
+    static final int LOG_INTERVAL_FRAMES = 60;
+
+    private boolean mEnabled = Log.isLoggable(TAG, Log.VERBOSE);
+
+    private int mFrameCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private int mAllocationCount;
+    private int mAllocatingFrameCount;
+
+    private int mStaticLayerDrawCount;
+    private int mTimeLayerDrawCount;
+
+    private long mFrameStart;
+    private int mFrameAllocStart;
+
+    FrameStats() {
+        if (mEnabled) {
+            startAllocCounting();
+        }
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        if (enabled && !mEnabled) {
+            startAllocCounting();
+        } else if (!enabled && mEnabled) {
+            stopAllocCounting();
+        }
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    synchronized void reset() {
+        mFrameCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mAllocationCount = 0;
+        mAllocatingFrameCount = 0;
+        mStaticLayerDrawCount = 0;
+        mTimeLayerDrawCount = 0;
+    }
+
+    synchronized void onStaticLayerDrawn() {
+        mStaticLayerDrawCount++;
+    }
+
+    synchronized void onTimeLayerDrawn() {
+        mTimeLayerDrawCount++;
+    }
+
+    @SuppressWarnings("deprecation")
+    void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mFrameAllocStart = Debug.getThreadAllocCount();
+        mFrameStart = System.nanoTime();
+    }
+
+    @SuppressWarnings("deprecation")
+    void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - mFrameStart;
+        int allocations = Debug.getThreadAllocCount() - mFrameAllocStart;
+        synchronized (this) {
+            mFrameCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            mAllocationCount += allocations;
+            if (allocations > 0) {
+                mAllocatingFrameCount++;
+            }
+        }
+        if (mFrameCount % LOG_INTERVAL_FRAMES == 0) {
+            Log.v(TAG, toString());
+        }
+    }
+
+    synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    synchronized long getAverageFrameNanos() {
+        return mFrameCount == 0 ? 0 : mTotalNanos / mFrameCount;
+    }
+
+    synchronized long getMaxFrameNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @return the number of objects allocated on the drawing thread inside measured frames.
+     */
+    synchronized int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * @return the number of measured frames that allocated at least one object.
+     */
+    synchronized int getAllocatingFrameCount() {
+        return mAllocatingFrameCount;
+    }
+
+    synchronized int getStaticLayerDrawCount() {
+        return mStaticLayerDrawCount;
+    }
+
+    synchronized int getTimeLayerDrawCount() {
+        return mTimeLayerDrawCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mFrameCount + " frames, " + getAverageFrameNanos() / 1000 + " us average, " +
+                mMaxNanos / 1000 + " us max, " + mAllocationCount + " allocations in " +
+                mAllocatingFrameCount + " frames; static layer drawn " + mStaticLayerDrawCount +
+                " times, time layer " + mTimeLayerDrawCount + " times";
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void startAllocCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void stopAllocCounting() {
+        Debug.stopAllocCounting();
+    }
+}
@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -44,19 +43,17 @@ import com.google.android.gms.common.ConnectionResult;
 
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -88,6 +85,11 @@ public class SunshineWatchface extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Frame time and allocation counts for onDraw, off unless enabled.  See {@link FrameStats}.
+     */
+    static final FrameStats sFrameStats = new FrameStats();
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -127,7 +129,24 @@ public class SunshineWatchface extends CanvasWatchFaceService {
 
         String mMaxText = "";
         String mMinText = "";
-        Asset mIconAsset;
+        float mMaxTextWidth;
+        WeatherIconAtlas mIconAtlas;
+
+        // Everything onDraw needs is prepared ahead of time, so a frame allocates nothing.
+        final String[] mHourTexts = new String[24];
+        final String[] mMinuteTexts = new String[60];
+        final float[] mHourTextWidths = new float[24];
+        float mColonWidth;
+        // rebuilt when mDateDay no longer matches the calendar
+        String mDateText = "";
+        float mDateTextWidth;
+        int mDateDay = -1;
+
+        // Background, icon, date and temperatures, which change a few times a day at most.  Only
+        // the time is drawn on every tick; the rest is copied from this bitmap.
+        Bitmap mStaticLayer;
+        final Canvas mStaticLayerCanvas = new Canvas();
+        boolean mStaticLayerDirty = true;
 
         boolean mAmbient;
         int mSunshineLightBlueColor;
@@ -146,6 +165,11 @@ public class SunshineWatchface extends CanvasWatchFaceService {
         float mYDateOffset;
         float mYWeatherOffset;
         float mYWeatherIconOffset;
+        float mXWeatherIconOffset;
+        float mXWeatherIconEndOffset;
+        float mWeatherIconWidth;
+        int mCenterX;
+        final Rect mWeatherIconRect = new Rect();
         /*float mYTimeOffsetRound;
         float mYDateOffsetRound;
         float mYWeatherOffsetRound;
@@ -176,6 +200,9 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             mYDateOffset = resources.getDimension(R.dimen.y_offset_date);
             mYWeatherOffset = resources.getDimension(R.dimen.y_offset_weather);
             mYWeatherIconOffset = resources.getDimension(R.dimen.y_offset_weather_icon);
+            mXWeatherIconOffset = resources.getDimension(R.dimen.x_offset_weather_icon);
+            mXWeatherIconEndOffset = resources.getDimension(R.dimen.x_end_offset_weather_icon);
+            mWeatherIconWidth = resources.getDimension(R.dimen.weather_icon_width);
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(resources.getColor(R.color.sunshine_blue));
 
@@ -194,6 +221,13 @@ public class SunshineWatchface extends CanvasWatchFaceService {
 
 //            mTime = new Time();
             mCalendar = Calendar.getInstance();
+            mIconAtlas = new WeatherIconAtlas(resources);
+            for (int hour = 0; hour < mHourTexts.length; hour++) {
+                mHourTexts[hour] = String.format(Locale.getDefault(), "%02d ", hour);
+            }
+            for (int minute = 0; minute < mMinuteTexts.length; minute++) {
+                mMinuteTexts[minute] = String.format(Locale.getDefault(), " %02d", minute);
+            }
 
             googleApiClient = new GoogleApiClient.Builder(SunshineWatchface.this)
                     .addApi(Wearable.API)
@@ -209,82 +243,139 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             invalidate();
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mCenterX = width / 2;
+            updateLayout();
+            invalidateStaticLayer();
+        }
+
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            int width = bounds.width();
-            int center = width / 2;
+            sFrameStats.beginFrame();
             mCalendar.setTimeInMillis(System.currentTimeMillis());
-//            mDate.setTime(System.currentTimeMillis());
+            if (updateDateText()) {
+                mStaticLayerDirty = true;
+            }
+            if (mStaticLayer == null || mStaticLayer.getWidth() != bounds.width()
+                    || mStaticLayer.getHeight() != bounds.height()) {
+                createStaticLayer(bounds.width(), bounds.height());
+            }
+            if (mStaticLayerDirty) {
+                drawStaticLayer(mStaticLayerCanvas);
+                mStaticLayerDirty = false;
+                sFrameStats.onStaticLayerDrawn();
+            }
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
+
+            canvas.drawText(":", mCenterX - mColonWidth / 2, mYTimeOffset, mHourTextPaint);
+
+            int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+            canvas.drawText(mHourTexts[hour], mCenterX - mHourTextWidths[hour], mYTimeOffset, mHourTextPaint);
+            canvas.drawText(mMinuteTexts[mCalendar.get(Calendar.MINUTE)], mCenterX, mYTimeOffset, mTextPaint);
+            sFrameStats.onTimeLayerDrawn();
+
+            sFrameStats.endFrame();
+        }
+
+        private void drawStaticLayer(Canvas canvas) {
             // Draw the background.
             if (isInAmbientMode()) {
                 canvas.drawColor(Color.BLACK);
-                mDateTextPaint.setColor(Color.WHITE);
-                mMinTextPaint.setColor(Color.WHITE);
             } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-                mDateTextPaint.setColor(mSunshineLightBlueColor);
-                int rectStart;
-                int rectEnd;
-                int rectTop;
-                int rectBottom;
-                if(mIsRound) {
-                    rectStart = Math.round(center - getResources().getDimension(R.dimen.weather_icon_width)/2);
-                    rectTop = Math.round(mYWeatherIconOffset);
-                    rectEnd = Math.round(rectStart + getResources().getDimension(R.dimen.weather_icon_width));
-                    rectBottom = Math.round(mYWeatherIconOffset + getResources().getDimension(R.dimen.weather_icon_width));
-                } else {
-                    rectStart = Math.round(getResources().getDimension(R.dimen.x_offset_weather_icon));
-                    rectEnd = Math.round(getResources().getDimension(R.dimen.x_end_offset_weather_icon));
-                    rectTop = Math.round(mYWeatherIconOffset);
-                    rectBottom = Math.round(mYWeatherIconOffset+rectEnd-rectStart);
+                canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
+                if (mWeatherIcon != null) {
+                    canvas.drawBitmap(mWeatherIcon, null, mWeatherIconRect, null);
                 }
-                if (mWeatherIcon != null ) //canvas.drawBitmap(mWeatherIcon,0,mYWeatherOffset,null);
-                    canvas.drawBitmap(mWeatherIcon, null,
-                            new Rect(rectStart,
-                                    rectTop,
-                                    rectEnd,
-                                    rectBottom), null);
-
             }
 
-//            mTime.setToNow();
-            canvas.drawText(":", center - mHourTextPaint.measureText(":") / 2, mYTimeOffset, mHourTextPaint);
+            // Date
+            canvas.drawText(mDateText, mCenterX - mDateTextWidth / 2, mYDateOffset, mDateTextPaint);
 
-            String hourText = String.format(Locale.getDefault(), "%02d ", mCalendar.get(Calendar.HOUR_OF_DAY));
-            canvas.drawText(hourText, center - mHourTextPaint.measureText(hourText), mYTimeOffset, mHourTextPaint);
+            // Weather, the max ends at the center on round watches and the pair is centered on square ones
+            float weatherMaxPos = mIsRound ? mCenterX - mMaxTextWidth : mCenterX - mMaxTextWidth / 2;
+            canvas.drawText(mMaxText, weatherMaxPos, mYWeatherOffset, mMaxTextPaint);
+            canvas.drawText(mMinText, weatherMaxPos + mMaxTextWidth, mYWeatherOffset, mMinTextPaint);
+        }
 
-            String minuteText = String.format(Locale.getDefault(), " %02d", mCalendar.get(Calendar.MINUTE));
-            canvas.drawText(minuteText, center, mYTimeOffset, mTextPaint);
+        private void createStaticLayer(int width, int height) {
+            releaseStaticLayer();
+            mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mStaticLayerCanvas.setBitmap(mStaticLayer);
+            mStaticLayerDirty = true;
+        }
 
-            // Date
-            String dateText = sdfDate.format(mCalendar.getTime()).toUpperCase();
-            canvas.drawText(dateText, center - mDateTextPaint.measureText(dateText) / 2, mYDateOffset, mDateTextPaint);
+        private void releaseStaticLayer() {
+            if (mStaticLayer != null) {
+                mStaticLayerCanvas.setBitmap(null);
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+            }
+        }
+
+        /**
+         * Makes the next frame redraw the static layer, after something on it changed.
+         */
+        private void invalidateStaticLayer() {
+            mStaticLayerDirty = true;
+            invalidate();
+        }
 
-            // Weather
-            if (mIsRound){
-                float centerWeatherMaxPos = center - mMaxTextPaint.measureText(mMaxText);
-                canvas.drawText(mMaxText, centerWeatherMaxPos, mYWeatherOffset , mMaxTextPaint);
-                canvas.drawText(mMinText, center, mYWeatherOffset , mMinTextPaint);
+        /**
+         * Rebuilds the date text if the day changed since it was last built.
+         *
+         * @return whether the date text changed.
+         */
+        private boolean updateDateText() {
+            int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (day == mDateDay) {
+                return false;
+            }
+            mDateDay = day;
+            mDateText = sdfDate.format(mCalendar.getTime()).toUpperCase(Locale.getDefault());
+            mDateTextWidth = mDateTextPaint.measureText(mDateText);
+            return true;
+        }
 
-            } else {
-                float centerWeatherMaxPos = center - mMaxTextPaint.measureText(mMaxText) / 2;
-                canvas.drawText(mMaxText, centerWeatherMaxPos, mYWeatherOffset , mMaxTextPaint);
-                canvas.drawText(mMinText, centerWeatherMaxPos + mMaxTextPaint.measureText(mMaxText), mYWeatherOffset , mMinTextPaint);
+        /**
+         * Measures the cached texts again, after a text size or typeface change.
+         */
+        private void measureTexts() {
+            mColonWidth = mHourTextPaint.measureText(":");
+            for (int hour = 0; hour < mHourTexts.length; hour++) {
+                mHourTextWidths[hour] = mHourTextPaint.measureText(mHourTexts[hour]);
             }
+            mDateTextWidth = mDateTextPaint.measureText(mDateText);
+            mMaxTextWidth = mMaxTextPaint.measureText(mMaxText);
+        }
 
+        /**
+         * Places the weather icon for the current shape and surface width.
+         */
+        private void updateLayout() {
+            int top = Math.round(mYWeatherIconOffset);
+            if (mIsRound) {
+                int start = Math.round(mCenterX - mWeatherIconWidth / 2);
+                mWeatherIconRect.set(start, top, Math.round(start + mWeatherIconWidth),
+                        Math.round(mYWeatherIconOffset + mWeatherIconWidth));
+            } else {
+                int start = Math.round(mXWeatherIconOffset);
+                int end = Math.round(mXWeatherIconEndOffset);
+                mWeatherIconRect.set(start, top, end, Math.round(mYWeatherIconOffset + end - start));
+            }
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mStaticLayerDirty = true;
             if (properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false))
                 mHourTextPaint.setTypeface(NORMAL_TYPEFACE);
             else
                 mHourTextPaint.setTypeface(BOLD_TYPEFACE);
-
-
-
+            measureTexts();
         }
 
         @Override
@@ -297,7 +388,10 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                     mDateTextPaint.setAntiAlias(!inAmbientMode);
                     mHourTextPaint.setAntiAlias(!inAmbientMode);
                 }
-                invalidate();
+                int accentColor = inAmbientMode ? Color.WHITE : mSunshineLightBlueColor;
+                mDateTextPaint.setColor(accentColor);
+                mMinTextPaint.setColor(accentColor);
+                invalidateStaticLayer();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -312,6 +406,7 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             if (googleApiClient != null && googleApiClient.isConnected()) {
                 googleApiClient.disconnect();
             }
+            releaseStaticLayer();
             super.onDestroy();
         }
 
@@ -350,6 +445,7 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             mCalendar.setTimeZone(TimeZone.getDefault());
             sdfDate = new SimpleDateFormat("EEE, MMM d yyyy", Locale.getDefault());
             sdfDate.setCalendar(mCalendar);
+            mDateDay = -1;
         }
 
         private void registerReceiver() {
@@ -398,6 +494,9 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             mDateTextPaint.setTextSize(dateTextSize);
             mMaxTextPaint.setTextSize(weatherTextSize);
             mMinTextPaint.setTextSize(weatherTextSize);
+            measureTexts();
+            updateLayout();
+            invalidateStaticLayer();
         }
 
 
@@ -433,12 +532,11 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             }
         }
 
-        private static final String PATH = "/weather";
-
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(TAG, "connected GoogleAPI");
             Wearable.DataApi.addListener(googleApiClient, onDataChangedListener);
+            Wearable.MessageApi.addListener(googleApiClient, onMessageReceivedListener);
             Wearable.DataApi.getDataItems(googleApiClient).setResultCallback(onConnectedResultCallback);
 
             if(mMaxText.equals("") || mMinText.equals("")){ //Force the app to sync, when there is nothing to show
@@ -465,51 +563,51 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                     if (Log.isLoggable(TAG, Log.DEBUG))
                         Log.d(TAG, "dataEvent " + dataEvent.getDataItem().getUri().getPath());
                     if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
-                        DataMap dataMap = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
-                        if (dataEvent.getDataItem().getUri().getPath().equals(PATH)) {
-                            String max = dataMap.getString("max");
-                            String min = dataMap.getString("min");
-                            Asset weatherIcon = dataMap.getAsset("weatherIcon");
-
-                            Log.d(TAG, "onDataChanged min" + min);
-                            Log.d(TAG, "onDataChanged max" + max);
-
-                            updateWeather(max, min, loadBitmapFromAsset(weatherIcon));
-                        }
+                        updateWeather(dataEvent.getDataItem());
                     }
                 }
             }
         };
 
-        public Bitmap loadBitmapFromAsset(Asset asset) { //Snippet found at https://developer.android.com/intl/es/training/wearables/data-layer/assets.html
-            if (asset == null) {
-                throw new IllegalArgumentException("Asset must be non-null");
-            }
-            if (!googleApiClient.isConnected()) {
-                return null;
+        // The phone answers our /request-weather with a message rather than the data item.
+        private final MessageApi.MessageListener onMessageReceivedListener = new MessageApi.MessageListener() {
+            @Override
+            public void onMessageReceived(MessageEvent messageEvent) {
+                if (messageEvent.getPath().equals(WeatherPayload.PATH)) {
+                    updateWeather(messageEvent.getData());
+                }
             }
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    googleApiClient, asset).await().getInputStream();
+        };
 
-            if (assetInputStream == null) {
-                Log.w(TAG, "Requested an unknown Asset.");
-                return null;
+        private void updateWeather(DataItem item) {
+            if (item.getUri().getPath().equals(WeatherPayload.PATH)) {
+                updateWeather(item.getData());
             }
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
         }
 
-        private void updateWeather(String max, String min, Bitmap icon){
-            mMaxText = max;
-            mMinText = min;
-            mWeatherIcon = icon;
+        private void updateWeather(byte[] data) {
+            long start = System.nanoTime();
+            WeatherPayload payload = WeatherPayload.decode(data);
+            if (payload == null) {
+                Log.w(TAG, "Ignoring weather payload of an unknown version");
+                return;
+            }
+            mMaxText = payload.formatHigh();
+            mMinText = payload.formatLow();
+            mWeatherIcon = mIconAtlas.getIcon(payload.weatherId);
+            mMaxTextWidth = mMaxTextPaint.measureText(mMaxText);
+            Log.d(TAG, "Decoded " + WeatherPayload.SIZE + " byte weather payload in " +
+                    (System.nanoTime() - start) / 1000 + " us: " + mMaxText + " " + mMinText);
+            invalidateStaticLayer();
         }
+
+        // Picks up the weather sent while we weren't listening.
         private final ResultCallback<DataItemBuffer> onConnectedResultCallback = new ResultCallback<DataItemBuffer>() {
             @Override
             public void onResult(DataItemBuffer dataItems) {
                 for (DataItem item : dataItems) {
                     Log.d(TAG, "onConnectedResultCallback");
+                    updateWeather(item);
                 }
                 dataItems.release();
             }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+import ninja.berbert.app.R;
+
+/**
+ * The weather condition icons bundled with the watch face.  Each icon is decoded the first
+ * time it is needed and kept, so a new forecast with a condition we've shown before costs no
+ * decoding at all.
+ */
+class WeatherIconAtlas {
+    private final Resources mResources;
+    private final SparseArray<Bitmap> mIcons = new SparseArray<>();
+
+    WeatherIconAtlas(Resources resources) {
+        mResources = resources;
+    }
+
+    /**
+     * @return the icon for the OWM weather condition, or null if we have none for it.
+     */
+    Bitmap getIcon(int weatherId) {
+        int resourceId = getIconResourceForWeatherCondition(weatherId);
+        if (resourceId == -1) {
+            return null;
+        }
+        Bitmap icon = mIcons.get(resourceId);
+        if (icon == null) {
+            icon = BitmapFactory.decodeResource(mResources, resourceId);
+            mIcons.put(resourceId, icon);
+        }
+        return icon;
+    }
+
+    // Keep in step with WeatherConditions in the phone app.
+    private static int getIconResourceForWeatherCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+}
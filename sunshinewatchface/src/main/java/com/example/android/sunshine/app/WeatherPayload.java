@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The weather sent by the phone in the "/weather" data item.  See WearWeatherPayload in the
+ * phone app for the layout; the two must agree on VERSION.
+ */
+class WeatherPayload {
+    static final String PATH = "/weather";
+    static final byte VERSION = 1;
+    static final int SIZE = 12;
+    static final int FLAG_METRIC = 1;
+
+    final int weatherId;
+    final boolean metric;
+    // Celsius
+    final float high;
+    final float low;
+
+    private WeatherPayload(int weatherId, boolean metric, float high, float low) {
+        this.weatherId = weatherId;
+        this.metric = metric;
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return the decoded payload, or null if it comes from a phone app we don't understand.
+     */
+    static WeatherPayload decode(byte[] data) {
+        if (data == null || data.length != SIZE || data[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, SIZE - 1);
+        boolean metric = (buffer.get() & FLAG_METRIC) != 0;
+        int weatherId = buffer.getShort();
+        float high = buffer.getFloat();
+        float low = buffer.getFloat();
+        return new WeatherPayload(weatherId, metric, high, low);
+    }
+
+    String formatHigh() {
+        return formatTemperature(high);
+    }
+
+    String formatLow() {
+        return formatTemperature(low);
+    }
+
+    // the same format the phone uses, Utility.formatTemperature
+    private String formatTemperature(float celsius) {
+        double temperature = metric ? celsius : celsius * 1.8 + 32;
+        return String.format(Locale.getDefault(), "%1.0f°", temperature);
+    }
+}